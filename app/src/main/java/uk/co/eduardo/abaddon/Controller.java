@@ -1,7 +1,6 @@
 package uk.co.eduardo.abaddon;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -21,6 +20,7 @@ import android.view.View;
 import android.widget.TextView;
 
 import uk.co.eduardo.abaddon.character.CharacterClass;
+import uk.co.eduardo.abaddon.graphics.CanvasBackend;
 import uk.co.eduardo.abaddon.graphics.layer.Direction;
 import uk.co.eduardo.abaddon.graphics.layer.GameWindow;
 import uk.co.eduardo.abaddon.graphics.layer.Layer;
@@ -31,25 +31,33 @@ import uk.co.eduardo.abaddon.graphics.layer.PathDisplay;
 import uk.co.eduardo.abaddon.graphics.layer.Sprite;
 import uk.co.eduardo.abaddon.graphics.layer.TextWindow;
 import uk.co.eduardo.abaddon.graphics.layer.TiledMap;
+import uk.co.eduardo.abaddon.graphics.layer.Viewport;
+import uk.co.eduardo.abaddon.map.LoadedMap;
 import uk.co.eduardo.abaddon.map.MapDefinition;
-import uk.co.eduardo.abaddon.map.MapFactory;
+import uk.co.eduardo.abaddon.map.MapLoader;
+import uk.co.eduardo.abaddon.map.MapPrefetcher;
 import uk.co.eduardo.abaddon.map.PathFinder;
 import uk.co.eduardo.abaddon.map.actions.ActionManager;
 import uk.co.eduardo.abaddon.map.actions.ChangeLayerAction;
 import uk.co.eduardo.abaddon.map.actions.MapAction;
 import uk.co.eduardo.abaddon.map.actions.TeleportAction;
+import uk.co.eduardo.abaddon.map.chunks.ChunkCache;
+import uk.co.eduardo.abaddon.map.sections.ChunkedMapSection;
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
+import uk.co.eduardo.abaddon.map.sections.MapSection;
 import uk.co.eduardo.abaddon.state.GameState;
 import uk.co.eduardo.abaddon.state.StateMachine;
 import uk.co.eduardo.abaddon.tileset.TileDescription;
-import uk.co.eduardo.abaddon.tileset.TileDescriptionReader;
 import uk.co.eduardo.abaddon.tileset.Tileset;
+import uk.co.eduardo.abaddon.tileset.TilesetCache;
+import uk.co.eduardo.abaddon.util.AnimationClock;
 import uk.co.eduardo.abaddon.util.Coordinate;
 import uk.co.eduardo.abaddon.util.DayNight;
 import uk.co.eduardo.abaddon.util.Debug;
 import uk.co.eduardo.abaddon.util.DisplayResolutions;
 import uk.co.eduardo.abaddon.util.JumpInfo;
+import uk.co.eduardo.abaddon.util.LoadStats;
 import uk.co.eduardo.abaddon.util.Res;
-import uk.co.eduardo.abaddon.util.ResourceUtilities;
 import uk.co.eduardo.abaddon.util.ScreenSettings;
 
 /**
@@ -116,6 +124,9 @@ public class Controller extends Thread
    /** For filling regions in black. */
    private final Paint blackPaint = new Paint();
    
+   /** Draws the layers onto the surface's canvas. */
+   private final CanvasBackend renderer = new CanvasBackend();
+   
    /** The main character */
    private Sprite hero;
    
@@ -142,6 +153,12 @@ public class Controller extends Thread
    
    /** The debug window that displays touch information */
    private TextWindow touchWindow;
+   
+   /** The debug window that displays map loading statistics */
+   private TextWindow loadStatsWindow;
+   
+   /** The statistics text last put in {@link #loadStatsWindow}. */
+   private String loadStatsShown;
 
    /** The debug layer that displays path-finding information. */
    private final PathDisplay pathLayer = new PathDisplay( this.heroPath );
@@ -149,6 +166,15 @@ public class Controller extends Thread
    /** Show map loading information */
    private final MapLoadHandler maploadHandler = new MapLoadHandler();
    
+   /** Streams the tile layers of the current map, or null if the map is held in memory. */
+   private volatile ChunkCache chunkCache;
+   
+   /** The tileset of the current map, acquired from the {@link TilesetCache}. */
+   private Tileset tileset;
+   
+   /** Loads the destinations of nearby teleports before the hero reaches them. */
+   private final MapPrefetcher prefetcher = new MapPrefetcher();
+   
    /** Indicate whether the surface has been created & is ready to draw */
    private boolean mRun = false;
    
@@ -221,99 +247,39 @@ public class Controller extends Thread
          // Update the view to show we are loading a map
          Controller.this.maploadHandler.sendEmptyMessage( Controller.MapLoadHandler.LOAD_START );
 
-         LayerManager.clearAll();
-
-         System.gc();
-
-         final Resources resources = Res.resources;
+         // Use the map if it has already been prefetched, or wait for it if it is on its way
+         LoadedMap loaded = Controller.this.prefetcher.take( this.map );
+         if( loaded == null )
+         {
+            // The bitmaps of maps that are no longer cached are reused through the BitmapPool
+            // rather than collected
+            LayerManager.clearAll();
 
-         // Load the map
-         MapDefinition mapDef = null;
+            try
+            {
+               loaded = MapLoader.load( this.map );
+            }
+            catch( final IOException exception )
+            {
+               // Failed to load map. Set error state.
+               Controller.this.maploadHandler.sendEmptyMessage( Controller.MapLoadHandler.LOAD_ERR );
+               return;
+            }
+         }
+         
          try
          {
-            final int resourceId = ResourceUtilities.getRawResourceId( this.map );
-            mapDef = MapFactory.readMap( resources.openRawResource( resourceId ) );
+            // Have the part of a streamed map around the hero there for the first frame
+            loaded.preload( this.startPos );
          }
          catch( final IOException exception )
          {
-            // Failed to load map. Set error state.
+            loaded.release();
             Controller.this.maploadHandler.sendEmptyMessage( Controller.MapLoadHandler.LOAD_ERR );
             return;
          }
-
-         mapDef.setMapName( this.map );
-
-         // Load the tileset
-         final String tilesetName = mapDef.headerSection.getTilesetName();
-         final int tilesetId = ResourceUtilities.getDrawableResourceId( tilesetName );
-         final Drawable tiles = resources.getDrawable( tilesetId );
-
-         final int tilesetDscId = ResourceUtilities.getRawResourceId( tilesetName );
-         final InputStream rawStream = resources.openRawResource( tilesetDscId );
-
-         final TileDescription tileDesc = TileDescriptionReader.readStream( rawStream );
-
-         final Tileset tileset = new Tileset( tiles, tileDesc );
-
-         final int[][][] mapArrays = mapDef.mapsSection.getMaps();
-
-         for( final int[][] currentMap : mapArrays )
-         {
-            final TiledMap tiledMap = new TiledMap( currentMap, tileset );
-            LayerManager.pushMap( tiledMap );
-         }
-
-         // Create a sprite layer
-         final Drawable spriteImage = resources.getDrawable( R.drawable.pc3 );
-         Controller.this.hero = new PC( spriteImage, 
-                                        ScreenSettings.tileSize, 
-                                        ScreenSettings.spriteHeight, 
-                                        Arrays.asList( CharacterClass.Warrior ) );
-         Controller.this.hero.setLayerIndex( mapDef.headerSection.getLayerIndex() );
-         LayerManager.addSprite( Controller.this.hero );
-         LayerManager.setHero( Controller.this.hero );
-         
-         // Clear any path the hero may have been walking along
-         Controller.this.heroPath.clear();
-
-         // Create and add all of the sprite layers
-         for( int npcToAdd = 0; npcToAdd < mapDef.npcsSection.getNpcCount(); npcToAdd++ )
-         {
-            final NPC npc = mapDef.npcsSection.getNpc( npcToAdd );
-            LayerManager.addSprite( npc );
-
-            // Occupy the tile the NPC is standing on
-            final Coordinate npcTile = npc.getTilePosition();
-            npc.occupy( npcTile.x, npcTile.y );
-         }
-
-         // Create a window with the map name. The x position is irrelevant as
-         // the window will be centred.
-         if( mapDef.isTownMap() || mapDef.isCaveMap() )
-         {
-            final TextWindow mapName = new TextWindow( 10, 10, mapDef.getStrippedName(), 50 );
-
-            mapName.centre( GameWindow.HORIZONTAL );
-
-            LayerManager.pushWindow( mapName );
-         }
-         
-         final Coordinate start = this.startPos == null ?
-                                  mapDef.headerSection.getStartPos() :
-                                  this.startPos;
-      
-         final int tileSize = ScreenSettings.tileSize;
-         
-         // Transform the coordinate to pixel-space and centre on the tile
-         final int xPos = ( start.x * tileSize ) + ( tileSize >> 1 ) + 1;
-         final int yPos = ( start.y * tileSize ) + ( tileSize >> 1 ) + 1;
-         
-         Controller.this.hero.setPixelPosition( xPos, yPos );
-         
-         ActionManager.setActions( mapDef.actionsSection.getActions() );
          
-         // Set the day-night cycle going depending on what type of map it is
-         Debug.useDayNight = !( mapDef.isInteriorMap() || mapDef.isCaveMap() || mapDef.isTownMap() );
+         showMap( loaded, this.startPos );
          
          // Inform that we have finished loading the map
          Controller.this.maploadHandler.sendEmptyMessage( Controller.MapLoadHandler.LOAD_END );
@@ -377,6 +343,9 @@ public class Controller extends Thread
                   // Make sure we're not going too fast.
                   checkTiming();
                   
+                  // Everything animated in this frame sees the same time
+                  AnimationClock.tick();
+                  
                   // Setup debug-related stuff
                   performDebugUpdate();
                   
@@ -457,6 +426,109 @@ public class Controller extends Thread
       new MapLoadThread( "antiochtown", null ).start();
    }
    
+   /**
+    * Replaces the current map with a loaded one.
+    * 
+    * @param loaded the map to show.
+    * @param startPos the starting position on the map. If null, use the default start position
+    *                 defined in the map.
+    */
+   private void showMap( final LoadedMap loaded, final Coordinate startPos )
+   {
+      final MapDefinition mapDef = loaded.definition;
+      final Tileset tileset = loaded.tileset;
+      final Resources resources = Res.resources;
+      final long populateStart = LoadStats.start();
+      
+      LayerManager.clearAll();
+      
+      // The maps prefetched for the old map's teleports are no use on the new one
+      this.prefetcher.clear();
+      
+      if( this.chunkCache != null )
+      {
+         this.chunkCache.release();
+         this.chunkCache = null;
+      }
+      
+      // Release the old tileset only now so that it is reused if the new map shares it
+      if( this.tileset != null )
+      {
+         TilesetCache.release( this.tileset );
+      }
+      this.tileset = tileset;
+      
+      final MapSection mapsSection = mapDef.mapsSection;
+      if( mapsSection instanceof ChunkedMapSection )
+      {
+         this.chunkCache = ( (ChunkedMapSection) mapsSection ).getChunkCache();
+      }
+
+      // Compiled maps carry precomputed collision, bounds and region tables
+      final DerivedSection derived = mapDef.derivedSection;
+      for( int layer = 0; layer < mapsSection.getLayerCount(); layer++ )
+      {
+         final TiledMap tiledMap = new TiledMap( mapsSection.getLayer( layer ), tileset, derived, layer );
+         LayerManager.pushMap( tiledMap );
+      }
+      LayerManager.setDerivedSection( derived );
+
+      // Create a sprite layer
+      final Drawable spriteImage = resources.getDrawable( R.drawable.pc3 );
+      this.hero = new PC( spriteImage, 
+                          ScreenSettings.tileSize, 
+                          ScreenSettings.spriteHeight, 
+                          Arrays.asList( CharacterClass.Warrior ) );
+      this.hero.setLayerIndex( mapDef.headerSection.getLayerIndex() );
+      LayerManager.addSprite( this.hero );
+      LayerManager.setHero( this.hero );
+      
+      // Clear any path the hero may have been walking along
+      this.heroPath.clear();
+
+      // Create and add all of the sprite layers
+      for( int npcToAdd = 0; npcToAdd < mapDef.npcsSection.getNpcCount(); npcToAdd++ )
+      {
+         final NPC npc = mapDef.npcsSection.getNpc( npcToAdd );
+         LayerManager.addSprite( npc );
+
+         // Occupy the tile the NPC is standing on
+         final Coordinate npcTile = npc.getTilePosition();
+         npc.occupy( npcTile.x, npcTile.y );
+      }
+
+      // Create a window with the map name. The x position is irrelevant as
+      // the window will be centred.
+      if( mapDef.isTownMap() || mapDef.isCaveMap() )
+      {
+         final TextWindow mapName = new TextWindow( 10, 10, mapDef.getStrippedName(), 50 );
+
+         mapName.centre( GameWindow.HORIZONTAL );
+
+         LayerManager.pushWindow( mapName );
+      }
+      
+      final Coordinate start = startPos == null ?
+                               mapDef.headerSection.getStartPos() :
+                               startPos;
+   
+      final int tileSize = ScreenSettings.tileSize;
+      
+      // Transform the coordinate to pixel-space and centre on the tile
+      final int xPos = ( start.x * tileSize ) + ( tileSize >> 1 ) + 1;
+      final int yPos = ( start.y * tileSize ) + ( tileSize >> 1 ) + 1;
+      
+      this.hero.setPixelPosition( xPos, yPos );
+      
+      ActionManager.setActions( mapDef.actionsSection.getActions() );
+      
+      // Set the day-night cycle going depending on what type of map it is
+      Debug.useDayNight = !( mapDef.isInteriorMap() || mapDef.isCaveMap() || mapDef.isTownMap() );
+      
+      loaded.stats.add( LoadStats.Phase.POPULATE_LAYERS, System.nanoTime() - populateStart, 0 );
+      LoadStats.publish( loaded.stats );
+   }
+   
    /**
     * Handles the basic update loop, performs actions based on which key 
     * events occurred in the during the last animation frame.
@@ -500,6 +572,17 @@ public class Controller extends Thread
          // Check hero's location for action tiles
          checkForActions();
       }
+      
+      final Coordinate heroTile = this.hero.getTilePosition();
+      
+      // Keep the chunks around the hero decoded
+      if( this.chunkCache != null )
+      {
+         this.chunkCache.update( heroTile.x, heroTile.y );
+      }
+      
+      // Start loading the destinations of nearby teleports
+      this.prefetcher.update( heroTile );
    }
    
    /**
@@ -522,9 +605,21 @@ public class Controller extends Thread
                final String newMapName = ta.getDestinationMapName();
                final Coordinate destination = ta.getDestination();
                
-               // Load the map in a separate thread to not slow down 
-               // the UI thread
-               new MapLoadThread( newMapName, destination ).start();
+               final LoadedMap prefetched = this.prefetcher.takeIfReady( newMapName );
+               if( prefetched != null )
+               {
+                  // The map is already loaded so swap it in straight away
+                  showMap( prefetched, destination );
+               }
+               else
+               {
+                  // Load the map in a separate thread to not slow down 
+                  // the UI thread
+                  new MapLoadThread( newMapName, destination ).start();
+               }
+               
+               // The actions belong to the old map now
+               return;
             }
             else if( action instanceof ChangeLayerAction )
             {
@@ -541,17 +636,14 @@ public class Controller extends Thread
    private void updateWindows()
    {
       final ArrayList<GameWindow> windows = LayerManager.getWindowLayers();
-      int numWindows = windows.size();
       GameWindow window = null;
       
-      for( int windowIdx = 0; windowIdx < numWindows; windowIdx++ )
+      for( int windowIdx = windows.size() - 1; windowIdx >= 0; windowIdx-- )
       {
          window = windows.get( windowIdx );
          if( !window.isVisible() )
          {
-            windows.remove( windowIdx );
-            numWindows--;
-            windowIdx--;
+            LayerManager.removeWindow( window );
          }
       }
    }
@@ -1416,15 +1508,19 @@ public class Controller extends Thread
       // Only draw ourselves if the text view is not visible
       if( this.statusTextView.getVisibility() != View.VISIBLE )
       {
+         final CanvasBackend renderer = this.renderer;
+         renderer.setCanvas( canvas );
+         Viewport.startFrame();
+         
          final ArrayList<Layer> allLayers = LayerManager.getAllLayersInOrder();
          
          // If we're in wireframe mode, clear the screen
          if( Debug.wireframe )
          {
-            canvas.drawRect( 0, 0, 
-                             ScreenSettings.width, 
-                             ScreenSettings.height, 
-                             this.blackPaint );
+            renderer.drawRect( 0, 0, 
+                               ScreenSettings.width, 
+                               ScreenSettings.height, 
+                               this.blackPaint );
          }
          final int numLayers = allLayers.size();
          // Delegate drawing to each of the layers
@@ -1433,7 +1529,7 @@ public class Controller extends Thread
          for( int layerIdx = 0; layerIdx < numLayers; layerIdx++ )
          {
             final Layer layer = allLayers.get( layerIdx );
-            layer.draw( this.hero.xPixel, this.hero.yPixel, below, canvas, this.paint );
+            layer.draw( this.hero.xPixel, this.hero.yPixel, below, renderer, this.paint );
             if( layer == this.hero )
             {
                below = false;
@@ -1444,17 +1540,20 @@ public class Controller extends Thread
          if( Debug.useDayNight )
          {
             DayNight.tick();
-            canvas.drawARGB( DayNight.getTimeAlpha(),
-                             DayNight.RED,
-                             DayNight.GREEN,
-                             DayNight.BLUE );
+            renderer.drawARGB( DayNight.getTimeAlpha(),
+                               DayNight.RED,
+                               DayNight.GREEN,
+                               DayNight.BLUE );
          }
          
          // We draw all open windows again so that the text isn't shifted in colour due to the 
          // day/night cycle.
-         for( final Layer layer : LayerManager.getWindowLayers() )
+         final ArrayList<GameWindow> windows = LayerManager.getWindowLayers();
+         final int numWindows = windows.size();
+         for( int windowIdx = 0; windowIdx < numWindows; windowIdx++ )
          {
-            layer.draw( this.hero.xPixel, this.hero.yPixel, false, canvas, this.paint );
+            windows.get( windowIdx ).draw( this.hero.xPixel, this.hero.yPixel, false, 
+                                           renderer, this.paint );
          }
       }
    }
@@ -1507,13 +1606,15 @@ public class Controller extends Thread
             this.lastFpsWindowUpdate = now;
          }
          
-         final String message = "update: " + this.counter + //$NON-NLS-1$
-                                "  fps:" + this.fps;        //$NON-NLS-1$
+         final String message = "update: " + this.counter +          //$NON-NLS-1$
+                                "  fps:" + this.fps +                //$NON-NLS-1$
+                                "  drawn:" + Viewport.getDrawn() +   //$NON-NLS-1$
+                                "  culled:" + Viewport.getCulled();  //$NON-NLS-1$
          
          
          if( this.fpsWindow == null )
          {
-            this.fpsWindow = new TextWindow( 10, 10, 140, 25, "" ); //$NON-NLS-1$
+            this.fpsWindow = new TextWindow( 10, 10, 280, 25, "" ); //$NON-NLS-1$
          }
          this.fpsWindow.setText( message );
          if( !LayerManager.getWindowLayers().contains( this.fpsWindow ) )
@@ -1604,6 +1705,34 @@ public class Controller extends Thread
          }
       }
       
+      // Map loading statistics.
+      final String loadStatsText = LoadStats.getLastText();
+      if( Debug.showLoadStats && loadStatsText != null )
+      {
+         if( this.loadStatsWindow == null )
+         {
+            this.loadStatsWindow = new TextWindow( 10, 40, 150, 130, "" ); //$NON-NLS-1$
+         }
+         if( loadStatsText != this.loadStatsShown )
+         {
+            // Only lay the text out again when a new map's statistics have been published
+            this.loadStatsWindow.setText( loadStatsText );
+            this.loadStatsShown = loadStatsText;
+         }
+         if( !LayerManager.getWindowLayers().contains( this.loadStatsWindow ) )
+         {
+            LayerManager.pushWindow( this.loadStatsWindow );
+            this.loadStatsWindow.setVisible( true );
+         }
+      }
+      else
+      {
+         if( this.loadStatsWindow != null )
+         {
+            this.loadStatsWindow.setVisible( false );
+         }
+      }
+      
       // Path-finding
       if( Debug.showPath )
       {
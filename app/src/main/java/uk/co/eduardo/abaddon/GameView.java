@@ -1,5 +1,7 @@
 package uk.co.eduardo.abaddon;
 
+import java.io.File;
+
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.util.AttributeSet;
@@ -7,6 +9,8 @@ import android.view.KeyEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
+import uk.co.eduardo.abaddon.map.DecodedMapCache;
+import uk.co.eduardo.abaddon.map.MapCatalogue;
 import uk.co.eduardo.abaddon.state.GameState;
 import uk.co.eduardo.abaddon.state.StateMachine;
 import uk.co.eduardo.abaddon.util.Debug;
@@ -62,6 +66,12 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback
       
       // Initialize resources
       Res.resources = context.getResources();
+      
+      // Maps are kept decoded in internal storage between launches
+      DecodedMapCache.setDirectory( new File( context.getCacheDir(), "maps" ) ); //$NON-NLS-1$
+      
+      // Only reads the map headers so is quick
+      MapCatalogue.index();
 
       // create thread only; it's started in surfaceCreated()
       this.controller = new Controller( holder );
@@ -177,6 +187,9 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback
       if( keyCode == KeyEvent.KEYCODE_T )
          Debug.showHeroTile = !Debug.showHeroTile;
 
+      if( keyCode == KeyEvent.KEYCODE_L )
+         Debug.showLoadStats = !Debug.showLoadStats;
+
       return super.onKeyDown( keyCode, msg );
    }
 
@@ -46,9 +46,39 @@ public class Animation
                      final int frameWidth,
                      final int frameHeight )
    {  
-      final int width = resource.getIntrinsicWidth();
-      final int height = resource.getIntrinsicHeight();
-      
+      this( drawImage( resource ), frameWidth, frameHeight );
+   }
+   
+   /**
+    * Constructs an <code>Animation</code>
+    * 
+    * @param image the image containing all the frames
+    * @param frameWidth the width of each frame in pixels
+    * @param frameHeight the height of each frame in pixels
+    */
+   public Animation( final Bitmap image,
+                     final int frameWidth,
+                     final int frameHeight )
+   {  
+      this( image, image.getWidth(), image.getHeight(), frameWidth, frameHeight );
+   }
+   
+   /**
+    * Constructs an <code>Animation</code> from an image whose size is already known. The image
+    * is only drawn from, never measured.
+    * 
+    * @param image the image containing all the frames
+    * @param width the width of the image in pixels
+    * @param height the height of the image in pixels
+    * @param frameWidth the width of each frame in pixels
+    * @param frameHeight the height of each frame in pixels
+    */
+   public Animation( final Bitmap image,
+                     final int width,
+                     final int height,
+                     final int frameWidth,
+                     final int frameHeight )
+   {  
       // Check that the image is the correct size
       if( width % frameWidth != 0 || height % frameHeight != 0 )
       {
@@ -56,12 +86,8 @@ public class Animation
             "Animation image dimensions are not a multiple of the frame size %dx%d %dx%d", //$NON-NLS-1$
             width, height, frameWidth, frameHeight ) );
       }
-
-      // Copy the frames into each Bitmap
-      this.fullImage = Bitmap.createBitmap( width, height, Bitmap.Config.ARGB_8888 );
-      final Canvas canvas = new Canvas( this.fullImage );
-      resource.setBounds( 0, 0, width, height );
-      resource.draw( canvas );
+      
+      this.fullImage = image;
       
       // Break the image into separate tiles
       final int xBlocks = width / frameWidth;
@@ -133,4 +159,20 @@ public class Animation
    {
       return this.frameHeight;
    }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   private static Bitmap drawImage( final Drawable resource )
+   {
+      final int width = resource.getIntrinsicWidth();
+      final int height = resource.getIntrinsicHeight();
+      
+      // Draw the frames into a single bitmap
+      final Bitmap image = BitmapPool.obtain( width, height, Bitmap.Config.ARGB_8888 );
+      final Canvas canvas = new Canvas( image );
+      resource.setBounds( 0, 0, width, height );
+      resource.draw( canvas );
+      return image;
+   }
 }
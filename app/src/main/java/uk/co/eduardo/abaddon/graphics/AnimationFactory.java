@@ -2,9 +2,11 @@ package uk.co.eduardo.abaddon.graphics;
 
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
+import java.util.Iterator;
 
-import android.graphics.drawable.Drawable;
+import android.graphics.Bitmap;
 
+import uk.co.eduardo.abaddon.util.LoadStats;
 import uk.co.eduardo.abaddon.util.Res;
 import uk.co.eduardo.abaddon.util.ScreenSettings;
 
@@ -12,6 +14,10 @@ import uk.co.eduardo.abaddon.util.ScreenSettings;
  * Many sprites will have the same animation. This class checks if
  * the sprite graphic has already been loaded and if so, returns the same
  * instance. If not, it will load it.
+ * <p>
+ * Every {@link #getAnimation(int)} should be matched by a {@link #release(Animation)} once the
+ * sprite is removed. When no sprite is left using an animation its image is given to the
+ * {@link BitmapPool}.
  * 
  * @author Ed
  */
@@ -20,8 +26,7 @@ public class AnimationFactory
    //================|  Fields             |====================================
    
    /** The sprite animations */
-   private static final HashMap<Integer, WeakReference<Animation>> MAP =
-         new HashMap<Integer, WeakReference<Animation>>();
+   private static final HashMap<Integer, Entry> MAP = new HashMap<Integer, Entry>();
    
    /** The width in pixels of each of the animation frames in the image */
    private static final int ANIM_WIDTH = ScreenSettings.tileSize;
@@ -30,6 +35,29 @@ public class AnimationFactory
    private static final int ANIM_HEIGHT = ScreenSettings.spriteHeight;
    
    
+   //================|  Inner Classes      |====================================
+   
+   /**
+    * An animation and the number of sprites using it.
+    */
+   private static class Entry
+   {
+      /**
+       * The animation. Weak so that animations whose sprites were dropped without being
+       * released are still collected.
+       */
+      final WeakReference<Animation> animation;
+      
+      /** The number of gets not yet released. */
+      int references = 1;
+      
+      Entry( final Animation animation )
+      {
+         this.animation = new WeakReference<Animation>( animation );
+      }
+   }
+   
+   
    //================|  Constructors       |====================================
    
    /**
@@ -45,35 +73,70 @@ public class AnimationFactory
    
    /**
     * @param key the String identifier for the sprite
-    * @return an animation for that sprite
+    * @return an animation for that sprite. Pass it to {@link #release(Animation)} when the
+    *         sprite is removed.
     */
-   public static Animation getAnimation( final int key )
+   public static synchronized Animation getAnimation( final int key )
    {      
-      final WeakReference<Animation> animRef = MAP.get( key );
-      if( animRef == null )
+      final Entry entry = MAP.get( key );
+      if( entry == null )
       {
          // Does not exist in the map, we'll need to add it
       }
       else
       {
-         final Animation anim = animRef.get();
+         final Animation anim = entry.animation.get();
          if( anim == null )
          {
             // has been garbage collected need to re-add to map
          }
          else
          {
+            entry.references++;
             return anim;
          }
       }
       // Add it to the map
-      final Drawable d = Res.resources.getDrawable( key );
+      final long start = LoadStats.start();
       if( ANIM_WIDTH == 0 || ANIM_HEIGHT == 0 ) return null;
-      final Animation newAnim = new Animation( d, ANIM_WIDTH, ANIM_HEIGHT );
+      final Bitmap image = BitmapPool.decodeResource( Res.resources, key );
+      final Animation newAnim = new Animation( image, ANIM_WIDTH, ANIM_HEIGHT );
+      LoadStats.record( LoadStats.Phase.NPC_ANIMATIONS, 
+                        start, 
+                        4L * image.getWidth() * image.getHeight() );
       
       // Add a new weak reference to the animation to our map
-      MAP.put( key, new WeakReference<Animation>( newAnim ) );
+      MAP.put( key, new Entry( newAnim ) );
       
       return newAnim;
    }
+   
+   /**
+    * Releases an animation returned by {@link #getAnimation(int)}. Once every get has been
+    * released the animation's image goes to the {@link BitmapPool}, so the animation must not be
+    * drawn again.
+    * 
+    * @param animation the animation to release. Animations not made here are ignored.
+    */
+   public static synchronized void release( final Animation animation )
+   {
+      if( animation == null )
+      {
+         return;
+      }
+      final Iterator<Entry> entries = MAP.values().iterator();
+      while( entries.hasNext() )
+      {
+         final Entry entry = entries.next();
+         if( entry.animation.get() == animation )
+         {
+            if( --entry.references <= 0 )
+            {
+               entries.remove();
+               BitmapPool.release( animation.getBitmap() );
+            }
+            return;
+         }
+      }
+   }
 }
@@ -0,0 +1,320 @@
+package uk.co.eduardo.abaddon.graphics;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.annotation.TargetApi;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import uk.co.eduardo.abaddon.util.LoadStats;
+
+/**
+ * Keeps bitmaps that are no longer needed so that the next map can reuse their memory rather
+ * than allocating more and waiting for the garbage collector to free the old ones.
+ * <p>
+ * Bitmaps are bucketed by their size in bytes, rounded up to a power of two. From KitKat a pooled
+ * bitmap is reused for any bitmap that fits in it, either by reconfiguring it or by decoding into
+ * it with <code>BitmapFactory.Options.inBitmap</code>. Before that a pooled bitmap is only reused
+ * for a bitmap of exactly the same dimensions and configuration.
+ * <p>
+ * A bitmap passed to {@link #release(Bitmap)} must not be used again by its owner.
+ * 
+ * @author Ed
+ */
+// Reconfiguring and the allocation byte count are only used from KitKat.
+@TargetApi( Build.VERSION_CODES.KITKAT )
+public final class BitmapPool
+{
+   //================|  Fields             |====================================
+   
+   /** The default number of bytes of bitmaps to keep pooled. */
+   public static final long DEFAULT_BYTE_BUDGET = 8 * 1024 * 1024;
+   
+   /** The pooled bitmaps keyed by the base two logarithm of their size, rounded up. */
+   private static final TreeMap< Integer, ArrayList< Bitmap > > BUCKETS =
+      new TreeMap< Integer, ArrayList< Bitmap > >();
+   
+   /** True if pooled bitmaps may be reused for bitmaps of a different size. */
+   private static final boolean CAN_RECONFIGURE =
+      Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+   
+   /** The number of bytes of bitmaps to keep pooled. */
+   private static long byteBudget = DEFAULT_BYTE_BUDGET;
+   
+   /** The number of bytes used by the pooled bitmaps. */
+   private static long pooledBytes = 0;
+   
+   /** The number of bitmaps that reused a pooled bitmap. */
+   private static long hits = 0;
+   
+   /** The number of bitmaps that had to be allocated. */
+   private static long misses = 0;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * Private constructor to prevent instantiation
+    */
+   private BitmapPool()
+   {
+      // Private constructor
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Gets a mutable bitmap whose pixels are all transparent black.
+    * 
+    * @param width the width of the bitmap in pixels.
+    * @param height the height of the bitmap in pixels.
+    * @param config the configuration of the bitmap.
+    * @return a pooled bitmap, or a new one if none of the pooled bitmaps fit.
+    */
+   public static Bitmap obtain( final int width, final int height, final Bitmap.Config config )
+   {
+      final Bitmap pooled = take( width, height, config );
+      recordUse( pooled != null );
+      if( pooled == null )
+      {
+         return Bitmap.createBitmap( width, height, config );
+      }
+      
+      pooled.eraseColor( 0 );
+      return pooled;
+   }
+   
+   /**
+    * Decodes a mutable <code>ARGB_8888</code> bitmap from an image resource, scaled for the
+    * display as a drawable would be. The bitmap is decoded into a pooled bitmap if one fits.
+    * 
+    * @param resources the application resources.
+    * @param resourceId the id of the image resource.
+    * @return the decoded bitmap.
+    */
+   public static Bitmap decodeResource( final Resources resources, final int resourceId )
+   {
+      final BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inJustDecodeBounds = true;
+      BitmapFactory.decodeResource( resources, resourceId, options );
+      
+      options.inJustDecodeBounds = false;
+      options.inMutable = true;
+      options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+      
+      // Before KitKat a bitmap cannot be decoded into while scaling for the display density
+      final boolean scaled = options.inDensity != 0 && options.inTargetDensity != 0 &&
+                             options.inDensity != options.inTargetDensity;
+      if( CAN_RECONFIGURE || !scaled )
+      {
+         options.inBitmap = take( options.outWidth, options.outHeight, Bitmap.Config.ARGB_8888 );
+      }
+      if( options.inBitmap != null )
+      {
+         try
+         {
+            final Bitmap decoded = BitmapFactory.decodeResource( resources, resourceId, options );
+            recordUse( true );
+            return decoded;
+         }
+         catch( final IllegalArgumentException exception )
+         {
+            // The platform could not decode into it, but it is still fine to reuse
+            release( options.inBitmap );
+            options.inBitmap = null;
+         }
+      }
+      
+      recordUse( false );
+      return BitmapFactory.decodeResource( resources, resourceId, options );
+   }
+   
+   /**
+    * Adds a bitmap to the pool. If the pool is over budget the largest pooled bitmaps are
+    * recycled.
+    * 
+    * @param bitmap the bitmap, which must no longer be used by its owner.
+    */
+   public static synchronized void release( final Bitmap bitmap )
+   {
+      if( bitmap == null || bitmap.isRecycled() )
+      {
+         return;
+      }
+      if( !bitmap.isMutable() )
+      {
+         // Nothing can be drawn or decoded into it
+         bitmap.recycle();
+         return;
+      }
+      
+      final Integer bucket = Integer.valueOf( bucketOf( getByteCount( bitmap ) ) );
+      ArrayList< Bitmap > bitmaps = BUCKETS.get( bucket );
+      if( bitmaps == null )
+      {
+         bitmaps = new ArrayList< Bitmap >();
+         BUCKETS.put( bucket, bitmaps );
+      }
+      bitmaps.add( bitmap );
+      pooledBytes += getByteCount( bitmap );
+      trim();
+   }
+   
+   /**
+    * Recycles every pooled bitmap.
+    */
+   public static synchronized void clear()
+   {
+      for( final ArrayList< Bitmap > bitmaps : BUCKETS.values() )
+      {
+         for( final Bitmap bitmap : bitmaps )
+         {
+            bitmap.recycle();
+         }
+      }
+      BUCKETS.clear();
+      pooledBytes = 0;
+   }
+   
+   /**
+    * @param bytes the number of bytes of bitmaps to keep pooled.
+    */
+   public static synchronized void setByteBudget( final long bytes )
+   {
+      byteBudget = bytes;
+      trim();
+   }
+   
+   /**
+    * @return the number of bytes used by the pooled bitmaps.
+    */
+   public static synchronized long getPooledBytes()
+   {
+      return pooledBytes;
+   }
+   
+   /**
+    * @return the number of bitmaps that have reused a pooled bitmap.
+    */
+   public static synchronized long getHits()
+   {
+      return hits;
+   }
+   
+   /**
+    * @return the number of bitmaps that could not reuse a pooled bitmap.
+    */
+   public static synchronized long getMisses()
+   {
+      return misses;
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   /**
+    * Removes a pooled bitmap that can hold a bitmap of the given size, reconfiguring it if
+    * necessary.
+    * 
+    * @return the bitmap or <code>null</code> if none fit.
+    */
+   private static synchronized Bitmap take( final int width,
+                                            final int height,
+                                            final Bitmap.Config config )
+   {
+      final long bytes = (long) width * height * bytesPerPixel( config );
+      
+      // Only look one bucket up so that a small bitmap does not pin a much larger one
+      final int bucket = bucketOf( bytes );
+      final int lastBucket = CAN_RECONFIGURE ? bucket + 1 : bucket;
+      for( final Map.Entry< Integer, ArrayList< Bitmap > > entry :
+              BUCKETS.subMap( Integer.valueOf( bucket ), true,
+                              Integer.valueOf( lastBucket ), true ).entrySet() )
+      {
+         final ArrayList< Bitmap > bitmaps = entry.getValue();
+         for( int index = 0; index < bitmaps.size(); index++ )
+         {
+            final Bitmap bitmap = bitmaps.get( index );
+            if( fits( bitmap, width, height, config, bytes ) )
+            {
+               bitmaps.remove( index );
+               pooledBytes -= getByteCount( bitmap );
+               if( CAN_RECONFIGURE )
+               {
+                  bitmap.reconfigure( width, height, config );
+               }
+               return bitmap;
+            }
+         }
+      }
+      return null;
+   }
+   
+   private static boolean fits( final Bitmap bitmap,
+                                final int width,
+                                final int height,
+                                final Bitmap.Config config,
+                                final long bytes )
+   {
+      if( CAN_RECONFIGURE )
+      {
+         return bitmap.getAllocationByteCount() >= bytes;
+      }
+      return bitmap.getWidth() == width &&
+             bitmap.getHeight() == height &&
+             bitmap.getConfig() == config;
+   }
+   
+   /**
+    * Recycles the largest pooled bitmaps until the pool is within budget.
+    */
+   private static void trim()
+   {
+      while( pooledBytes > byteBudget && !BUCKETS.isEmpty() )
+      {
+         final Map.Entry< Integer, ArrayList< Bitmap > > largest = BUCKETS.lastEntry();
+         final ArrayList< Bitmap > bitmaps = largest.getValue();
+         if( bitmaps.isEmpty() )
+         {
+            BUCKETS.remove( largest.getKey() );
+            continue;
+         }
+         final Bitmap bitmap = bitmaps.remove( bitmaps.size() - 1 );
+         pooledBytes -= getByteCount( bitmap );
+         bitmap.recycle();
+      }
+   }
+   
+   private static synchronized void recordUse( final boolean hit )
+   {
+      if( hit )
+      {
+         hits++;
+      }
+      else
+      {
+         misses++;
+      }
+      LoadStats.recordPoolUse( hit );
+   }
+   
+   private static long getByteCount( final Bitmap bitmap )
+   {
+      return CAN_RECONFIGURE ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+   }
+   
+   private static int bucketOf( final long bytes )
+   {
+      return 64 - Long.numberOfLeadingZeros( Math.max( bytes - 1, 0 ) );
+   }
+   
+   private static int bytesPerPixel( final Bitmap.Config config )
+   {
+      return config == Bitmap.Config.ARGB_8888 ? 4 : config == Bitmap.Config.ALPHA_8 ? 1 : 2;
+   }
+}
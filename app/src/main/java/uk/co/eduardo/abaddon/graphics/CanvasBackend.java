@@ -0,0 +1,204 @@
+package uk.co.eduardo.abaddon.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Draws straight onto an Android <code>Canvas</code>. The canvas can be changed between frames
+ * so that one backend can be kept for the surface rather than creating one per frame.
+ * 
+ * @author Ed
+ */
+public class CanvasBackend implements RenderBackend
+{
+   //================|  Fields             |====================================
+   
+   /** The canvas drawn on. */
+   private Canvas canvas;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * Creates a backend with no canvas. {@link #setCanvas(Canvas)} must be called before drawing.
+    */
+   public CanvasBackend()
+   {
+      this( null );
+   }
+   
+   /**
+    * @param canvas the canvas to draw on.
+    */
+   public CanvasBackend( final Canvas canvas )
+   {
+      this.canvas = canvas;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @param canvas the canvas to draw on from now on.
+    */
+   public void setCanvas( final Canvas canvas )
+   {
+      this.canvas = canvas;
+   }
+   
+   /**
+    * @return the canvas drawn on.
+    */
+   public Canvas getCanvas()
+   {
+      return this.canvas;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawBitmap( final Bitmap bitmap,
+                           final float left,
+                           final float top,
+                           final Paint paint )
+   {
+      this.canvas.drawBitmap( bitmap, left, top, paint );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawBitmap( final Bitmap bitmap,
+                           final Rect source,
+                           final Rect destination,
+                           final Paint paint )
+   {
+      this.canvas.drawBitmap( bitmap, source, destination, paint );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawRect( final float left,
+                         final float top,
+                         final float right,
+                         final float bottom,
+                         final Paint paint )
+   {
+      this.canvas.drawRect( left, top, right, bottom, paint );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawLine( final float xStart,
+                         final float yStart,
+                         final float xStop,
+                         final float yStop,
+                         final Paint paint )
+   {
+      this.canvas.drawLine( xStart, yStart, xStop, yStop, paint );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawPoint( final float x, final float y, final Paint paint )
+   {
+      this.canvas.drawPoint( x, y, paint );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawPath( final Path path, final Paint paint )
+   {
+      this.canvas.drawPath( path, paint );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawArc( final RectF oval,
+                        final float startAngle,
+                        final float sweepAngle,
+                        final boolean useCenter,
+                        final Paint paint )
+   {
+      this.canvas.drawArc( oval, startAngle, sweepAngle, useCenter, paint );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawText( final String text, final float x, final float y, final Paint paint )
+   {
+      this.canvas.drawText( text, x, y, paint );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawARGB( final int alpha, final int red, final int green, final int blue )
+   {
+      this.canvas.drawARGB( alpha, red, green, blue );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawDrawable( final Drawable drawable,
+                             final int left,
+                             final int top,
+                             final int right,
+                             final int bottom )
+   {
+      drawable.setBounds( left, top, right, bottom );
+      drawable.draw( this.canvas );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void save()
+   {
+      this.canvas.save();
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void clipRect( final float left,
+                         final float top,
+                         final float right,
+                         final float bottom )
+   {
+      this.canvas.clipRect( left, top, right, bottom );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void restore()
+   {
+      this.canvas.restore();
+   }
+}
@@ -0,0 +1,358 @@
+package uk.co.eduardo.abaddon.graphics;
+
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Records what would have been drawn instead of drawing it, so that the layers can be run and
+ * their draw calls counted or checked without a display.
+ * <p>
+ * Rectangles are copied into the commands, as the layers reuse theirs from one call to the
+ * next. Bitmaps, paths, drawables and text are kept by reference. Paints are not kept; only
+ * their colour is.
+ * 
+ * @author Ed
+ */
+public class RecordingBackend implements RenderBackend
+{
+   //================|  Fields             |====================================
+   
+   /** The commands recorded since the last {@link #clear()}, in the order they were made. */
+   private final ArrayList< Command > commands = new ArrayList< Command >();
+   
+   /** The number of commands of each kind recorded since the last {@link #clear()}. */
+   private final int[] counts = new int[ Op.values().length ];
+   
+   /** False to only count the commands, so that a long run does not fill up the memory. */
+   private final boolean keepCommands;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * Creates a backend that keeps every command.
+    */
+   public RecordingBackend()
+   {
+      this( true );
+   }
+   
+   /**
+    * @param keepCommands <code>false</code> to only count the commands.
+    */
+   public RecordingBackend( final boolean keepCommands )
+   {
+      this.keepCommands = keepCommands;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @return the commands recorded since the last {@link #clear()}. Empty if the commands are
+    *         only being counted.
+    */
+   public ArrayList< Command > getCommands()
+   {
+      return this.commands;
+   }
+   
+   /**
+    * @param op a kind of command.
+    * @return the number of commands of that kind recorded since the last {@link #clear()}.
+    */
+   public int getCount( final Op op )
+   {
+      return this.counts[ op.ordinal() ];
+   }
+   
+   /**
+    * @return the number of commands recorded since the last {@link #clear()}.
+    */
+   public int getCount()
+   {
+      int total = 0;
+      for( final int count : this.counts )
+      {
+         total += count;
+      }
+      return total;
+   }
+   
+   /**
+    * Forgets the recorded commands.
+    */
+   public void clear()
+   {
+      this.commands.clear();
+      for( int op = 0; op < this.counts.length; op++ )
+      {
+         this.counts[ op ] = 0;
+      }
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawBitmap( final Bitmap bitmap,
+                           final float left,
+                           final float top,
+                           final Paint paint )
+   {
+      record( Op.BITMAP, bitmap, paint, left, top );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawBitmap( final Bitmap bitmap,
+                           final Rect source,
+                           final Rect destination,
+                           final Paint paint )
+   {
+      if( source == null )
+      {
+         record( Op.BITMAP_RECT, bitmap, paint,
+                 destination.left, destination.top, destination.right, destination.bottom );
+      }
+      else
+      {
+         record( Op.BITMAP_RECT, bitmap, paint,
+                 destination.left, destination.top, destination.right, destination.bottom,
+                 source.left, source.top, source.right, source.bottom );
+      }
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawRect( final float left,
+                         final float top,
+                         final float right,
+                         final float bottom,
+                         final Paint paint )
+   {
+      record( Op.RECT, null, paint, left, top, right, bottom );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawLine( final float xStart,
+                         final float yStart,
+                         final float xStop,
+                         final float yStop,
+                         final Paint paint )
+   {
+      record( Op.LINE, null, paint, xStart, yStart, xStop, yStop );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawPoint( final float x, final float y, final Paint paint )
+   {
+      record( Op.POINT, null, paint, x, y );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawPath( final Path path, final Paint paint )
+   {
+      record( Op.PATH, path, paint );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawArc( final RectF oval,
+                        final float startAngle,
+                        final float sweepAngle,
+                        final boolean useCenter,
+                        final Paint paint )
+   {
+      record( Op.ARC, null, paint,
+              oval.left, oval.top, oval.right, oval.bottom, startAngle, sweepAngle );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawText( final String text, final float x, final float y, final Paint paint )
+   {
+      record( Op.TEXT, text, paint, x, y );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawARGB( final int alpha, final int red, final int green, final int blue )
+   {
+      if( this.keepCommands )
+      {
+         this.commands.add( new Command( Op.FILL, null,
+                                         ( alpha << 24 ) | ( red << 16 ) | ( green << 8 ) | blue,
+                                         new float[ 0 ] ) );
+      }
+      this.counts[ Op.FILL.ordinal() ]++;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void drawDrawable( final Drawable drawable,
+                             final int left,
+                             final int top,
+                             final int right,
+                             final int bottom )
+   {
+      record( Op.DRAWABLE, drawable, null, left, top, right, bottom );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void save()
+   {
+      record( Op.SAVE, null, null );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void clipRect( final float left,
+                         final float top,
+                         final float right,
+                         final float bottom )
+   {
+      record( Op.CLIP, null, null, left, top, right, bottom );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void restore()
+   {
+      record( Op.RESTORE, null, null );
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   private void record( final Op op,
+                        final Object target,
+                        final Paint paint,
+                        final float... args )
+   {
+      if( this.keepCommands )
+      {
+         final int colour = paint == null ? 0 : paint.getColor();
+         this.commands.add( new Command( op, target, colour, args ) );
+      }
+      this.counts[ op.ordinal() ]++;
+   }
+   
+   
+   //================|  Inner Classes      |====================================
+   
+   /**
+    * The kinds of command that are recorded. Each is named after the {@link RenderBackend}
+    * method that records it.
+    */
+   public static enum Op
+   {
+      /** {@link RenderBackend#drawBitmap(Bitmap, float, float, Paint)}. Args: left, top. */
+      BITMAP,
+      
+      /**
+       * {@link RenderBackend#drawBitmap(Bitmap, Rect, Rect, Paint)}. Args: the destination left,
+       * top, right and bottom, then the source left, top, right and bottom if there was one.
+       */
+      BITMAP_RECT,
+      
+      /** {@link RenderBackend#drawRect}. Args: left, top, right, bottom. */
+      RECT,
+      
+      /** {@link RenderBackend#drawLine}. Args: the start X and Y, then the end X and Y. */
+      LINE,
+      
+      /** {@link RenderBackend#drawPoint}. Args: X, Y. */
+      POINT,
+      
+      /** {@link RenderBackend#drawPath}. No args. */
+      PATH,
+      
+      /**
+       * {@link RenderBackend#drawArc}. Args: the oval's left, top, right and bottom, then the
+       * start and sweep angles.
+       */
+      ARC,
+      
+      /** {@link RenderBackend#drawText}. Args: X, Y. */
+      TEXT,
+      
+      /** {@link RenderBackend#drawARGB}. No args. The colour is the fill colour. */
+      FILL,
+      
+      /** {@link RenderBackend#drawDrawable}. Args: left, top, right, bottom. */
+      DRAWABLE,
+      
+      /** {@link RenderBackend#save()}. No args. */
+      SAVE,
+      
+      /** {@link RenderBackend#clipRect}. Args: left, top, right, bottom. */
+      CLIP,
+      
+      /** {@link RenderBackend#restore()}. No args. */
+      RESTORE
+   }
+   
+   /**
+    * A recorded command.
+    * <p>
+    * For performance reasons we expose the fields. It's not such a bad thing
+    * as all the fields are final.
+    */
+   public static final class Command
+   {
+      /** The kind of command. */
+      public final Op op;
+      
+      /** The bitmap, path, drawable or text drawn, if any. */
+      public final Object target;
+      
+      /** The colour of the paint, or 0 if there was no paint. */
+      public final int colour;
+      
+      /** The coordinates of the command. See {@link Op} for what each holds. */
+      public final float[] args;
+      
+      Command( final Op op, final Object target, final int colour, final float[] args )
+      {
+         this.op = op;
+         this.target = target;
+         this.colour = colour;
+         this.args = args;
+      }
+   }
+}
@@ -0,0 +1,155 @@
+package uk.co.eduardo.abaddon.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+
+import uk.co.eduardo.abaddon.graphics.layer.Layer;
+
+/**
+ * Everything a {@link Layer} draws goes through this interface, so that the layers can be drawn
+ * onto a real <code>Canvas</code> with {@link CanvasBackend} or into a list of commands with
+ * {@link RecordingBackend}.
+ * <p>
+ * The methods mirror the <code>Canvas</code> methods of the same name.
+ * 
+ * @author Ed
+ */
+public interface RenderBackend
+{
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Draws a whole bitmap with its top-left corner at a point.
+    * 
+    * @param bitmap the bitmap to draw.
+    * @param left the X position of the left of the bitmap.
+    * @param top the Y position of the top of the bitmap.
+    * @param paint the paint to draw with. May be null.
+    */
+   void drawBitmap( final Bitmap bitmap, final float left, final float top, final Paint paint );
+   
+   /**
+    * Draws part of a bitmap, scaled to fill a rectangle.
+    * 
+    * @param bitmap the bitmap to draw.
+    * @param source the part of the bitmap to draw. May be null for the whole bitmap.
+    * @param destination where to draw it.
+    * @param paint the paint to draw with. May be null.
+    */
+   void drawBitmap( final Bitmap bitmap,
+                    final Rect source,
+                    final Rect destination,
+                    final Paint paint );
+   
+   /**
+    * @param left the left of the rectangle.
+    * @param top the top of the rectangle.
+    * @param right the right of the rectangle.
+    * @param bottom the bottom of the rectangle.
+    * @param paint the paint to draw with.
+    */
+   void drawRect( final float left,
+                  final float top,
+                  final float right,
+                  final float bottom,
+                  final Paint paint );
+   
+   /**
+    * @param xStart the X position of the start of the line.
+    * @param yStart the Y position of the start of the line.
+    * @param xStop the X position of the end of the line.
+    * @param yStop the Y position of the end of the line.
+    * @param paint the paint to draw with.
+    */
+   void drawLine( final float xStart,
+                  final float yStart,
+                  final float xStop,
+                  final float yStop,
+                  final Paint paint );
+   
+   /**
+    * @param x the X position of the point.
+    * @param y the Y position of the point.
+    * @param paint the paint to draw with.
+    */
+   void drawPoint( final float x, final float y, final Paint paint );
+   
+   /**
+    * @param path the path to draw.
+    * @param paint the paint to draw with.
+    */
+   void drawPath( final Path path, final Paint paint );
+   
+   /**
+    * @param oval the bounds of the oval the arc is part of.
+    * @param startAngle where the arc starts, in degrees.
+    * @param sweepAngle how far the arc goes, in degrees clockwise.
+    * @param useCenter <code>true</code> to close the arc through the centre of the oval.
+    * @param paint the paint to draw with.
+    */
+   void drawArc( final RectF oval,
+                 final float startAngle,
+                 final float sweepAngle,
+                 final boolean useCenter,
+                 final Paint paint );
+   
+   /**
+    * @param text the text to draw.
+    * @param x the X position of the start of the text.
+    * @param y the Y position of the baseline of the text.
+    * @param paint the paint to draw with.
+    */
+   void drawText( final String text, final float x, final float y, final Paint paint );
+   
+   /**
+    * Fills everything inside the clip with a colour, blended over what is already there.
+    * 
+    * @param alpha the alpha component of the colour.
+    * @param red the red component of the colour.
+    * @param green the green component of the colour.
+    * @param blue the blue component of the colour.
+    */
+   void drawARGB( final int alpha, final int red, final int green, final int blue );
+   
+   /**
+    * Draws a drawable, such as a nine-patch, stretched over a rectangle.
+    * 
+    * @param drawable the drawable to draw.
+    * @param left the left of the rectangle.
+    * @param top the top of the rectangle.
+    * @param right the right of the rectangle.
+    * @param bottom the bottom of the rectangle.
+    */
+   void drawDrawable( final Drawable drawable,
+                      final int left,
+                      final int top,
+                      final int right,
+                      final int bottom );
+   
+   /**
+    * Saves the clip so that {@link #restore()} can put it back.
+    */
+   void save();
+   
+   /**
+    * Narrows the clip to a rectangle.
+    * 
+    * @param left the left of the rectangle.
+    * @param top the top of the rectangle.
+    * @param right the right of the rectangle.
+    * @param bottom the bottom of the rectangle.
+    */
+   void clipRect( final float left,
+                  final float top,
+                  final float right,
+                  final float bottom );
+   
+   /**
+    * Puts back the clip saved by the matching {@link #save()}.
+    */
+   void restore();
+}
@@ -1,10 +1,10 @@
 package uk.co.eduardo.abaddon.graphics.layer;
 
-import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.drawable.NinePatchDrawable;
 
 import uk.co.eduardo.abaddon.R;
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
 import uk.co.eduardo.abaddon.util.Res;
 import uk.co.eduardo.abaddon.util.ScreenSettings;
 
@@ -106,15 +106,14 @@ public class GameWindow implements Layer
    public void draw( final int posX,
                      final int posY,
                      final boolean below,
-                     final Canvas canvas,
+                     final RenderBackend renderer,
                      final Paint paint )
    {
       if( !this.visible )
       {
          return;
       }
-      patch.setBounds( this.x, this.y, this.x + this.width, this.y + this.height );
-      patch.draw( canvas );
+      renderer.drawDrawable( patch, this.x, this.y, this.x + this.width, this.y + this.height );
       
       // increase the counter
       this.counter++;
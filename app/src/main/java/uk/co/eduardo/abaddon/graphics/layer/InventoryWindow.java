@@ -1,8 +1,8 @@
 package uk.co.eduardo.abaddon.graphics.layer;
 
-import android.graphics.Canvas;
 import android.graphics.Paint;
 
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
 import uk.co.eduardo.abaddon.inventory.Inventory;
 import uk.co.eduardo.abaddon.inventory.InventoryItem;
 import uk.co.eduardo.abaddon.util.ScreenSettings;
@@ -43,10 +43,10 @@ public class InventoryWindow extends GameWindow
    public void draw( final int posX,
                      final int posY,
                      final boolean below,
-                     final Canvas canvas,
+                     final RenderBackend renderer,
                      final Paint paint )
    {
-      super.draw( posX, posY, below, canvas, paint );
+      super.draw( posX, posY, below, renderer, paint );
       
       for( final InventoryItem item : this.inventory.getInventoryItems() )
       {
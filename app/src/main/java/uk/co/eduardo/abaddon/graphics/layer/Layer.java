@@ -1,8 +1,9 @@
 package uk.co.eduardo.abaddon.graphics.layer;
 
-import android.graphics.Canvas;
 import android.graphics.Paint;
 
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
+
 /**
  * A layer of the game. Tiled maps, sprites and message windows are all layers
  * 
@@ -16,13 +17,13 @@ public interface Layer
     * @param xPos position of the main character
     * @param yPos position of the main character
     * @param below <code>true</code> if this layer is currently below the hero
-    * @param canvas the <code>Canvas</code> on which to paint
+    * @param renderer draws the layer
     * @param paint the <code>Paint</code> object to use for drawing
     */
    void draw( final int xPos,
               final int yPos,
               final boolean below,
-              final Canvas canvas,
+              final RenderBackend renderer,
               final Paint paint );
    
    /**
@@ -2,6 +2,7 @@ package uk.co.eduardo.abaddon.graphics.layer;
 
 import java.util.ArrayList;
 
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
 import uk.co.eduardo.abaddon.util.ScreenSettings;
 
 /**
@@ -28,6 +29,21 @@ public final class LayerManager
    /** The hero sprite layer */
    private static Sprite hero;
    
+   /** The tables precomputed when the current map was compiled. May be null. */
+   private static DerivedSection derivedSection;
+   
+   /** Every layer in the order it is drawn. Rebuilt only when the layers change. */
+   private static final ArrayList<Layer> RENDER_LIST = new ArrayList<Layer>();
+   
+   /** The number of sprites on each map layer. Used while rebuilding the render list. */
+   private static int[] spritesPerMap = new int[ 0 ];
+   
+   /** The sort key of each sprite. Used while sorting the sprites. */
+   private static int[] sortKeys = new int[ 0 ];
+   
+   /** True if the render list no longer matches the layers. */
+   private static volatile boolean renderListStale = true;
+   
    
    //================|  Constructors       |====================================
    
@@ -43,7 +59,8 @@ public final class LayerManager
    //================|  Public Methods     |====================================
    
    /**
-    * @return a list of {@link TiledMap}s that are being managed.
+    * @return a list of {@link TiledMap}s that are being managed. Change it through the 
+    *         methods of this class so that the render list is kept up to date.
     */
    public static ArrayList<TiledMap> getMapLayers()
    {
@@ -59,6 +76,7 @@ public final class LayerManager
    public static void pushMap( final TiledMap map )
    {
       MAPS.add( map );
+      invalidate();
    }
    
    /**
@@ -70,6 +88,7 @@ public final class LayerManager
    public static void pushMaps( final ArrayList<TiledMap> maps )
    {
       MAPS.addAll( maps );
+      invalidate();
    }
    
    /**
@@ -79,6 +98,7 @@ public final class LayerManager
    {
       clearMaps();
       MAPS.addAll( maps );
+      invalidate();
    }
    
    /**
@@ -86,11 +106,14 @@ public final class LayerManager
     */
    public static void clearMaps()
    {
+      releaseMaps();
       MAPS.clear();
+      invalidate();
    }
 
    /**
-    * @return a list of sprites
+    * @return a list of sprites. Change it through the methods of this class so that the render
+    *         list is kept up to date.
     */
    public static ArrayList<Sprite> getSpriteLayers()
    {
@@ -107,6 +130,7 @@ public final class LayerManager
    public static void addSprite( final Sprite sprite )
    {
       SPRITES.add( sprite );
+      invalidate();
    }
    
    /**
@@ -121,6 +145,7 @@ public final class LayerManager
       {
          SPRITES.add( sprites.get( 0 ) );
       }
+      invalidate();
    }
    
    /**
@@ -128,7 +153,9 @@ public final class LayerManager
     */
    public static void clearSprites()
    {
+      releaseSprites();
       SPRITES.clear();
+      invalidate();
    }
    
    /**
@@ -140,6 +167,7 @@ public final class LayerManager
       if( overlay != null )
       {
          OVERLAYS.add( overlay );
+         invalidate();
       }
    }
    
@@ -152,6 +180,7 @@ public final class LayerManager
       if( overlays != null )
       {
          OVERLAYS.addAll( overlays );
+         invalidate();
       }
    }
    
@@ -161,11 +190,15 @@ public final class LayerManager
     */
    public static void removeOverlay( final Layer overlay )
    {
-      OVERLAYS.remove( overlay );
+      if( OVERLAYS.remove( overlay ) )
+      {
+         invalidate();
+      }
    }
    
    /**
-    * @return a list of all the overlay layers.
+    * @return a list of all the overlay layers. Change it through the methods of this class so 
+    *         that the render list is kept up to date.
     */
    public static ArrayList<Layer> getOverlayLayers()
    {
@@ -178,10 +211,12 @@ public final class LayerManager
    public static void clearOverlays()
    {
       OVERLAYS.clear();
+      invalidate();
    }
    
    /**
-    * @return a list of windows to render above all others
+    * @return a list of windows to render above all others. Change it through the methods of 
+    *         this class so that the render list is kept up to date.
     */
    public static ArrayList<GameWindow> getWindowLayers()
    {
@@ -197,6 +232,20 @@ public final class LayerManager
    public static void pushWindow( final GameWindow window )
    {
       WINDOWS.add( window );
+      invalidate();
+   }
+   
+   /**
+    * Removes a window.
+    * 
+    * @param window the window to remove.
+    */
+   public static void removeWindow( final GameWindow window )
+   {
+      if( WINDOWS.remove( window ) )
+      {
+         invalidate();
+      }
    }
    
    /**
@@ -206,6 +255,7 @@ public final class LayerManager
    {
       clearWindows();
       WINDOWS.addAll( windows );
+      invalidate();
    }
    
    /**
@@ -214,6 +264,7 @@ public final class LayerManager
    public static void clearWindows()
    {
       WINDOWS.clear();
+      invalidate();
    }
    
    /**
@@ -221,9 +272,13 @@ public final class LayerManager
     */
    public static void clearAll()
    {
+      derivedSection = null;
+      releaseMaps();
       MAPS.clear();
+      releaseSprites();
       SPRITES.clear();
       WINDOWS.clear();
+      invalidate();
    }
    
    /**
@@ -232,41 +287,27 @@ public final class LayerManager
     * index is to be drawn last.
     * <p>
     * For performance reasons we return an <code>ArrayList</code> rather than
-    * the <code>List</code> interface type.
+    * the <code>List</code> interface type. The same list is returned every 
+    * time and is only rebuilt when the layers have changed, so it must not be 
+    * modified.
     */
    public static ArrayList<Layer> getAllLayersInOrder()
    {
-      final ArrayList<Layer> allLayers = new ArrayList<Layer>();
-      
-      // cache fields locally for performance.
-      final ArrayList<Sprite> cachedSprites = SPRITES;
-      final ArrayList<TiledMap> cachedMaps = MAPS;
-      final int numSprites = cachedSprites.size();
-      Sprite sprite = null;
-      
-      final int numMaps = cachedMaps.size();
-      
-      for( int map = 0; map < numMaps; map++ )
+      if( renderListStale )
       {
-         allLayers.add( cachedMaps.get( map ) );
-         
-         for( int spriteIdx = 0; spriteIdx < numSprites; spriteIdx++ )
-         {
-            sprite = cachedSprites.get( spriteIdx );
-            if( sprite.getLayerIndex() == map )
-            {
-               allLayers.add( sprite );
-            }
-         }
+         renderListStale = false;
+         rebuildRenderList();
       }
-      
-      // Add the overlay layers above all tiled layers and sprites
-      allLayers.addAll( OVERLAYS );
-      
-      // Add the windows above all tiled layers, sprites and overlays.
-      allLayers.addAll( WINDOWS );
-      
-      return allLayers;
+      return RENDER_LIST;
+   }
+   
+   /**
+    * Marks the render list as out of date. Called whenever a layer is added, removed, reordered
+    * or moved to another map layer.
+    */
+   public static void invalidate()
+   {
+      renderListStale = true;
    }
    
    /**
@@ -274,25 +315,46 @@ public final class LayerManager
     */
    public static void sortSprites()
    {
-      // Bubble-sort the layers sprite layers.
-      // There's plenty of scope for improvement here...
+      // Insertion-sort the sprite layers. Sprites only move a few pixels a frame so they are 
+      // nearly always in order already, which makes this close to a single pass.
       final ArrayList<Sprite> cachedSprites = SPRITES;
-      final int numIterations = cachedSprites.size() - 1;
+      final int numSprites = cachedSprites.size();
+      if( sortKeys.length < numSprites )
+      {
+         sortKeys = new int[ numSprites ];
+      }
+      final int[] keys = sortKeys;
+      for( int spriteIdx = 0; spriteIdx < numSprites; spriteIdx++ )
+      {
+         keys[ spriteIdx ] = cachedSprites.get( spriteIdx ).getSortKey();
+      }
       
-      for( int first = 0; first < numIterations; first++ )
+      boolean swapped = false;
+      for( int next = 1; next < numSprites; next++ )
       {
-         for( int second = first; second < numIterations; second++ )
+         final int key = keys[ next ];
+         int slot = next;
+         if( keys[ slot - 1 ] <= key )
          {
-            final Sprite left =  cachedSprites.get( second );
-            final Sprite right = cachedSprites.get( second + 1 );
-            if( right.getOffsetPixelPosition().y <
-                left.getOffsetPixelPosition().y )
-            {
-               // swap
-               cachedSprites.set( second, right );
-               cachedSprites.set( second + 1, left );
-            }
+            continue;
          }
+         
+         // Shift the sprites with larger keys up one and drop this one in the gap. Sprites with 
+         // equal keys keep their order.
+         final Sprite sprite = cachedSprites.get( next );
+         while( slot > 0 && keys[ slot - 1 ] > key )
+         {
+            keys[ slot ] = keys[ slot - 1 ];
+            cachedSprites.set( slot, cachedSprites.get( slot - 1 ) );
+            slot--;
+         }
+         keys[ slot ] = key;
+         cachedSprites.set( slot, sprite );
+         swapped = true;
+      }
+      if( swapped )
+      {
+         invalidate();
       }
    }
    
@@ -306,6 +368,36 @@ public final class LayerManager
       LayerManager.hero = hero;
    }
    
+   /**
+    * @param derived the tables precomputed when the current map was compiled. May be null.
+    */
+   public static void setDerivedSection( final DerivedSection derived )
+   {
+      LayerManager.derivedSection = derived;
+   }
+   
+   /**
+    * Checks whether the hero could possibly walk between two tiles on its current layer. Sprites
+    * are not taken into account.
+    * 
+    * @param xTileFrom the source X tile position
+    * @param yTileFrom the source Y tile position
+    * @param xTileTo the target X tile position
+    * @param yTileTo the target Y tile position
+    * @return false if there is definitely no way between the two tiles. Always true if the map 
+    *         was not compiled.
+    */
+   public static boolean canHeroReach( final int xTileFrom, final int yTileFrom,
+                                       final int xTileTo, final int yTileTo )
+   {
+      final DerivedSection derived = derivedSection;
+      if( derived == null )
+      {
+         return true;
+      }
+      return derived.isReachable( hero.getLayerIndex(), xTileFrom, yTileFrom, xTileTo, yTileTo );
+   }
+   
    /**
     * Checks all the layers below the hero sprite. Return the worst case
     * from all the layers checked.
@@ -368,13 +460,12 @@ public final class LayerManager
       // are not -1, we can move.
       final TiledMap top = cachedMaps.get( layerIndex );
       
-      if( xTileTo < 0 || yTileTo < 0 || yTileTo >= top.fullMap.length ||
-               xTileTo >= top.fullMap[ 0 ].length )
+      if( !top.grid.contains( xTileTo, yTileTo ) )
       {
          return 0;
       }
       
-      final int tileTo = top.fullMap[yTileTo][xTileTo];
+      final int tileTo = top.grid.get( xTileTo, yTileTo );
       final int move = top.canMove( xFrom, yFrom, xTo, yTo );
       if( move != 0 && tileTo != -1 )
       {
@@ -528,4 +619,102 @@ public final class LayerManager
       }
       return null;
    }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   /**
+    * Fills the render list with each map followed by the sprites on it, in their sorted order,
+    * then the overlays and the windows. Sprites are placed by counting how many are on each map
+    * rather than by searching the sprites once per map.
+    */
+   private static void rebuildRenderList()
+   {
+      final ArrayList<Layer> renderList = RENDER_LIST;
+      final ArrayList<TiledMap> cachedMaps = MAPS;
+      final ArrayList<Sprite> cachedSprites = SPRITES;
+      final int numMaps = cachedMaps.size();
+      final int numSprites = cachedSprites.size();
+      
+      if( spritesPerMap.length < numMaps )
+      {
+         spritesPerMap = new int[ numMaps ];
+      }
+      final int[] counts = spritesPerMap;
+      for( int map = 0; map < numMaps; map++ )
+      {
+         counts[ map ] = 0;
+      }
+      int placed = 0;
+      for( int spriteIdx = 0; spriteIdx < numSprites; spriteIdx++ )
+      {
+         final int map = cachedSprites.get( spriteIdx ).getLayerIndex();
+         if( map >= 0 && map < numMaps )
+         {
+            counts[ map ]++;
+            placed++;
+         }
+      }
+      
+      // Turn the counts into the index at which each map goes, then put the maps and sprites 
+      // in their slots. Sprites on layers that do not exist are not drawn.
+      renderList.clear();
+      for( int slot = numMaps + placed; slot > 0; slot-- )
+      {
+         renderList.add( null );
+      }
+      int next = 0;
+      for( int map = 0; map < numMaps; map++ )
+      {
+         renderList.set( next, cachedMaps.get( map ) );
+         final int count = counts[ map ];
+         counts[ map ] = next + 1;
+         next += count + 1;
+      }
+      for( int spriteIdx = 0; spriteIdx < numSprites; spriteIdx++ )
+      {
+         final Sprite sprite = cachedSprites.get( spriteIdx );
+         final int map = sprite.getLayerIndex();
+         if( map >= 0 && map < numMaps )
+         {
+            renderList.set( counts[ map ]++, sprite );
+         }
+      }
+      
+      // Add the overlay layers above all tiled layers and sprites
+      final ArrayList<Layer> cachedOverlays = OVERLAYS;
+      final int numOverlays = cachedOverlays.size();
+      for( int overlayIdx = 0; overlayIdx < numOverlays; overlayIdx++ )
+      {
+         renderList.add( cachedOverlays.get( overlayIdx ) );
+      }
+      
+      // Add the windows above all tiled layers, sprites and overlays.
+      final ArrayList<GameWindow> cachedWindows = WINDOWS;
+      final int numWindows = cachedWindows.size();
+      for( int windowIdx = 0; windowIdx < numWindows; windowIdx++ )
+      {
+         renderList.add( cachedWindows.get( windowIdx ) );
+      }
+   }
+   
+   private static void releaseMaps()
+   {
+      final ArrayList<TiledMap> cachedMaps = MAPS;
+      final int numMaps = cachedMaps.size();
+      for( int mapIdx = 0; mapIdx < numMaps; mapIdx++ )
+      {
+         cachedMaps.get( mapIdx ).release();
+      }
+   }
+   
+   private static void releaseSprites()
+   {
+      final ArrayList<Sprite> cachedSprites = SPRITES;
+      final int numSprites = cachedSprites.size();
+      for( int spriteIdx = 0; spriteIdx < numSprites; spriteIdx++ )
+      {
+         cachedSprites.get( spriteIdx ).release();
+      }
+   }
 }
@@ -2,12 +2,13 @@ package uk.co.eduardo.abaddon.graphics.layer;
 
 import java.util.Random;
 
-import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 
 import uk.co.eduardo.abaddon.graphics.Animation;
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
+import uk.co.eduardo.abaddon.map.sections.StringTable;
 import uk.co.eduardo.abaddon.util.Coordinate;
 import uk.co.eduardo.abaddon.util.ScreenSettings;
 
@@ -35,6 +36,12 @@ public class NPC extends Sprite
    /** utterances based on game events */
    private final String[] speeches;
    
+   /** The map's string table holding the speeches that have not been set directly. May be null. */
+   private StringTable speechTable;
+   
+   /** The id of each speech in the {@link #speechTable} */
+   private final int[] speechIds;
+   
    /** The game event id that triggers each of the above speeches */
    private final int[] events;
    
@@ -97,6 +104,7 @@ public class NPC extends Sprite
       this.type = type;
       this.isFixed = isFixed;
       this.speeches = new String[ speechCount ];
+      this.speechIds = new int[ speechCount ];
       this.events = new int[ speechCount ];
       this.xOffset = 0;
       this.yOffset = -ScreenSettings.tileSize;
@@ -133,6 +141,7 @@ public class NPC extends Sprite
       this.type = type;
       this.isFixed = isFixed;
       this.speeches = new String[ speechCount ];
+      this.speechIds = new int[ speechCount ];
       this.events = new int[ speechCount ];
       this.xOffset = 0;
       this.yOffset = -ScreenSettings.tileSize;
@@ -149,7 +158,7 @@ public class NPC extends Sprite
    public void draw( final int xPos,
                      final int yPos,
                      final boolean below,
-                     final Canvas canvas,
+                     final RenderBackend renderer,
                      final Paint paint )
    {
       if( !this.visible )
@@ -167,6 +176,12 @@ public class NPC extends Sprite
       final int yDraw = ( this.y * tileSize ) + this.yOffset + yWalk - yPos +
             ScreenSettings.yCentre;
       
+      if( !Viewport.isVisible( xDraw, yDraw, 
+                               this.anim.getFrameWidth(), this.anim.getFrameHeight() ) )
+      {
+         return;
+      }
+      
       final Rect source = this.anim.getFrameOffset( offset + this.animFrame );
       final Rect dest = this.destination;
       dest.left = xDraw;
@@ -174,7 +189,7 @@ public class NPC extends Sprite
       dest.right = xDraw + this.anim.getFrameWidth();
       dest.bottom = yDraw + this.anim.getFrameHeight();
     
-      canvas.drawBitmap( this.anim.getBitmap(), source, dest, paint );
+      renderer.drawBitmap( this.anim.getBitmap(), source, dest, paint );
    }
    
    /**
@@ -216,6 +231,16 @@ public class NPC extends Sprite
                              ( this.y * tileSize ) + this.yOffset + yWalk );
    }
    
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int getSortKey()
+   {
+      return ( this.y * ScreenSettings.tileSize ) + this.yOffset + 
+             ( this.direction.vector.y * this.walkOffset );
+   }
+   
    /**
     * @return the type identifier for this NPC
     */
@@ -246,7 +271,13 @@ public class NPC extends Sprite
     */
    public String getSpeech( final int index )
    {
-      return this.speeches[index];
+      final String speech = this.speeches[index];
+      if( speech == null && this.speechTable != null )
+      {
+         // Decoded by the table the first time any NPC in the map says it
+         return this.speechTable.get( this.speechIds[index] );
+      }
+      return speech;
    }
    
    /**
@@ -269,6 +300,20 @@ public class NPC extends Sprite
       this.events[index] = event;
    }
    
+   /**
+    * @param index index of the speech to set.
+    * @param table the map's string table.
+    * @param id the id of the text of the speech in the table.
+    * @param event the event that will trigger the NPC to say that.
+    */
+   public void setSpeech( final int index, final StringTable table, final int id, final int event )
+   {
+      this.speeches[index] = null;
+      this.speechTable = table;
+      this.speechIds[index] = id;
+      this.events[index] = event;
+   }
+   
    /**
     * May start a sprite walking if it is not walking. If it is already walking
     * animate the sprite and check to see if it should stop walking.
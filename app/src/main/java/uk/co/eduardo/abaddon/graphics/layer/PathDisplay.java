@@ -4,10 +4,10 @@ import java.util.LinkedList;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
 import android.graphics.Paint;
 
 import uk.co.eduardo.abaddon.R;
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
 import uk.co.eduardo.abaddon.util.Coordinate;
 import uk.co.eduardo.abaddon.util.Res;
 import uk.co.eduardo.abaddon.util.ScreenSettings;
@@ -51,7 +51,7 @@ public class PathDisplay implements Layer
    public void draw( final int xPos,
                      final int yPos,
                      final boolean below,
-                     final Canvas canvas,
+                     final RenderBackend renderer,
                      final Paint paint )
    {
       if( !this.visible )
@@ -76,12 +76,31 @@ public class PathDisplay implements Layer
       final int yEnd   = yTilePos + visibleVert + 1; // + 1
       
       
+      // Each step of the path is at most one tile from the last, so a marker that is n tiles 
+      // outside the visible tiles is followed by at least n - 1 more that are outside too.
+      int skip = 0;
+      int drawn = 0;
+      int culled = 0;
       for( final Coordinate coord : this.path )
       {
+         if( skip > 0 )
+         {
+            skip--;
+            culled++;
+            continue;
+         }
+         
          final int xTile = coord.x;
          final int yTile = coord.y;
          
-         if( xTile >= xStart && xTile < xEnd && yTile >= yStart && yTile < yEnd )
+         final int outside = Math.max( Math.max( xStart - xTile, xTile - xEnd + 1 ), 
+                                       Math.max( yStart - yTile, yTile - yEnd + 1 ) );
+         if( outside > 0 )
+         {
+            skip = outside - 1;
+            culled++;
+         }
+         else
          {
             final int xPixel = xTile * tileSize;
             final int yPixel = yTile * tileSize;
@@ -89,12 +108,14 @@ public class PathDisplay implements Layer
             final int xDraw = xPixel - xPos + xCentre;
             final int yDraw = yPixel - yPos + yCentre;
             
-            canvas.drawBitmap( this.pathMarker, xDraw, yDraw, null );
+            renderer.drawBitmap( this.pathMarker, xDraw, yDraw, null );
+            drawn++;
             
-//            canvas.drawLine( xDraw, yDraw ,xDraw + tileSize, yDraw + tileSize, paint );
-//            canvas.drawLine( xDraw + tileSize, yDraw,xDraw, yDraw + tileSize, paint );
+//            renderer.drawLine( xDraw, yDraw ,xDraw + tileSize, yDraw + tileSize, paint );
+//            renderer.drawLine( xDraw + tileSize, yDraw,xDraw, yDraw + tileSize, paint );
          }
       }
+      Viewport.count( drawn, culled );
    }                    
    
    /**
@@ -0,0 +1,313 @@
+package uk.co.eduardo.abaddon.graphics.layer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import uk.co.eduardo.abaddon.graphics.BitmapPool;
+import uk.co.eduardo.abaddon.graphics.CanvasBackend;
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
+import uk.co.eduardo.abaddon.util.ScreenSettings;
+
+/**
+ * Holds the static tiles of the window of a {@link TiledMap} layer that is on screen, so that
+ * a frame only has to draw the tiles that have scrolled into view.
+ * <p>
+ * The buffer wraps around in both directions. The tile at (x, y) is always kept at
+ * (x mod width, y mod height) in the buffer, so scrolling never moves pixels. It just
+ * overwrites the rows and columns that have left the window with the ones that have entered it.
+ * The buffer is then drawn to the screen in up to four pieces.
+ * <p>
+ * The buffer is only created once the window reaches the populated part of the layer, so layers
+ * with nothing in them never have one. The buffer of an opaque layer is <code>RGB_565</code> and
+ * is copied to the screen rather than blended.
+ * 
+ * @author Ed
+ */
+class ScrollBuffer
+{
+   //================|  Fields             |====================================
+   
+   /** Draws the static tiles into the buffer. */
+   private final TileChunkCache chunks;
+   
+   /** The cells holding every tile. See {@link DerivedSection#getBounds(int)} */
+   private final int[] bounds;
+   
+   /** The width of the window in tiles. */
+   private final int widthTiles;
+   
+   /** The height of the window in tiles. */
+   private final int heightTiles;
+   
+   /** True if the layer is drawn first, with nothing under it to show through. */
+   private final boolean opaque;
+   
+   /** The buffer, created the first time the window overlaps the populated cells. */
+   private Bitmap bitmap;
+   
+   /** Draws into the buffer. */
+   private final Canvas bufferCanvas = new Canvas();
+   
+   /** Draws the tiles onto {@link #bufferCanvas}. */
+   private final CanvasBackend bufferRenderer = new CanvasBackend( this.bufferCanvas );
+   
+   /** Paint used to draw the tiles into the buffer. */
+   private final Paint bufferPaint = new Paint();
+   
+   /** Clears the part of the buffer that is about to be filled. */
+   private final Paint clearPaint = new Paint();
+   
+   /** Replaces what is under an opaque buffer rather than blending with it. */
+   private final Paint opaquePaint = new Paint();
+   
+   /** The part of the buffer to draw. */
+   private final Rect source = new Rect();
+   
+   /** Where to draw the part of the buffer. */
+   private final Rect destination = new Rect();
+   
+   /** The left-most tile held in the buffer. */
+   private int xFirst;
+   
+   /** The top-most tile held in the buffer. */
+   private int yFirst;
+   
+   /** True if the buffer holds the window starting at ( xFirst, yFirst ). */
+   private boolean valid = false;
+   
+   /** True once the buffer has been given back to the pool. */
+   private boolean released = false;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param chunks draws the static tiles of the layer.
+    * @param bounds the smallest rectangle of cells holding every tile.
+    * @param opaque true if the layer is drawn first, so that nothing under it shows through its
+    *               gaps or transparent pixels.
+    * @param widthTiles the width of the window in tiles.
+    * @param heightTiles the height of the window in tiles.
+    */
+   ScrollBuffer( final TileChunkCache chunks,
+                 final int[] bounds,
+                 final boolean opaque,
+                 final int widthTiles,
+                 final int heightTiles )
+   {
+      this.chunks = chunks;
+      this.bounds = bounds;
+      this.opaque = opaque;
+      this.widthTiles = widthTiles;
+      this.heightTiles = heightTiles;
+      this.clearPaint.setXfermode( new PorterDuffXfermode( PorterDuff.Mode.CLEAR ) );
+      this.opaquePaint.setXfermode( new PorterDuffXfermode( PorterDuff.Mode.SRC ) );
+   }
+   
+   
+   //================|  Default Methods    |====================================
+   
+   /**
+    * Brings the buffer up to date with a window of tiles and draws it.
+    * 
+    * @param renderer draws the buffer.
+    * @param paint the paint with which to draw.
+    * @param xWindow the left-most tile of the window.
+    * @param yWindow the top-most tile of the window.
+    * @param xOffset added to the pixel position of a tile in the layer to place it.
+    * @param yOffset added to the pixel position of a tile in the layer to place it.
+    */
+   synchronized void draw( final RenderBackend renderer,
+                           final Paint paint,
+                           final int xWindow,
+                           final int yWindow,
+                           final int xOffset,
+                           final int yOffset )
+   {
+      if( this.released )
+      {
+         return;
+      }
+      final int tileSize = ScreenSettings.tileSize;
+      final int width = this.widthTiles * tileSize;
+      final int height = this.heightTiles * tileSize;
+      if( this.bitmap == null )
+      {
+         final int[] cachedBounds = this.bounds;
+         if( xWindow >= cachedBounds[ DerivedSection.RIGHT ] ||
+             yWindow >= cachedBounds[ DerivedSection.BOTTOM ] ||
+             xWindow + this.widthTiles <= cachedBounds[ DerivedSection.LEFT ] ||
+             yWindow + this.heightTiles <= cachedBounds[ DerivedSection.TOP ] )
+         {
+            // Nothing to draw yet, so do not hold a buffer for it
+            return;
+         }
+         this.bitmap = BitmapPool.obtain( width, 
+                                          height, 
+                                          this.opaque ? Bitmap.Config.RGB_565 : 
+                                                        Bitmap.Config.ARGB_8888 );
+         this.bufferCanvas.setBitmap( this.bitmap );
+      }
+      scrollTo( xWindow, yWindow );
+      
+      // The first tile of the window is not necessarily at the top left of the buffer
+      final int xSplit = wrap( xWindow, this.widthTiles ) * tileSize;
+      final int ySplit = wrap( yWindow, this.heightTiles ) * tileSize;
+      final int xScreen = ( xWindow * tileSize ) + xOffset;
+      final int yScreen = ( yWindow * tileSize ) + yOffset;
+      
+      drawPiece( renderer, paint, xSplit, ySplit, width, height, xScreen, yScreen );
+      drawPiece( renderer, paint, 0, ySplit, xSplit, height,
+                 xScreen + width - xSplit, yScreen );
+      drawPiece( renderer, paint, xSplit, 0, width, ySplit,
+                 xScreen, yScreen + height - ySplit );
+      drawPiece( renderer, paint, 0, 0, xSplit, ySplit,
+                 xScreen + width - xSplit, yScreen + height - ySplit );
+   }
+   
+   /**
+    * Gives the buffer back to the {@link BitmapPool}. Nothing is drawn afterwards.
+    */
+   synchronized void release()
+   {
+      this.released = true;
+      BitmapPool.release( this.bitmap );
+      this.bitmap = null;
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   /**
+    * Fills in the tiles that have come into the window since the last frame.
+    */
+   private void scrollTo( final int xWindow, final int yWindow )
+   {
+      final int xRight = xWindow + this.widthTiles;
+      final int yBottom = yWindow + this.heightTiles;
+      final int xMoved = xWindow - this.xFirst;
+      final int yMoved = yWindow - this.yFirst;
+      
+      boolean complete = true;
+      if( !this.valid ||
+          Math.abs( xMoved ) >= this.widthTiles ||
+          Math.abs( yMoved ) >= this.heightTiles )
+      {
+         // Nothing in the buffer can be kept
+         complete = fill( xWindow, yWindow, xRight, yBottom );
+      }
+      else
+      {
+         // Columns first, then rows. The corner they share is cleared and filled twice.
+         if( xMoved > 0 )
+         {
+            complete &= fill( xRight - xMoved, yWindow, xRight, yBottom );
+         }
+         else if( xMoved < 0 )
+         {
+            complete &= fill( xWindow, yWindow, xWindow - xMoved, yBottom );
+         }
+         if( yMoved > 0 )
+         {
+            complete &= fill( xWindow, yBottom - yMoved, xRight, yBottom );
+         }
+         else if( yMoved < 0 )
+         {
+            complete &= fill( xWindow, yWindow, xRight, yWindow - yMoved );
+         }
+      }
+      
+      this.xFirst = xWindow;
+      this.yFirst = yWindow;
+      
+      // Tiles still being streamed in were left out, so fill the whole window again next time
+      this.valid = complete;
+   }
+   
+   /**
+    * Redraws a range of tiles no bigger than the window, splitting it where it wraps around
+    * the edges of the buffer.
+    * 
+    * @return <code>false</code> if some of the tiles were left out as they are not loaded yet.
+    */
+   private boolean fill( final int xStart, final int yStart, final int xEnd, final int yEnd )
+   {
+      final int xSplit = 
+         Math.min( xEnd, xStart + this.widthTiles - wrap( xStart, this.widthTiles ) );
+      final int ySplit = 
+         Math.min( yEnd, yStart + this.heightTiles - wrap( yStart, this.heightTiles ) );
+      
+      // Fill every piece even if one is incomplete
+      boolean complete = fillPiece( xStart, yStart, xSplit, ySplit );
+      complete &= fillPiece( xSplit, yStart, xEnd, ySplit );
+      complete &= fillPiece( xStart, ySplit, xSplit, yEnd );
+      complete &= fillPiece( xSplit, ySplit, xEnd, yEnd );
+      return complete;
+   }
+   
+   /**
+    * Redraws a range of tiles that does not wrap around the edges of the buffer.
+    * 
+    * @return <code>false</code> if some of the tiles were left out as they are not loaded yet.
+    */
+   private boolean fillPiece( final int xStart, final int yStart, final int xEnd, final int yEnd )
+   {
+      if( xStart >= xEnd || yStart >= yEnd )
+      {
+         return true;
+      }
+      final int tileSize = ScreenSettings.tileSize;
+      final int xBuffer = wrap( xStart, this.widthTiles ) * tileSize;
+      final int yBuffer = wrap( yStart, this.heightTiles ) * tileSize;
+      this.bufferCanvas.drawRect( xBuffer,
+                                  yBuffer,
+                                  xBuffer + ( ( xEnd - xStart ) * tileSize ),
+                                  yBuffer + ( ( yEnd - yStart ) * tileSize ),
+                                  this.clearPaint );
+      
+      // Only the populated part of the map has anything to draw
+      final int[] cachedBounds = this.bounds;
+      return this.chunks.drawStatic( this.bufferRenderer,
+                                     this.bufferPaint,
+                                     Math.max( xStart, cachedBounds[ DerivedSection.LEFT ] ),
+                                     Math.max( yStart, cachedBounds[ DerivedSection.TOP ] ),
+                                     Math.min( xEnd, cachedBounds[ DerivedSection.RIGHT ] ),
+                                     Math.min( yEnd, cachedBounds[ DerivedSection.BOTTOM ] ),
+                                     xBuffer - ( xStart * tileSize ),
+                                     yBuffer - ( yStart * tileSize ) );
+   }
+   
+   private void drawPiece( final RenderBackend renderer,
+                           final Paint paint,
+                           final int left,
+                           final int top,
+                           final int right,
+                           final int bottom,
+                           final int xScreen,
+                           final int yScreen )
+   {
+      if( left >= right || top >= bottom )
+      {
+         return;
+      }
+      this.source.set( left, top, right, bottom );
+      this.destination.set( xScreen, yScreen, xScreen + right - left, yScreen + bottom - top );
+      renderer.drawBitmap( this.bitmap, 
+                           this.source, 
+                           this.destination, 
+                           this.opaque ? this.opaquePaint : paint );
+   }
+   
+   /**
+    * @return the position of a tile in the buffer along one axis.
+    */
+   private static int wrap( final int tile, final int size )
+   {
+      return ( ( tile % size ) + size ) % size;
+   }
+}
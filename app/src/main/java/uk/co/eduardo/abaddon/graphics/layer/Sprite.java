@@ -1,11 +1,13 @@
 package uk.co.eduardo.abaddon.graphics.layer;
 
-import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 
 import uk.co.eduardo.abaddon.graphics.Animation;
+import uk.co.eduardo.abaddon.graphics.AnimationFactory;
+import uk.co.eduardo.abaddon.graphics.BitmapPool;
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
 import uk.co.eduardo.abaddon.util.Coordinate;
 import uk.co.eduardo.abaddon.util.ScreenSettings;
 
@@ -32,6 +34,9 @@ public class Sprite implements Layer
    /** The animated frames for this sprite */
    protected final Animation anim;
    
+   /** True if the sprite made its animation itself rather than sharing one. */
+   private final boolean ownsAnimation;
+   
    /** The current frame of animation (between 0 and 3) */
    protected int animFrame = 0;
    
@@ -93,6 +98,7 @@ public class Sprite implements Layer
          this.yOffset = animation.getFrameHeight();
       }
       this.anim = animation;
+      this.ownsAnimation = false;
       this.visible = true;
       this.destination = new Rect( 0, 0, 0, 0 );
    }
@@ -109,6 +115,7 @@ public class Sprite implements Layer
                   final int frameHeight )
    {
       this.anim = new Animation( resource, frameWidth, frameHeight );
+      this.ownsAnimation = true;
       this.visible = true;
       this.xOffset = -( this.anim.getFrameWidth() / 2 );
       this.yOffset = -this.anim.getFrameHeight();
@@ -125,7 +132,7 @@ public class Sprite implements Layer
    public void draw( final int xPos,
                      final int yPos,
                      final boolean below,
-                     final Canvas canvas,
+                     final RenderBackend renderer,
                      final Paint paint )
    {
       if( !this.visible )
@@ -136,6 +143,12 @@ public class Sprite implements Layer
       final int xDraw = this.xPixel - xPos + ScreenSettings.xCentre + this.xOffset;
       final int yDraw = this.yPixel - yPos + ScreenSettings.yCentre + this.yOffset;
       
+      if( !Viewport.isVisible( xDraw, yDraw, 
+                               this.anim.getFrameWidth(), this.anim.getFrameHeight() ) )
+      {
+         return;
+      }
+      
       final Rect source = this.anim.getFrameOffset(
             this.direction.offset + this.animFrame );
       
@@ -145,7 +158,24 @@ public class Sprite implements Layer
       dest.right = xDraw + this.anim.getFrameWidth();
       dest.bottom = yDraw + this.anim.getFrameHeight();
       
-      canvas.drawBitmap( this.anim.getBitmap(), source, dest, paint );
+      renderer.drawBitmap( this.anim.getBitmap(), source, dest, paint );
+   }
+   
+   /**
+    * Gives back the animation's image. Called when the sprite is removed; it cannot be drawn
+    * afterwards. An animation the sprite made itself goes straight to the {@link BitmapPool}; a
+    * shared one is released to the {@link AnimationFactory}.
+    */
+   public void release()
+   {
+      if( this.ownsAnimation )
+      {
+         BitmapPool.release( this.anim.getBitmap() );
+      }
+      else
+      {
+         AnimationFactory.release( this.anim );
+      }
    }
    
    /**
@@ -248,6 +278,16 @@ public class Sprite implements Layer
       return new Coordinate( this.xPixel + this.xOffset, this.yPixel + this.yOffset );
    }
    
+   /**
+    * @return the key by which sprites are ordered for drawing. Sprites with smaller keys are 
+    * drawn first. This is the Y coordinate of {@link #getOffsetPixelPosition()}, without 
+    * creating a Coordinate.
+    */
+   public int getSortKey()
+   {
+      return this.yPixel + this.yOffset;
+   }
+   
    /**
     * @return the tile coordinate of where the sprite is currently standing
     */
@@ -330,5 +370,6 @@ public class Sprite implements Layer
    public void setLayerIndex( final int layerIndex )
    {
       this.layerIndex = layerIndex;
+      LayerManager.invalidate();
    }
 }
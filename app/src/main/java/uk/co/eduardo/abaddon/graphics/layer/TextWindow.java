@@ -2,12 +2,12 @@ package uk.co.eduardo.abaddon.graphics.layer;
 
 import java.util.ArrayList;
 
-import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.FontMetricsInt;
 
 import uk.co.eduardo.abaddon.InputState;
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
 
 /**
  * Displays a window with text
@@ -189,17 +189,17 @@ public class TextWindow extends GameWindow
    public void draw( final int posX,
                      final int posY,
                      final boolean below,
-                     final Canvas canvas,
+                     final RenderBackend renderer,
                      final Paint paint )
    {
       if( !this.visible )
       {
          return;
       }
-      super.draw( posX, posY, below, canvas, paint );
+      super.draw( posX, posY, below, renderer, paint );
       
       // save the current clip state
-      canvas.save();
+      renderer.save();
       
       // Cache fields for performance.
       final int cachedX = this.x;
@@ -207,10 +207,10 @@ public class TextWindow extends GameWindow
       final int cachedTextHeight = this.textHeight;
       
       // The padding in the window is 5 pixels all around
-      canvas.clipRect( cachedX + PADDING,
-                       cachedY + PADDING,
-                       cachedX + this.width - PADDING, 
-                       cachedY + PADDING + ( this.visibleLines * cachedTextHeight ) );    
+      renderer.clipRect( cachedX + PADDING,
+                         cachedY + PADDING,
+                         cachedX + this.width - PADDING, 
+                         cachedY + PADDING + ( this.visibleLines * cachedTextHeight ) );    
       
       if( this.scrolling )
       {
@@ -229,11 +229,11 @@ public class TextWindow extends GameWindow
       
       for( final String line : this.lines )
       {
-         canvas.drawText( line, cachedX + PADDING, yOffset, this.textPaint );
+         renderer.drawText( line, cachedX + PADDING, yOffset, this.textPaint );
          yOffset += cachedTextHeight;
       }
       // restore the clip state
-      canvas.restore();
+      renderer.restore();
       
       // if the window is modal, draw the icon at the bottom
       if( this.isModal )
@@ -247,11 +247,11 @@ public class TextWindow extends GameWindow
             iconPaint.setColor( Color.GREEN );
             for( int yIcon = 0; yIcon < ICON_SIZE; yIcon++ )
             {
-               canvas.drawPoint( xCentre, yCentre - yIcon, iconPaint );
+               renderer.drawPoint( xCentre, yCentre - yIcon, iconPaint );
                for( int xIcon = 1; xIcon <= yIcon; xIcon++ )
                {
-                  canvas.drawPoint( xCentre - xIcon, yCentre - yIcon, iconPaint );
-                  canvas.drawPoint( xCentre + xIcon, yCentre - yIcon, iconPaint );
+                  renderer.drawPoint( xCentre - xIcon, yCentre - yIcon, iconPaint );
+                  renderer.drawPoint( xCentre + xIcon, yCentre - yIcon, iconPaint );
                }
             }
          }
@@ -263,8 +263,8 @@ public class TextWindow extends GameWindow
             {
                for( int xIcon = 0; xIcon < ICON_SIZE - 1; xIcon++ )
                {
-                  canvas.drawPoint( xCentre - xIcon, yCentre - yIcon, iconPaint );
-                  canvas.drawPoint( xCentre + xIcon, yCentre - yIcon, iconPaint );
+                  renderer.drawPoint( xCentre - xIcon, yCentre - yIcon, iconPaint );
+                  renderer.drawPoint( xCentre + xIcon, yCentre - yIcon, iconPaint );
                }
             }
          }
@@ -0,0 +1,394 @@
+package uk.co.eduardo.abaddon.graphics.layer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import uk.co.eduardo.abaddon.graphics.BitmapPool;
+import uk.co.eduardo.abaddon.graphics.CanvasBackend;
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
+import uk.co.eduardo.abaddon.map.TileGrid;
+import uk.co.eduardo.abaddon.tileset.Tileset;
+import uk.co.eduardo.abaddon.util.ScreenSettings;
+
+/**
+ * Keeps the static tiles of one {@link TiledMap} layer pre-rendered into square chunk bitmaps so
+ * that drawing the layer takes a handful of draws rather than one per tile.
+ * <p>
+ * A chunk is rendered the first time it is drawn. Animated tiles are left out of it and are
+ * drawn separately every frame. Chunks with nothing static in them have no bitmap at all. Only
+ * enough chunks to cover the {@link ScrollBuffer} window once are kept, least recently drawn
+ * first, as the buffer only needs them for the strips that scroll into view. Evicted chunks go
+ * back to the {@link BitmapPool}. A chunk whose tiles are still being streamed in (see
+ * {@link TileGrid#isLoaded(int, int, int, int)}) is skipped until they arrive.
+ * <p>
+ * The chunks of an opaque layer, which has nothing drawn under it, are <code>RGB_565</code> and
+ * are copied rather than blended, as the opaque tiles of the {@link Tileset} are.
+ * 
+ * @author Ed
+ */
+class TileChunkCache
+{
+   //================|  Fields             |====================================
+   
+   /** The base two logarithm of the number of tiles along each side of a chunk. */
+   static final int CHUNK_SHIFT = 3;
+   
+   /** The number of tiles along each side of a chunk. */
+   static final int CHUNK_TILES = 1 << CHUNK_SHIFT;
+   
+   /** The cells of a chunk with no animated tiles. */
+   private static final int[] NO_CELLS = new int[ 0 ];
+   
+   /** The layer's tiles. */
+   private final TileGrid grid;
+   
+   /** Draws the tiles. */
+   private final Tileset tileset;
+   
+   /** The number of chunks across the layer. */
+   private final int chunksWide;
+   
+   /** The number of chunks down the layer. */
+   private final int chunksHigh;
+   
+   /** The most chunk bitmaps to keep. */
+   private final int capacity;
+   
+   /** True if the chunks are drawn first, with nothing under them to show through. */
+   private final boolean opaque;
+   
+   /** The rendered chunks keyed by chunk index, least recently drawn first. */
+   private final LinkedHashMap< Integer, Bitmap > chunks =
+      new LinkedHashMap< Integer, Bitmap >( 16, 0.75f, true );
+   
+   /**
+    * The animated cells of each chunk, or <code>null</code> if the chunk has not been rendered
+    * yet. Kept when the chunk bitmap is evicted.
+    */
+   private final int[][] animatedCells;
+   
+   /** True for each chunk that has been found to have no static tiles. */
+   private final boolean[] empty;
+   
+   /** Renders into chunk bitmaps. */
+   private final Canvas chunkCanvas = new Canvas();
+   
+   /** Draws the tiles onto {@link #chunkCanvas}. */
+   private final CanvasBackend chunkRenderer = new CanvasBackend( this.chunkCanvas );
+   
+   /** Paint used to render the tiles into the chunks. */
+   private final Paint chunkPaint = new Paint();
+   
+   /** Replaces what is under an opaque chunk rather than blending with it. */
+   private final Paint opaquePaint = new Paint();
+   
+   /** The part of a chunk to draw. */
+   private final Rect source = new Rect();
+   
+   /** Where to draw the part of a chunk. */
+   private final Rect destination = new Rect();
+   
+   /** True once the chunks have been given back to the pool. */
+   private boolean released = false;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param grid the layer's tiles.
+    * @param tileset draws the tiles.
+    * @param opaque true if the layer is drawn first, so that nothing under it shows through its
+    *               gaps or transparent pixels.
+    * @param windowWidth the width in tiles of the window the chunks are drawn into.
+    * @param windowHeight the height in tiles of the window the chunks are drawn into.
+    */
+   TileChunkCache( final TileGrid grid,
+                   final Tileset tileset,
+                   final boolean opaque,
+                   final int windowWidth,
+                   final int windowHeight )
+   {
+      this.grid = grid;
+      this.tileset = tileset;
+      this.opaque = opaque;
+      this.chunksWide = ( grid.getWidth() + CHUNK_TILES - 1 ) >> CHUNK_SHIFT;
+      this.chunksHigh = ( grid.getHeight() + CHUNK_TILES - 1 ) >> CHUNK_SHIFT;
+      this.animatedCells = new int[ this.chunksWide * this.chunksHigh ][];
+      this.empty = new boolean[ this.chunksWide * this.chunksHigh ];
+      
+      // Enough for the window to straddle chunks on every side
+      this.capacity = ( ( ( windowWidth - 1 ) >> CHUNK_SHIFT ) + 2 ) *
+                      ( ( ( windowHeight - 1 ) >> CHUNK_SHIFT ) + 2 );
+      this.opaquePaint.setXfermode( new PorterDuffXfermode( PorterDuff.Mode.SRC ) );
+   }
+   
+   
+   //================|  Default Methods    |====================================
+   
+   /**
+    * Draws the static tiles in a range of tiles, taking the parts of the chunks that cover it.
+    * 
+    * @param renderer draws the tiles.
+    * @param paint the paint with which to draw.
+    * @param xStart the left-most tile to draw.
+    * @param yStart the top-most tile to draw.
+    * @param xEnd one past the right-most tile to draw.
+    * @param yEnd one past the bottom-most tile to draw.
+    * @param xOffset added to the pixel position of a tile in the layer to place it.
+    * @param yOffset added to the pixel position of a tile in the layer to place it.
+    * @return <code>false</code> if some of the tiles were skipped as they are not loaded yet.
+    */
+   synchronized boolean drawStatic( final RenderBackend renderer,
+                                    final Paint paint,
+                                    final int xStart,
+                                    final int yStart,
+                                    final int xEnd,
+                                    final int yEnd,
+                                    final int xOffset,
+                                    final int yOffset )
+   {
+      if( this.released || xStart >= xEnd || yStart >= yEnd )
+      {
+         return true;
+      }
+      final int tileSize = ScreenSettings.tileSize;
+      final int chunkPixels = CHUNK_TILES * tileSize;
+      final int xChunkEnd = ( ( xEnd - 1 ) >> CHUNK_SHIFT ) + 1;
+      final int yChunkEnd = ( ( yEnd - 1 ) >> CHUNK_SHIFT ) + 1;
+      
+      boolean complete = true;
+      for( int yChunk = yStart >> CHUNK_SHIFT; yChunk < yChunkEnd; yChunk++ )
+      {
+         for( int xChunk = xStart >> CHUNK_SHIFT; xChunk < xChunkEnd; xChunk++ )
+         {
+            final int chunk = ( yChunk * this.chunksWide ) + xChunk;
+            final Bitmap bitmap = getChunk( chunk );
+            if( bitmap == null )
+            {
+               // Empty chunks have no bitmap either
+               complete &= this.empty[ chunk ];
+               continue;
+            }
+            
+            // Only the part of the chunk inside the range
+            final int xChunkPixel = xChunk * chunkPixels;
+            final int yChunkPixel = yChunk * chunkPixels;
+            final int left = Math.max( xStart * tileSize, xChunkPixel );
+            final int top = Math.max( yStart * tileSize, yChunkPixel );
+            final int right = Math.min( xEnd * tileSize, xChunkPixel + chunkPixels );
+            final int bottom = Math.min( yEnd * tileSize, yChunkPixel + chunkPixels );
+            this.source.set( left - xChunkPixel, top - yChunkPixel, 
+                             right - xChunkPixel, bottom - yChunkPixel );
+            this.destination.set( left + xOffset, top + yOffset, 
+                                  right + xOffset, bottom + yOffset );
+            renderer.drawBitmap( bitmap, 
+                                 this.source, 
+                                 this.destination, 
+                                 this.opaque ? this.opaquePaint : paint );
+         }
+      }
+      return complete;
+   }
+   
+   /**
+    * Draws the animated tiles in a range of tiles.
+    * 
+    * @param renderer draws the tiles.
+    * @param paint the paint with which to draw.
+    * @param xStart the left-most tile to draw.
+    * @param yStart the top-most tile to draw.
+    * @param xEnd one past the right-most tile to draw.
+    * @param yEnd one past the bottom-most tile to draw.
+    * @param xOffset added to the pixel position of a tile in the layer to place it.
+    * @param yOffset added to the pixel position of a tile in the layer to place it.
+    */
+   synchronized void drawAnimated( final RenderBackend renderer,
+                                   final Paint paint,
+                                   final int xStart,
+                                   final int yStart,
+                                   final int xEnd,
+                                   final int yEnd,
+                                   final int xOffset,
+                                   final int yOffset )
+   {
+      if( this.released || xStart >= xEnd || yStart >= yEnd )
+      {
+         return;
+      }
+      final int tileSize = ScreenSettings.tileSize;
+      final int width = this.grid.getWidth();
+      final int xChunkEnd = ( ( xEnd - 1 ) >> CHUNK_SHIFT ) + 1;
+      final int yChunkEnd = ( ( yEnd - 1 ) >> CHUNK_SHIFT ) + 1;
+      
+      for( int yChunk = yStart >> CHUNK_SHIFT; yChunk < yChunkEnd; yChunk++ )
+      {
+         for( int xChunk = xStart >> CHUNK_SHIFT; xChunk < xChunkEnd; xChunk++ )
+         {
+            final int chunk = ( yChunk * this.chunksWide ) + xChunk;
+            if( this.animatedCells[ chunk ] == null )
+            {
+               // The animated cells are found when the chunk is rendered
+               getChunk( chunk );
+               if( this.animatedCells[ chunk ] == null )
+               {
+                  // Not loaded yet
+                  continue;
+               }
+            }
+            for( final int cell : this.animatedCells[ chunk ] )
+            {
+               final int xTile = cell % width;
+               final int yTile = cell / width;
+               if( xTile >= xStart && xTile < xEnd && yTile >= yStart && yTile < yEnd )
+               {
+                  // A streamed chunk may have been dropped since its cells were found
+                  final int tile = this.grid.get( cell );
+                  if( tile == -1 )
+                  {
+                     continue;
+                  }
+                  this.tileset.drawTile( renderer,
+                                         tile,
+                                         ( xTile * tileSize ) + xOffset,
+                                         ( yTile * tileSize ) + yOffset,
+                                         paint );
+               }
+            }
+         }
+      }
+   }
+   
+   /**
+    * Gives the chunk bitmaps back to the {@link BitmapPool}. Nothing is drawn afterwards.
+    */
+   synchronized void release()
+   {
+      this.released = true;
+      for( final Bitmap bitmap : this.chunks.values() )
+      {
+         BitmapPool.release( bitmap );
+      }
+      this.chunks.clear();
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   /**
+    * @return the bitmap of the chunk, rendering it if necessary, or <code>null</code> if it has
+    *         no static tiles or its tiles are not loaded yet.
+    */
+   private Bitmap getChunk( final int chunk )
+   {
+      if( this.empty[ chunk ] )
+      {
+         return null;
+      }
+      final Integer key = Integer.valueOf( chunk );
+      Bitmap bitmap = this.chunks.get( key );
+      if( bitmap == null )
+      {
+         final int xFirst = ( chunk % this.chunksWide ) << CHUNK_SHIFT;
+         final int yFirst = ( chunk / this.chunksWide ) << CHUNK_SHIFT;
+         if( !this.grid.isLoaded( xFirst,
+                                  yFirst,
+                                  Math.min( xFirst + CHUNK_TILES, this.grid.getWidth() ),
+                                  Math.min( yFirst + CHUNK_TILES, this.grid.getHeight() ) ) )
+         {
+            // Rendering it now would bake the missing tiles into it as empty ones
+            return null;
+         }
+         bitmap = render( chunk );
+         if( bitmap == null )
+         {
+            this.empty[ chunk ] = true;
+            return null;
+         }
+         this.chunks.put( key, bitmap );
+         trim();
+      }
+      return bitmap;
+   }
+   
+   private Bitmap render( final int chunk )
+   {
+      final int tileSize = ScreenSettings.tileSize;
+      final int width = this.grid.getWidth();
+      final int xFirst = ( chunk % this.chunksWide ) << CHUNK_SHIFT;
+      final int yFirst = ( chunk / this.chunksWide ) << CHUNK_SHIFT;
+      final int xLast = Math.min( xFirst + CHUNK_TILES, width );
+      final int yLast = Math.min( yFirst + CHUNK_TILES, this.grid.getHeight() );
+      
+      Bitmap bitmap = null;
+      int[] animated = NO_CELLS;
+      int animatedCount = 0;
+      for( int y = yFirst; y < yLast; y++ )
+      {
+         for( int x = xFirst; x < xLast; x++ )
+         {
+            final int cell = ( y * width ) + x;
+            final int tile = this.grid.get( cell );
+            if( tile == -1 )
+            {
+               continue;
+            }
+            if( this.tileset.isAnimated( tile ) )
+            {
+               if( animatedCount == animated.length )
+               {
+                  final int[] grown = new int[ Math.max( 4, animatedCount * 2 ) ];
+                  System.arraycopy( animated, 0, grown, 0, animatedCount );
+                  animated = grown;
+               }
+               animated[ animatedCount++ ] = cell;
+               continue;
+            }
+            
+            if( bitmap == null )
+            {
+               final int chunkPixels = CHUNK_TILES * tileSize;
+               bitmap = BitmapPool.obtain( chunkPixels, 
+                                           chunkPixels, 
+                                           this.opaque ? Bitmap.Config.RGB_565 : 
+                                                         Bitmap.Config.ARGB_8888 );
+               this.chunkCanvas.setBitmap( bitmap );
+            }
+            this.tileset.drawTile( this.chunkRenderer,
+                                   tile,
+                                   ( x - xFirst ) * tileSize,
+                                   ( y - yFirst ) * tileSize,
+                                   this.chunkPaint );
+         }
+      }
+      
+      if( this.animatedCells[ chunk ] == null )
+      {
+         final int[] cells = new int[ animatedCount ];
+         System.arraycopy( animated, 0, cells, 0, animatedCount );
+         this.animatedCells[ chunk ] = cells;
+      }
+      return bitmap;
+   }
+   
+   /**
+    * Evicts the least recently drawn chunks until the cache is within capacity.
+    */
+   private void trim()
+   {
+      final Iterator< Map.Entry< Integer, Bitmap > > entries = this.chunks.entrySet().iterator();
+      while( this.chunks.size() > this.capacity && entries.hasNext() )
+      {
+         final Bitmap bitmap = entries.next().getValue();
+         entries.remove();
+         BitmapPool.release( bitmap );
+      }
+   }
+}
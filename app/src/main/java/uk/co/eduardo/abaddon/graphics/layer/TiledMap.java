@@ -1,10 +1,13 @@
 package uk.co.eduardo.abaddon.graphics.layer;
 
-import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
 
 import uk.co.eduardo.abaddon.Controller;
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
+import uk.co.eduardo.abaddon.map.SparseTileGrid;
+import uk.co.eduardo.abaddon.map.TileGrid;
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
 import uk.co.eduardo.abaddon.tileset.TileDescription;
 import uk.co.eduardo.abaddon.tileset.Tileset;
 import uk.co.eduardo.abaddon.util.Debug;
@@ -22,11 +25,16 @@ public class TiledMap implements Layer
 {
    //================|  Fields             |====================================
    
+   /** Walk flags of a tile that cannot be entered from any direction. */
+   private static final int BLOCKED = TileDescription.LEFT | TileDescription.RIGHT |
+                                      TileDescription.TOP | TileDescription.BOTTOM |
+                                      TileDescription.TL_BR_DIAG | TileDescription.TR_BL_DIAG;
+   
    /** The {@link Tileset} to use for this map */
    private final Tileset tileset;
    
-   /** The full map tile array. */
-   public final int[][] fullMap;
+   /** The full map tile grid. */
+   public final TileGrid grid;
    
    /** The width of the map in tiles */
    private final int width;
@@ -34,26 +42,89 @@ public class TiledMap implements Layer
    /** The height of the map in tiles */
    private final int height;
    
+   /** Walk flags of each cell, precomputed when the map was compiled. May be null. */
+   private final TileGrid collision;
+   
+   /** The smallest rectangle of cells holding every tile. See {@link DerivedSection#getBounds(int)} */
+   private final int[] bounds;
+   
+   /** False if the map was compiled and this layer has no animated tiles. */
+   private final boolean animated;
+   
    /** True if this layer should be rendered */
    private boolean visible;
    
    /** Line path used for wireframe rendering. */
    private final Path path = new Path();
    
+   /**
+    * True for the bottom layer. Nothing is drawn under it, so its static tiles are kept in
+    * <code>RGB_565</code> and copied to the screen rather than blended.
+    */
+   private final boolean opaque;
+   
+   /** The width in tiles of the window kept in the {@link ScrollBuffer}. */
+   private final int windowWidth;
+   
+   /** The height in tiles of the window kept in the {@link ScrollBuffer}. */
+   private final int windowHeight;
+   
+   /** The static tiles pre-rendered in chunks. */
+   private final TileChunkCache chunks;
+   
+   /** The static tiles on screen. Created the first time the map is drawn. */
+   private ScrollBuffer scrollBuffer;
+   
    
    //================|  Constructors         |==================================
    
    /**
-    * @param map the map tile array
+    * @param grid the map tile grid
     * @param tileset the tileset to use in this map
     */
-   public TiledMap( final int[][] map, final Tileset tileset)
+   public TiledMap( final TileGrid grid, final Tileset tileset)
+   {
+      this( grid, tileset, null, 0 );
+   }
+   
+   /**
+    * @param grid the map tile grid
+    * @param tileset the tileset to use in this map
+    * @param derived the tables precomputed when the map was compiled. May be null in which case
+    *                they are worked out from the tileset as they are needed.
+    * @param layer the index of this layer in the map.
+    */
+   public TiledMap( final TileGrid grid, 
+                    final Tileset tileset, 
+                    final DerivedSection derived, 
+                    final int layer )
    {
       this.tileset = tileset;
-      this.fullMap = map;
-      this.width = map[0].length;
-      this.height = map.length;
+      this.grid = grid;
+      this.width = grid.getWidth();
+      this.height = grid.getHeight();
       this.visible = true;
+      
+      if( derived != null )
+      {
+         this.collision = derived.getCollision( layer );
+         this.bounds = derived.getBounds( layer );
+         this.animated = derived.getAnimatedCells( layer ).length > 0;
+      }
+      else
+      {
+         this.collision = null;
+         this.bounds = new int[] { 0, 0, this.width, this.height };
+         this.animated = true;
+      }
+      
+      // The tiles on screen and up to a tile beyond, as drawn below
+      final int tileSize = ScreenSettings.tileSize;
+      this.opaque = layer == 0;
+      this.windowWidth = ( 2 * ( ( ScreenSettings.xCentre / tileSize ) + 1 ) ) + 1;
+      this.windowHeight = 2 * ( ( ScreenSettings.yCentre / tileSize ) + 1 );
+      this.chunks = new TileChunkCache( grid, tileset, this.opaque, 
+                                        this.windowWidth, this.windowHeight );
    }
    
    
@@ -66,7 +137,7 @@ public class TiledMap implements Layer
    public void draw( final int xPos,
                      final int yPos,
                      final boolean below,
-                     final Canvas canvas,
+                     final RenderBackend renderer,
                      final Paint paint )
    {
       if( !this.visible )
@@ -85,141 +156,92 @@ public class TiledMap implements Layer
       final int visibleHorz = ( xCentre / tileSize ) + 1;
       final int visibleVert = ( yCentre / tileSize ) + 1;
       
-      final int xStart = xTilePos - visibleHorz;
-      final int xEnd   = xTilePos + visibleHorz + 1;
-      final int yStart = yTilePos - visibleVert + 1;
-      final int yEnd   = yTilePos + visibleVert + 1; // + 1
+      // Clamp the visible range to the populated part of the map so the inner loop needs no 
+      // bounds checks.
+      final int[] cachedBounds = this.bounds;
+      final int xStart = Math.max( xTilePos - visibleHorz,     cachedBounds[ DerivedSection.LEFT ] );
+      final int xEnd   = Math.min( xTilePos + visibleHorz + 1, cachedBounds[ DerivedSection.RIGHT ] );
+      final int yStart = Math.max( yTilePos - visibleVert + 1, cachedBounds[ DerivedSection.TOP ] );
+      final int yEnd   = Math.min( yTilePos + visibleVert + 1, // + 1
+                                   cachedBounds[ DerivedSection.BOTTOM ] );
       
       // Locally cache fields for performance.
-      final int[][] cachedMap = this.fullMap;
+      final TileGrid cachedGrid = this.grid;
+      final int cachedWidth = this.width;
       final Tileset cachedTileset = this.tileset;
       final boolean wireframe = Debug.wireframe;
       final boolean showHeroTile = Debug.showHeroTile;
 
       // Before we render this map, animate the tiles
-      cachedTileset.animate();
+      if( this.animated )
+      {
+         cachedTileset.animate();
+      }
       
-      for( int yTile = yStart, yPixel = yStart * tileSize; 
-           yTile < yEnd; 
-           yTile++, yPixel += tileSize )
+      if( !wireframe )
+      {
+         if( this.scrollBuffer == null )
+         {
+            this.scrollBuffer = new ScrollBuffer( this.chunks, cachedBounds, this.opaque,
+                                                  this.windowWidth, this.windowHeight );
+         }
+         
+         // Only the tiles that scrolled into view are drawn into the buffer. The animated tiles 
+         // are drawn over it.
+         this.scrollBuffer.draw( renderer, paint, 
+                                 xTilePos - visibleHorz, yTilePos - visibleVert + 1, 
+                                 xCentre - xPos, yCentre - yPos );
+         this.chunks.drawAnimated( renderer, paint, xStart, yStart, xEnd, yEnd, 
+                                   xCentre - xPos, yCentre - yPos );
+      }
+      else if( cachedGrid instanceof SparseTileGrid )
       {
-         for( int xTile = xStart, xPixel = xStart * tileSize; 
-                  xTile < xEnd; 
-                  xTile++, xPixel += tileSize )
+         // Only visit the populated cells of each visible row
+         final SparseTileGrid sparse = (SparseTileGrid) cachedGrid;
+         final int entryCount = sparse.getEntryCount();
+         for( int yTile = yStart, yPixel = yStart * tileSize, rowIndex = yStart * cachedWidth; 
+              yTile < yEnd; 
+              yTile++, yPixel += tileSize, rowIndex += cachedWidth )
          {
-            if( yTile >= 0 && yTile < this.height &&
-                xTile >= 0 && xTile < this.width )
+            final int rowEnd = rowIndex + xEnd;
+            for( int entry = sparse.findEntry( rowIndex + xStart ); entry < entryCount; entry++ )
             {
-               // Draw the bitmap on the canvas.
-               final int xDraw = xPixel - xPos + xCentre;
-               final int yDraw = yPixel - yPos + yCentre;
+               final int cell = sparse.getEntryCell( entry );
+               if( cell >= rowEnd )
+               {
+                  break;
+               }
+               final int xTile = cell - rowIndex;
+               
+               drawTile( renderer, paint, cachedTileset, sparse.getEntryTile( entry ), 
+                         xTile, yTile, 
+                         ( xTile * tileSize ) - xPos + xCentre, yPixel - yPos + yCentre, 
+                         below, wireframe );
+            }
+         }
+      }
+      else
+      {
+         for( int yTile = yStart, yPixel = yStart * tileSize, rowIndex = yStart * cachedWidth; 
+              yTile < yEnd; 
+              yTile++, yPixel += tileSize, rowIndex += cachedWidth )
+         {
+            for( int xTile = xStart, xPixel = xStart * tileSize; 
+                     xTile < xEnd; 
+                     xTile++, xPixel += tileSize )
+            {
+               final int tileId = cachedGrid.get( rowIndex + xTile );
                
-               final int tileId = cachedMap[yTile][xTile];
-                     
                if( tileId == -1 )
                {
                   continue;
                }
                
-               if( !wireframe )
-               {  
-                  canvas.drawBitmap( cachedTileset.getTile( tileId ),
-                                     xDraw, yDraw, paint );
-               }
-               else
-               {
-                  boolean top = false;
-                  boolean bottom = false;
-                  boolean left = false;
-                  boolean right = false;
-                  // Render wireframe.
-                  final int walkDirs = cachedTileset.getWalkDirections( tileId );
-                  if( ( walkDirs & TileDescription.TOP ) != 0 )
-                  {
-                     // Draw top horizontal line
-                     canvas.drawLine( xDraw, yDraw, 
-                                      xDraw + tileSize, yDraw, paint );
-                     top = true;
-                  }
-                  if( ( walkDirs & TileDescription.BOTTOM ) != 0 )
-                  {
-                     // Draw bottom horizontal line
-                     canvas.drawLine( xDraw, yDraw + tileSize, 
-                                      xDraw + tileSize, yDraw + tileSize, 
-                                      paint );
-                     bottom = true;
-                  }
-                  if( ( walkDirs & TileDescription.LEFT ) != 0 )
-                  {
-                     // Draw top horizontal line
-                     canvas.drawLine( xDraw, yDraw, 
-                                      xDraw, yDraw + tileSize , paint );
-                     left = true;
-                  }
-                  if( ( walkDirs & TileDescription.RIGHT ) != 0 )
-                  {
-                     // Draw top horizontal line
-                     canvas.drawLine( xDraw + tileSize, yDraw, 
-                                      xDraw + tileSize, yDraw + tileSize, 
-                                      paint );
-                     right = true;
-                  }
-                  if( ( walkDirs & TileDescription.TL_BR_DIAG ) != 0 )
-                  {
-                     // Draw top horizontal line
-                     canvas.drawLine( xDraw, yDraw, 
-                                      xDraw + tileSize, yDraw + tileSize, 
-                                      paint );
-                     if( top && right && below )
-                     {
-                        this.path.reset();
-                        this.path.moveTo( xDraw, yDraw );
-                        this.path.lineTo( xDraw + tileSize, yDraw );
-                        this.path.lineTo( xDraw + tileSize, yDraw + tileSize );
-                        canvas.drawPath( this.path, paint );
-                     }
-                     else if( bottom && left && below )
-                     {
-                        this.path.reset();
-                        this.path.moveTo( xDraw, yDraw );
-                        this.path.lineTo( xDraw, yDraw + tileSize );
-                        this.path.lineTo( xDraw + tileSize, yDraw + tileSize );
-                        canvas.drawPath( this.path, paint );
-                     }
-                  }
-                  if( ( walkDirs & TileDescription.TR_BL_DIAG ) != 0 )
-                  {
-                     // Draw top horizontal line
-                     canvas.drawLine( xDraw + tileSize, yDraw, 
-                                      xDraw, yDraw + tileSize, 
-                                      paint );
-                     if( left && top && below )
-                     {
-                        this.path.reset();
-                        this.path.moveTo( xDraw, yDraw + tileSize );
-                        this.path.lineTo( xDraw, yDraw );
-                        this.path.lineTo( xDraw + tileSize, yDraw);
-                        canvas.drawPath( this.path, paint );
-                     }
-                     else if( bottom && right && below )
-                     {
-                        this.path.reset();
-                        this.path.moveTo( xDraw, yDraw + tileSize );
-                        this.path.lineTo( xDraw + tileSize, yDraw + tileSize );
-                        this.path.lineTo( xDraw + tileSize, yDraw);
-                        canvas.drawPath( this.path, paint );
-                     }
-                  }
-                  
-                  if( ( top && bottom && left && right && below ) || 
-                        LayerManager.isTileOccupied( xTile, yTile, null, true, false ) )
-                  {
-                     // fill the entire box.
-                     canvas.drawRect( xDraw, yDraw,
-                                      xDraw + tileSize, yDraw + tileSize,
-                                      paint );
-                  }
-               }
+               // Draw the bitmap.
+               drawTile( renderer, paint, cachedTileset, tileId, 
+                         xTile, yTile, 
+                         xPixel - xPos + xCentre, yPixel - yPos + yCentre, 
+                         below, wireframe );
             }
          }
       }
@@ -227,14 +249,26 @@ public class TiledMap implements Layer
       if( showHeroTile )
       {
          // Draw the hero point
-         canvas.drawPoint( xCentre, yCentre, paint );
-         canvas.drawPoint( xCentre - Controller.EXTENT, yCentre, paint );
-         canvas.drawPoint( xCentre, yCentre - Controller.EXTENT, paint );
-         canvas.drawPoint( xCentre + Controller.EXTENT, yCentre, paint );
-         canvas.drawPoint( xCentre, yCentre + Controller.EXTENT, paint );
+         renderer.drawPoint( xCentre, yCentre, paint );
+         renderer.drawPoint( xCentre - Controller.EXTENT, yCentre, paint );
+         renderer.drawPoint( xCentre, yCentre - Controller.EXTENT, paint );
+         renderer.drawPoint( xCentre + Controller.EXTENT, yCentre, paint );
+         renderer.drawPoint( xCentre, yCentre + Controller.EXTENT, paint );
       }
    }                    
    
+   /**
+    * Gives back the memory used by the pre-rendered tiles. Called when the map is removed.
+    */
+   public void release()
+   {
+      if( this.scrollBuffer != null )
+      {
+         this.scrollBuffer.release();
+      }
+      this.chunks.release();
+   }
+   
    /**
     * {@inheritDoc}
     */
@@ -275,21 +309,40 @@ public class TiledMap implements Layer
       final int xTileTo = xTo / tileSize;
       final int yTileTo = yTo / tileSize;
       
-      final int tileFrom = this.fullMap[yTileFrom][xTileFrom];
-      final int tileTo = this.fullMap[yTileTo][xTileTo];
-      
-      final Tileset cachedTileset = this.tileset;
-
-      final boolean to = cachedTileset.canWalk( tileTo );
-      
-      if( !to )
+      final int fromWalkDirs;
+      final int toWalkDirs;
+      final TileGrid cachedCollision = this.collision;
+      if( cachedCollision != null )
       {
-         // We can't walk into the new tile from any direction
-         return 0;
+         // The walk flags were looked up when the map was compiled
+         fromWalkDirs = cachedCollision.get( xTileFrom, yTileFrom );
+         toWalkDirs = cachedCollision.get( xTileTo, yTileTo );
+         
+         if( ( toWalkDirs & BLOCKED ) == BLOCKED )
+         {
+            // We can't walk into the new tile from any direction
+            return 0;
+         }
+      }
+      else
+      {
+         final TileGrid cachedGrid = this.grid;
+         final int tileFrom = cachedGrid.get( xTileFrom, yTileFrom );
+         final int tileTo = cachedGrid.get( xTileTo, yTileTo );
+         
+         final Tileset cachedTileset = this.tileset;
+         
+         final boolean to = cachedTileset.canWalk( tileTo );
+         
+         if( !to )
+         {
+            // We can't walk into the new tile from any direction
+            return 0;
+         }
+         
+         fromWalkDirs = cachedTileset.getWalkDirections( tileFrom );
+         toWalkDirs = cachedTileset.getWalkDirections( tileTo );
       }
-      
-      final int fromWalkDirs = cachedTileset.getWalkDirections( tileFrom );
-      final int toWalkDirs = cachedTileset.getWalkDirections( tileTo );
       
       int move = 1;
       
@@ -410,10 +463,10 @@ public class TiledMap implements Layer
       final int xTileTo = xTo / tileSize;
       final int yTileTo = yTo / tileSize;
 
-      final int[][] cachedMap = this.fullMap;
+      final TileGrid cachedGrid = this.grid;
       final Tileset cachedTileset = this.tileset;
       
-      final int tileFrom = cachedMap[yTileFrom][xTileFrom];
+      final int tileFrom = cachedGrid.get( xTileFrom, yTileFrom );
       final int fromWalkDirs = cachedTileset.getWalkDirections(tileFrom);
 
       boolean jump = false;
@@ -428,10 +481,10 @@ public class TiledMap implements Layer
       if( yTileTo < yTileFrom )
       {
          // Moved up , check that the top of the old tile is not blocked
-         if( ( fromWalkDirs & TileDescription.TOP ) != 0 )
+         if( ( fromWalkDirs & TileDescription.TOP ) != 0 && cachedGrid.contains( xTileTo, yTileTo - 1 ) )
          {
             // Check the tile one space above the "to" tile is not blocked from below
-            final int tileJumpTo = cachedMap[yTileTo - 1][xTileTo];
+            final int tileJumpTo = cachedGrid.get( xTileTo, yTileTo - 1 );
             
             if( cachedTileset.canWalk( tileJumpTo ) )
             {
@@ -455,10 +508,10 @@ public class TiledMap implements Layer
       if( yTileTo > yTileFrom )
       {
          // Moved down. Check that the bottom of the old tile is not blocked
-         if( ( fromWalkDirs & TileDescription.BOTTOM ) != 0 )
+         if( ( fromWalkDirs & TileDescription.BOTTOM ) != 0 && cachedGrid.contains( xTileTo, yTileTo + 1 ) )
          {
             // Check the tile one space below the "to" tile is not enterable from above
-            final int tileJumpTo = cachedMap[yTileTo + 1][xTileTo];
+            final int tileJumpTo = cachedGrid.get( xTileTo, yTileTo + 1 );
             
             if( cachedTileset.canWalk( tileJumpTo ) )
             {
@@ -482,10 +535,10 @@ public class TiledMap implements Layer
       if( xTileTo < xTileFrom )
       {
          // Moved left. Check that the left of the old tile is not blocked
-         if( ( fromWalkDirs & TileDescription.LEFT ) != 0 )
+         if( ( fromWalkDirs & TileDescription.LEFT ) != 0 && cachedGrid.contains( xTileTo - 1, yTileTo ) )
          {
             // Check the tile one space to the left of the "to" tile is not blocked from the right
-            final int tileJumpTo = cachedMap[yTileTo][xTileTo - 1];
+            final int tileJumpTo = cachedGrid.get( xTileTo - 1, yTileTo );
             
             if( cachedTileset.canWalk( tileJumpTo ) )
             {
@@ -509,10 +562,10 @@ public class TiledMap implements Layer
       if( xTileTo > xTileFrom )
       {
          // Moved Right. Check that the right of the old tile is not blocked
-         if( ( fromWalkDirs & TileDescription.RIGHT ) != 0 )
+         if( ( fromWalkDirs & TileDescription.RIGHT ) != 0 && cachedGrid.contains( xTileTo + 1, yTileTo ) )
          {
             // Check the tile one space to the right of the "to" tile is not blocked from the left
-            final int tileJumpTo = cachedMap[yTileTo][xTileTo + 1];
+            final int tileJumpTo = cachedGrid.get( xTileTo + 1, yTileTo );
             
             if( cachedTileset.canWalk( tileJumpTo ) )
             {
@@ -539,6 +592,121 @@ public class TiledMap implements Layer
    
    //================|  Private Methods      |==================================
    
+   private void drawTile( final RenderBackend renderer,
+                          final Paint paint,
+                          final Tileset cachedTileset,
+                          final int tileId,
+                          final int xTile,
+                          final int yTile,
+                          final int xDraw,
+                          final int yDraw,
+                          final boolean below,
+                          final boolean wireframe )
+   {
+      final int tileSize = ScreenSettings.tileSize;
+      
+      if( !wireframe )
+      {  
+         cachedTileset.drawTile( renderer, tileId, xDraw, yDraw, paint );
+      }
+      else
+      {
+         boolean top = false;
+         boolean bottom = false;
+         boolean left = false;
+         boolean right = false;
+         // Render wireframe, with the walk flags looked up when the map was compiled if it was
+         final int walkDirs = this.collision != null ? this.collision.get( xTile, yTile ) :
+                                                       cachedTileset.getWalkDirections( tileId );
+         if( ( walkDirs & TileDescription.TOP ) != 0 )
+         {
+            // Draw top horizontal line
+            renderer.drawLine( xDraw, yDraw, 
+                               xDraw + tileSize, yDraw, paint );
+            top = true;
+         }
+         if( ( walkDirs & TileDescription.BOTTOM ) != 0 )
+         {
+            // Draw bottom horizontal line
+            renderer.drawLine( xDraw, yDraw + tileSize, 
+                               xDraw + tileSize, yDraw + tileSize, 
+                               paint );
+            bottom = true;
+         }
+         if( ( walkDirs & TileDescription.LEFT ) != 0 )
+         {
+            // Draw top horizontal line
+            renderer.drawLine( xDraw, yDraw, 
+                               xDraw, yDraw + tileSize , paint );
+            left = true;
+         }
+         if( ( walkDirs & TileDescription.RIGHT ) != 0 )
+         {
+            // Draw top horizontal line
+            renderer.drawLine( xDraw + tileSize, yDraw, 
+                               xDraw + tileSize, yDraw + tileSize, 
+                               paint );
+            right = true;
+         }
+         if( ( walkDirs & TileDescription.TL_BR_DIAG ) != 0 )
+         {
+            // Draw top horizontal line
+            renderer.drawLine( xDraw, yDraw, 
+                               xDraw + tileSize, yDraw + tileSize, 
+                               paint );
+            if( top && right && below )
+            {
+               this.path.reset();
+               this.path.moveTo( xDraw, yDraw );
+               this.path.lineTo( xDraw + tileSize, yDraw );
+               this.path.lineTo( xDraw + tileSize, yDraw + tileSize );
+               renderer.drawPath( this.path, paint );
+            }
+            else if( bottom && left && below )
+            {
+               this.path.reset();
+               this.path.moveTo( xDraw, yDraw );
+               this.path.lineTo( xDraw, yDraw + tileSize );
+               this.path.lineTo( xDraw + tileSize, yDraw + tileSize );
+               renderer.drawPath( this.path, paint );
+            }
+         }
+         if( ( walkDirs & TileDescription.TR_BL_DIAG ) != 0 )
+         {
+            // Draw top horizontal line
+            renderer.drawLine( xDraw + tileSize, yDraw, 
+                               xDraw, yDraw + tileSize, 
+                               paint );
+            if( left && top && below )
+            {
+               this.path.reset();
+               this.path.moveTo( xDraw, yDraw + tileSize );
+               this.path.lineTo( xDraw, yDraw );
+               this.path.lineTo( xDraw + tileSize, yDraw);
+               renderer.drawPath( this.path, paint );
+            }
+            else if( bottom && right && below )
+            {
+               this.path.reset();
+               this.path.moveTo( xDraw, yDraw + tileSize );
+               this.path.lineTo( xDraw + tileSize, yDraw + tileSize );
+               this.path.lineTo( xDraw + tileSize, yDraw);
+               renderer.drawPath( this.path, paint );
+            }
+         }
+         
+         if( ( top && bottom && left && right && below ) || 
+               LayerManager.isTileOccupied( xTile, yTile, null, true, false ) )
+         {
+            // fill the entire box.
+            renderer.drawRect( xDraw, yDraw,
+                               xDraw + tileSize, yDraw + tileSize,
+                               paint );
+         }
+      }
+   }
+   
+   
    /**
     * Checks that the two coordinates, (xFrom, yFrom) and (xTo, yTo) are in the
     * same half-space relative to a diagonal.<pre>
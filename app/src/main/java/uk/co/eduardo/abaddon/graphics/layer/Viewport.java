@@ -0,0 +1,110 @@
+package uk.co.eduardo.abaddon.graphics.layer;
+
+import uk.co.eduardo.abaddon.util.ScreenSettings;
+
+/**
+ * Decides whether something is close enough to the screen to be worth drawing, and counts how
+ * many things were drawn and how many were skipped in each frame.
+ * <p>
+ * Positions are in screen pixels, as the layers work them out from the hero's position. Anything
+ * within a tile of the screen edge is still drawn.
+ * 
+ * @author Ed
+ */
+public final class Viewport
+{
+   //================|  Fields             |====================================
+   
+   /** The number of items drawn so far in this frame. */
+   private static int drawing = 0;
+   
+   /** The number of items skipped so far in this frame. */
+   private static int culling = 0;
+   
+   /** The number of items drawn in the last frame. */
+   private static int drawn = 0;
+   
+   /** The number of items skipped in the last frame. */
+   private static int culled = 0;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * Private constructor to prevent instantiation
+    */
+   private Viewport()
+   {
+      // Private constructor
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Starts counting a new frame. Called once per frame before anything is drawn.
+    */
+   public static void startFrame()
+   {
+      drawn = drawing;
+      culled = culling;
+      drawing = 0;
+      culling = 0;
+   }
+   
+   /**
+    * Checks whether a rectangle is on or near the screen and counts it as drawn or culled.
+    * 
+    * @param left the left of the rectangle in screen pixels.
+    * @param top the top of the rectangle in screen pixels.
+    * @param width the width of the rectangle in pixels.
+    * @param height the height of the rectangle in pixels.
+    * @return <code>true</code> if the rectangle should be drawn.
+    */
+   public static boolean isVisible( final int left,
+                                    final int top,
+                                    final int width,
+                                    final int height )
+   {
+      final int margin = ScreenSettings.tileSize;
+      if( left + width < -margin ||
+          top + height < -margin ||
+          left > ScreenSettings.width + margin ||
+          top > ScreenSettings.height + margin )
+      {
+         culling++;
+         return false;
+      }
+      drawing++;
+      return true;
+   }
+   
+   /**
+    * Counts items that were checked by the caller rather than by
+    * {@link #isVisible(int, int, int, int)}.
+    * 
+    * @param drawnCount the number of items drawn.
+    * @param culledCount the number of items skipped.
+    */
+   public static void count( final int drawnCount, final int culledCount )
+   {
+      drawing += drawnCount;
+      culling += culledCount;
+   }
+   
+   /**
+    * @return the number of items drawn in the last frame.
+    */
+   public static int getDrawn()
+   {
+      return drawn;
+   }
+   
+   /**
+    * @return the number of items culled in the last frame.
+    */
+   public static int getCulled()
+   {
+      return culled;
+   }
+}
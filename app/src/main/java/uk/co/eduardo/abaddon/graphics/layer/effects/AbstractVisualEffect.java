@@ -1,8 +1,9 @@
 package uk.co.eduardo.abaddon.graphics.layer.effects;
 
-import android.graphics.Canvas;
 import android.graphics.Paint;
 
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
+
 /**
  * Abstract base class for a visual effect.
  * 
@@ -31,7 +32,7 @@ public abstract class AbstractVisualEffect implements VisualEffect
    public final void draw( final int xPos, 
                            final int yPos, 
                            final boolean below, 
-                           final Canvas canvas, 
+                           final RenderBackend renderer, 
                            final Paint paint )
    {
       if( !this.visible )
@@ -43,7 +44,7 @@ public abstract class AbstractVisualEffect implements VisualEffect
          return;
       }
       this.frameCount++;
-      drawImpl( xPos, yPos, below, canvas, paint );
+      drawImpl( xPos, yPos, below, renderer, paint );
    }
    
    /**
@@ -94,7 +95,7 @@ public abstract class AbstractVisualEffect implements VisualEffect
    }
    
    /**
-    * Called from the {{@link #draw(int, int, boolean, Canvas, Paint)} method.
+    * Called from the {{@link #draw(int, int, boolean, RenderBackend, Paint)} method.
     * <p>
     * Subclasses must implement this method instead as the <code>draw</code>
     * method is already implemented to keep track of the frame count.
@@ -102,12 +103,12 @@ public abstract class AbstractVisualEffect implements VisualEffect
     * @param xPos position of the main character
     * @param yPos position of the main character
     * @param below <code>true</code> if this layer is currently below the hero
-    * @param canvas the <code>Canvas</code> on which to paint
+    * @param renderer draws the layer
     * @param paint the <code>Paint</code> object to use for drawing
     */
    protected abstract void drawImpl( final int xPos,
                                      final int yPos,
                                      final boolean below,
-                                     final Canvas canvas,
+                                     final RenderBackend renderer,
                                      final Paint paint );
 }
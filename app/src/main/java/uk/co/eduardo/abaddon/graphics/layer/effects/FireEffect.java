@@ -4,12 +4,13 @@ import java.util.Random;
 
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
 
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
+
 /**
  * A flame effect.
  * 
@@ -88,7 +89,7 @@ public class FireEffect extends AbstractVisualEffect
    protected void drawImpl( final int xPos, 
                             final int yPos, 
                             final boolean below, 
-                            final Canvas canvas, 
+                            final RenderBackend renderer, 
                             final Paint paint )
    {
       // All rows between height and roundHeight are drawn with a rounded bottom
@@ -121,7 +122,7 @@ public class FireEffect extends AbstractVisualEffect
                 this.xStart + this.width - offset, 
                 this.yStart + this.height );
       // Draw the rounded bottom
-      canvas.drawArc( this.oval, 0f, 180f, true, this.yellowPaint );
+      renderer.drawArc( this.oval, 0f, 180f, true, this.yellowPaint );
       // Run a loop through the flames from the bottom up
       for( int x = 0; x < this.width; x++ )
       {
@@ -181,7 +182,7 @@ public class FireEffect extends AbstractVisualEffect
          }
       }
       // Draw the current frame.
-      canvas.drawBitmap( this.bitmap, this.xStart, this.yStart, null );
+      renderer.drawBitmap( this.bitmap, this.xStart, this.yStart, null );
       if( getFrameCount() >= this.frames )
       {
          setEffectFinished( true );
@@ -0,0 +1,423 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import uk.co.eduardo.abaddon.map.sections.ActionSection;
+import uk.co.eduardo.abaddon.map.sections.ActionSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.ChunkedMapSection;
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+import uk.co.eduardo.abaddon.map.sections.HeaderSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.MapSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.NpcSection;
+import uk.co.eduardo.abaddon.map.sections.NpcSectionProducer;
+
+/**
+ * Keeps decoded maps on internal storage so that later loads skip inflating and expanding them.
+ * <p>
+ * Each map is stored in its own file, read back through a memory-mapped <code>FileChannel</code>.
+ * The tiles and derived tables are stored flat so they are copied out in bulk. The small
+ * sections are stored as their producers write them. A file is only used if it was written by
+ * this version of the cache from a resource with the same checksum, so a new build of the
+ * application never sees stale maps.
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * magic: 4
+ * cacheVersion: 1
+ * checksum: 8            // CRC32 of the map resource
+ * width: 2
+ * height: 2
+ * layerCount: 1
+ * foreach layerCount
+ *   tiles: width*height*2  // -1 for empty cells
+ * end
+ * derivedLayers: 1       // 0 unless the map was compiled
+ * foreach derivedLayers
+ *   collision: width*height
+ *   regions: width*height*4
+ *   nAnimated: 4
+ *   animatedCells: nAnimated*4
+ *   bounds: 4*2
+ * end
+ * foreach section        // header, NPCs, actions, monsters
+ *   length: 4
+ *   data: length
+ * end
+ * _____________________________________________________________________________
+ * </pre>
+ * Streamed maps are never cached; they are streamed so that they are never held whole.
+ * 
+ * @author Ed
+ */
+public final class DecodedMapCache
+{
+   //================|  Fields             |====================================
+   
+   /** Identifies a cache file. */
+   private static final int MAGIC = 0x41424D43;
+   
+   /** Changed whenever the layout of the cache files changes. */
+   private static final int CACHE_VERSION = 1;
+   
+   /** The file extension of cache files. */
+   private static final String EXTENSION = ".cache"; //$NON-NLS-1$
+   
+   /** The file extension of cache files that are being written. */
+   private static final String TEMPORARY_EXTENSION = ".tmp"; //$NON-NLS-1$
+   
+   /** The size of the buffer used to checksum the resources. */
+   private static final int CHECKSUM_BUFFER_SIZE = 4096;
+   
+   /** Where the cache files are kept or <code>null</code> if there is no cache. */
+   private static volatile File directory = null;
+   
+   
+   //================|  Constructors       |====================================
+   
+   private DecodedMapCache()
+   {
+      // Hide constructor for utility class.
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @param cacheDirectory where to keep the cache files or <code>null</code> to stop caching.
+    *        It is created if it does not exist.
+    */
+   public static void setDirectory( final File cacheDirectory )
+   {
+      if( cacheDirectory != null && !cacheDirectory.isDirectory() && !cacheDirectory.mkdirs() )
+      {
+         directory = null;
+         return;
+      }
+      directory = cacheDirectory;
+   }
+   
+   /**
+    * @return <code>true</code> if maps are being cached.
+    */
+   public static boolean isEnabled()
+   {
+      return directory != null;
+   }
+   
+   /**
+    * @param stream the map resource. It is read to the end but not closed.
+    * @return the checksum against which the cache files of the map are validated.
+    * @throws IOException if a problem occurs reading from the stream.
+    */
+   public static long checksum( final InputStream stream ) throws IOException
+   {
+      final CRC32 crc = new CRC32();
+      final byte[] buffer = new byte[ CHECKSUM_BUFFER_SIZE ];
+      int count;
+      while( ( count = stream.read( buffer ) ) != -1 )
+      {
+         crc.update( buffer, 0, count );
+      }
+      return crc.getValue();
+   }
+   
+   /**
+    * Reads a map from the cache.
+    * 
+    * @param name the resource name of the map.
+    * @param checksum the checksum of the map resource.
+    * @return the cached map, or <code>null</code> if it is not cached or the cache is out of date.
+    *         Cache files that cannot be used are deleted.
+    */
+   public static MapDefinition read( final String name, final long checksum )
+   {
+      final File file = getFile( name );
+      if( file == null || !file.isFile() )
+      {
+         return null;
+      }
+      
+      try
+      {
+         final MapDefinition map = read( mapFile( file ), checksum );
+         if( map == null )
+         {
+            file.delete();
+         }
+         return map;
+      }
+      catch( final IOException exception )
+      {
+         file.delete();
+         return null;
+      }
+      catch( final BufferUnderflowException exception )
+      {
+         file.delete();
+         return null;
+      }
+   }
+   
+   /**
+    * Writes a map to the cache. Nothing is written for streamed maps or if there is no cache.
+    * 
+    * @param name the resource name of the map.
+    * @param checksum the checksum of the map resource.
+    * @param map the map read from the resource.
+    */
+   public static void write( final String name, final long checksum, final MapDefinition map )
+   {
+      final File file = getFile( name );
+      if( file == null || map.mapsSection instanceof ChunkedMapSection )
+      {
+         return;
+      }
+      
+      // Write to one side so that a reader never sees half a file. The load thread and the
+      // prefetcher may both be writing the same map.
+      File temporary = null;
+      try
+      {
+         temporary = File.createTempFile( name, TEMPORARY_EXTENSION, file.getParentFile() );
+         final DataOutputStream stream =
+            new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temporary ) ) );
+         try
+         {
+            write( stream, checksum, map );
+         }
+         finally
+         {
+            stream.close();
+         }
+         if( !temporary.renameTo( file ) )
+         {
+            temporary.delete();
+         }
+      }
+      catch( final IOException exception )
+      {
+         // The map is simply read from its resource next time
+         if( temporary != null )
+         {
+            temporary.delete();
+         }
+      }
+   }
+   
+   /**
+    * Deletes every cached map.
+    */
+   public static void clear()
+   {
+      final File cacheDirectory = directory;
+      final File[] files = cacheDirectory != null ? cacheDirectory.listFiles() : null;
+      if( files == null )
+      {
+         return;
+      }
+      for( final File file : files )
+      {
+         file.delete();
+      }
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   private static File getFile( final String name )
+   {
+      final File cacheDirectory = directory;
+      return cacheDirectory != null ? new File( cacheDirectory, name + EXTENSION ) : null;
+   }
+   
+   private static ByteBuffer mapFile( final File file ) throws IOException
+   {
+      // The mapping stays valid once the file is closed
+      final RandomAccessFile input = new RandomAccessFile( file, "r" ); //$NON-NLS-1$
+      try
+      {
+         return input.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, input.length() );
+      }
+      finally
+      {
+         input.close();
+      }
+   }
+   
+   private static MapDefinition read( final ByteBuffer buffer, final long checksum ) throws IOException
+   {
+      if( buffer.getInt() != MAGIC || buffer.get() != CACHE_VERSION || buffer.getLong() != checksum )
+      {
+         return null;
+      }
+      
+      final int width = buffer.getShort();
+      final int height = buffer.getShort();
+      final int layerCount = buffer.get();
+      final int size = width * height;
+      
+      final short[] shorts = new short[ size ];
+      final int[] cells = new int[ size ];
+      final TileGrid[] layers = new TileGrid[ layerCount ];
+      for( int layer = 0; layer < layerCount; layer++ )
+      {
+         buffer.asShortBuffer().get( shorts );
+         buffer.position( buffer.position() + ( size * 2 ) );
+         for( int index = 0; index < size; index++ )
+         {
+            cells[ index ] = shorts[ index ];
+         }
+         layers[ layer ] = layer == 0 ?
+            TileGrid.fromTiles( width, height, cells ) : SparseTileGrid.fromTiles( width, height, cells );
+      }
+      
+      final int derivedLayers = buffer.get();
+      final DerivedSection derived = derivedLayers != 0 ?
+         readDerived( buffer, width, height, derivedLayers, cells ) : null;
+      
+      // The NPCs load their animations so decode them alongside the rest
+      final byte[] headerData = readSection( buffer );
+      final Future< NpcSection > npcs =
+         Version3Map.decode( new NpcSectionProducer(), readSection( buffer ) );
+      final Future< ActionSection > actions =
+         Version3Map.decode( new ActionSectionProducer(), readSection( buffer ) );
+      final Future< MonsterSection > monsters =
+         Version3Map.decode( new MonsterSectionProducer(), readSection( buffer ) );
+      final HeaderSection header =
+         new HeaderSectionProducer().readSection( Version3Map.open( headerData ) );
+      
+      return new MapDefinition( header,
+                                Version3Map.get( npcs ),
+                                Version3Map.get( actions ),
+                                new MapSection( width, height, layers ),
+                                Version3Map.get( monsters ),
+                                derived );
+   }
+   
+   private static DerivedSection readDerived( final ByteBuffer buffer,
+                                              final int width,
+                                              final int height,
+                                              final int layerCount,
+                                              final int[] cells )
+   {
+      final int size = width * height;
+      final byte[] bytes = new byte[ size ];
+      final TileGrid[] collision = new TileGrid[ layerCount ];
+      final int[][] animatedCells = new int[ layerCount ][];
+      final TileGrid[] regions = new TileGrid[ layerCount ];
+      final int[][] bounds = new int[ layerCount ][];
+      
+      for( int layer = 0; layer < layerCount; layer++ )
+      {
+         buffer.get( bytes );
+         for( int index = 0; index < size; index++ )
+         {
+            cells[ index ] = bytes[ index ] & 0xFF;
+         }
+         collision[ layer ] = TileGrid.fromTiles( width, height, cells );
+         
+         buffer.asIntBuffer().get( cells );
+         buffer.position( buffer.position() + ( size * 4 ) );
+         regions[ layer ] = TileGrid.fromTiles( width, height, cells );
+         
+         animatedCells[ layer ] = new int[ buffer.getInt() ];
+         buffer.asIntBuffer().get( animatedCells[ layer ] );
+         buffer.position( buffer.position() + ( animatedCells[ layer ].length * 4 ) );
+         
+         bounds[ layer ] = new int[] { buffer.getShort(),
+                                       buffer.getShort(),
+                                       buffer.getShort(),
+                                       buffer.getShort() };
+      }
+      return new DerivedSection( collision, animatedCells, regions, bounds );
+   }
+   
+   private static byte[] readSection( final ByteBuffer buffer )
+   {
+      final byte[] data = new byte[ buffer.getInt() ];
+      buffer.get( data );
+      return data;
+   }
+   
+   private static void write( final DataOutputStream stream,
+                              final long checksum,
+                              final MapDefinition map ) throws IOException
+   {
+      final MapSection maps = map.mapsSection;
+      final int width = maps.getWidth();
+      final int height = maps.getHeight();
+      final int size = width * height;
+      
+      stream.writeInt( MAGIC );
+      stream.write( CACHE_VERSION );
+      stream.writeLong( checksum );
+      stream.writeShort( width );
+      stream.writeShort( height );
+      stream.write( maps.getLayerCount() );
+      for( int layer = 0; layer < maps.getLayerCount(); layer++ )
+      {
+         final TileGrid grid = maps.getLayer( layer );
+         for( int index = 0; index < size; index++ )
+         {
+            stream.writeShort( grid.get( index ) );
+         }
+      }
+      
+      final DerivedSection derived = map.derivedSection;
+      stream.write( derived != null ? derived.getLayerCount() : 0 );
+      if( derived != null )
+      {
+         for( int layer = 0; layer < derived.getLayerCount(); layer++ )
+         {
+            final TileGrid collision = derived.getCollision( layer );
+            for( int index = 0; index < size; index++ )
+            {
+               stream.write( collision.get( index ) );
+            }
+            
+            final TileGrid regions = derived.getRegions( layer );
+            for( int index = 0; index < size; index++ )
+            {
+               stream.writeInt( regions.get( index ) );
+            }
+            
+            final int[] animatedCells = derived.getAnimatedCells( layer );
+            stream.writeInt( animatedCells.length );
+            for( final int cell : animatedCells )
+            {
+               stream.writeInt( cell );
+            }
+            
+            for( final int edge : derived.getBounds( layer ) )
+            {
+               stream.writeShort( edge );
+            }
+         }
+      }
+      
+      writeSection( stream, Version3Map.encode( new HeaderSectionProducer(), map.headerSection ) );
+      writeSection( stream, Version3Map.encode( new NpcSectionProducer(), map.npcsSection ) );
+      writeSection( stream, Version3Map.encode( new ActionSectionProducer(), map.actionsSection ) );
+      writeSection( stream, Version3Map.encode( new MonsterSectionProducer(), map.monstersSection ) );
+   }
+   
+   private static void writeSection( final DataOutputStream stream, final byte[] data ) throws IOException
+   {
+      stream.writeInt( data.length );
+      stream.write( data );
+   }
+}
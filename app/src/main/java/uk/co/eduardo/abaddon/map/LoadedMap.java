@@ -0,0 +1,82 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.IOException;
+
+import uk.co.eduardo.abaddon.graphics.layer.NPC;
+import uk.co.eduardo.abaddon.map.sections.ChunkedMapSection;
+import uk.co.eduardo.abaddon.map.sections.MapSection;
+import uk.co.eduardo.abaddon.tileset.Tileset;
+import uk.co.eduardo.abaddon.tileset.TilesetCache;
+import uk.co.eduardo.abaddon.util.Coordinate;
+import uk.co.eduardo.abaddon.util.LoadStats;
+
+/**
+ * A map that has been read together with the tileset it is drawn with, ready to be shown.
+ * 
+ * @author Ed
+ */
+public class LoadedMap
+{
+   //================|  Fields             |====================================
+   
+   /** The map. */
+   public final MapDefinition definition;
+   
+   /** The tileset the map is drawn with. */
+   public final Tileset tileset;
+   
+   /** Where the time went while loading the map. */
+   public final LoadStats stats;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param definition the map.
+    * @param tileset the tileset the map is drawn with.
+    * @param stats where the time went while loading the map.
+    */
+   public LoadedMap( final MapDefinition definition, final Tileset tileset, final LoadStats stats )
+   {
+      this.definition = definition;
+      this.tileset = tileset;
+      this.stats = stats;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Decodes the part of a streamed map around where the hero will start, so that it is there
+    * when the map is first drawn. Does nothing for maps that are read whole. This reads the map
+    * file so must not be called on the game or render threads.
+    * 
+    * @param startPos the starting position on the map. If null, use the default start position
+    *                 defined in the map.
+    * @throws IOException if a problem occurs reading the map.
+    */
+   public void preload( final Coordinate startPos ) throws IOException
+   {
+      final MapSection maps = this.definition.mapsSection;
+      if( maps instanceof ChunkedMapSection )
+      {
+         final Coordinate start = startPos == null ?
+                                  this.definition.headerSection.getStartPos() :
+                                  startPos;
+         ( (ChunkedMapSection) maps ).getChunkCache().preload( start.x, start.y );
+      }
+   }
+   
+   /**
+    * Releases the tileset and the NPC animations of a map that will not be shown after all. A
+    * map that is shown has them released when it is replaced.
+    */
+   public void release()
+   {
+      TilesetCache.release( this.tileset );
+      for( final NPC npc : this.definition.npcsSection.getNpcs() )
+      {
+         npc.release();
+      }
+   }
+}
@@ -0,0 +1,115 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.res.Resources;
+import android.util.TypedValue;
+
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+import uk.co.eduardo.abaddon.util.Res;
+import uk.co.eduardo.abaddon.util.ResourceUtilities;
+
+/**
+ * An index of the headers of every map in the raw resources.
+ * <p>
+ * {@link #index()} only reads the start of each map with
+ * {@link MapFactory#probeHeader(InputStream)} so it is cheap enough to call at startup. Anything
+ * that only needs to know where a map starts, what tileset it uses or whether it exists can then
+ * ask here instead of loading the map.
+ * 
+ * @author Ed
+ */
+public final class MapCatalogue
+{
+   //================|  Fields             |====================================
+   
+   /** The file extension of map resources. */
+   private static final String MAP_EXTENSION = ".map"; //$NON-NLS-1$
+   
+   /** The headers keyed by map name. Replaced as a whole so that readers need no locking. */
+   private static volatile Map< String, HeaderSection > headers = null;
+   
+   
+   //================|  Constructors       |====================================
+   
+   private MapCatalogue()
+   {
+      // Hide constructor for utility class.
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Reads the header of every map in the raw resources. Maps that cannot be read are left out.
+    */
+   public static void index()
+   {
+      final Resources resources = Res.resources;
+      final TypedValue value = new TypedValue();
+      final Map< String, HeaderSection > index = new HashMap< String, HeaderSection >();
+      
+      for( final String name : ResourceUtilities.getRawResourceNames() )
+      {
+         final int resourceId = ResourceUtilities.getRawResourceId( name );
+         
+         // Tileset descriptions are raw resources too; only the file name tells them apart
+         resources.getValue( resourceId, value, true );
+         if( value.string == null || !value.string.toString().endsWith( MAP_EXTENSION ) )
+         {
+            continue;
+         }
+         
+         try
+         {
+            final InputStream stream = resources.openRawResource( resourceId );
+            try
+            {
+               index.put( name, MapFactory.probeHeader( stream ) );
+            }
+            finally
+            {
+               stream.close();
+            }
+         }
+         catch( final IOException exception )
+         {
+            // Leave it out. Loading it will report the problem.
+         }
+      }
+      headers = Collections.unmodifiableMap( index );
+   }
+   
+   /**
+    * @return <code>true</code> once {@link #index()} has been called.
+    */
+   public static boolean isIndexed()
+   {
+      return headers != null;
+   }
+   
+   /**
+    * @param name the resource name of a map.
+    * @return the map's header or <code>null</code> if there is no such map or the catalogue has
+    *         not been indexed.
+    */
+   public static HeaderSection getHeader( final String name )
+   {
+      final Map< String, HeaderSection > cached = headers;
+      return cached != null ? cached.get( name ) : null;
+   }
+   
+   /**
+    * @return the resource names of all of the indexed maps.
+    */
+   public static Set< String > getMapNames()
+   {
+      final Map< String, HeaderSection > cached = headers;
+      return cached != null ? cached.keySet() : Collections.< String >emptySet();
+   }
+}
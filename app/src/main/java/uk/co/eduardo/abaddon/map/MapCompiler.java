@@ -0,0 +1,612 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.co.eduardo.abaddon.map.actions.ChangeLayerAction;
+import uk.co.eduardo.abaddon.map.actions.MapAction;
+import uk.co.eduardo.abaddon.map.actions.TeleportAction;
+import uk.co.eduardo.abaddon.map.sections.ActionSection;
+import uk.co.eduardo.abaddon.map.sections.ActionSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.ChunkedMapSection;
+import uk.co.eduardo.abaddon.map.sections.ChunkedMapSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.CompressedMapSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
+import uk.co.eduardo.abaddon.map.sections.DerivedSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+import uk.co.eduardo.abaddon.map.sections.HeaderSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.MapSection;
+import uk.co.eduardo.abaddon.tileset.TileDescription;
+import uk.co.eduardo.abaddon.tileset.TileDescriptionReader;
+import uk.co.eduardo.abaddon.util.Coordinate;
+
+/**
+ * Command line tool that validates maps and bakes the tables the game would otherwise work out
+ * while running into a {@link DerivedSection}.
+ * <p>
+ * Usage: <code>MapCompiler &lt;rawDir&gt; [outputDir]</code>
+ * <p>
+ * Every version 2 to 5 <code>.map</code> in the raw resource directory is read together with the
+ * <code>.dsc</code> description of its tileset. Maps that pass validation are written to the
+ * output directory (the raw directory by default) as compiled maps: the chunked version 2 and 5
+ * maps as version 5 maps, which keep their chunks, and the rest as version 4 maps. Older versions
+ * are reported and left alone.
+ * <p>
+ * The tool runs on a desktop JVM. The NPC and monster sections need the Android graphics classes
+ * to decode so they are copied through untouched.
+ * 
+ * @author Ed
+ */
+public final class MapCompiler
+{
+   //================|  Fields             |====================================
+   
+   /** File extension of the maps. */
+   private static final String MAP_EXTENSION = ".map"; //$NON-NLS-1$
+   
+   /** File extension of the tileset descriptions. */
+   private static final String DESCRIPTION_EXTENSION = ".dsc"; //$NON-NLS-1$
+   
+   /** Walk flags of a tile that cannot be entered from any direction. */
+   private static final int BLOCKED = TileDescription.LEFT | TileDescription.RIGHT |
+                                      TileDescription.TOP | TileDescription.BOTTOM |
+                                      TileDescription.TL_BR_DIAG | TileDescription.TR_BL_DIAG;
+   
+   /** The four directions in which the hero walks between cells, as { dx, dy }. */
+   private static final int[][] STEPS = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+   
+   
+   //================|  Constructors       |====================================
+   
+   private MapCompiler()
+   {
+      // Hide constructor for utility class.
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @param args the raw resource directory and, optionally, the output directory.
+    * @throws IOException if a problem occurs reading or writing a map.
+    */
+   @SuppressWarnings( "nls" )
+   public static void main( final String[] args ) throws IOException
+   {
+      if( args.length < 1 || args.length > 2 )
+      {
+         System.err.println( "Usage: MapCompiler <rawDir> [outputDir]" );
+         System.exit( 2 );
+      }
+      final File rawDir = new File( args[ 0 ] );
+      final File outputDir = args.length > 1 ? new File( args[ 1 ] ) : rawDir;
+      
+      final File[] files = rawDir.listFiles();
+      if( files == null )
+      {
+         System.err.println( rawDir + " is not a directory" );
+         System.exit( 2 );
+      }
+      Arrays.sort( files );
+      
+      boolean failed = false;
+      for( final File file : files )
+      {
+         if( !file.getName().endsWith( MAP_EXTENSION ) )
+         {
+            continue;
+         }
+         final List< String > problems = new ArrayList< String >();
+         final byte[] compiled = compile( file, rawDir, problems );
+         if( !problems.isEmpty() )
+         {
+            for( final String problem : problems )
+            {
+               System.err.println( file.getName() + ": " + problem );
+            }
+            failed = true;
+         }
+         else if( compiled != null )
+         {
+            final FileOutputStream out = new FileOutputStream( new File( outputDir, file.getName() ) );
+            try
+            {
+               out.write( compiled );
+            }
+            finally
+            {
+               out.close();
+            }
+            System.out.println( file.getName() + ": compiled" );
+         }
+      }
+      System.exit( failed ? 1 : 0 );
+   }
+   
+   /**
+    * Works out the tables of a {@link DerivedSection}.
+    * 
+    * @param maps the tile layers.
+    * @param description the description of the tileset the layers index. Every tile in the layers
+    *                    must be described.
+    * @return the derived tables.
+    */
+   public static DerivedSection derive( final MapSection maps, final TileDescription description )
+   {
+      final int layerCount = maps.getLayerCount();
+      final int width = maps.getWidth();
+      final int height = maps.getHeight();
+      final int size = width * height;
+      
+      final boolean[] animatedTiles = new boolean[ description.walkable.length ];
+      for( final int tile : description.animated )
+      {
+         if( tile < animatedTiles.length )
+         {
+            animatedTiles[ tile ] = true;
+         }
+      }
+      
+      final TileGrid[] collision = new TileGrid[ layerCount ];
+      final int[][] animatedCells = new int[ layerCount ][];
+      final TileGrid[] regions = new TileGrid[ layerCount ];
+      final int[][] bounds = new int[ layerCount ][];
+      
+      final int[] cells = new int[ size ];
+      final int[][] flags = new int[ layerCount ][];
+      for( int layer = 0; layer < layerCount; layer++ )
+      {
+         final TileGrid grid = maps.getLayer( layer );
+         final int[] layerFlags = new int[ size ];
+         final int[] animated = new int[ size ];
+         int animatedCount = 0;
+         int left = width;
+         int top = height;
+         int right = 0;
+         int bottom = 0;
+         for( int y = 0, index = 0; y < height; y++ )
+         {
+            for( int x = 0; x < width; x++, index++ )
+            {
+               final int tile = grid.get( index );
+               if( tile == -1 )
+               {
+                  continue;
+               }
+               layerFlags[ index ] = description.walkable[ tile ];
+               if( animatedTiles[ tile ] )
+               {
+                  animated[ animatedCount++ ] = index;
+               }
+               left = Math.min( left, x );
+               top = Math.min( top, y );
+               right = Math.max( right, x + 1 );
+               bottom = Math.max( bottom, y + 1 );
+            }
+         }
+         flags[ layer ] = layerFlags;
+         collision[ layer ] = TileGrid.fromTiles( width, height, layerFlags );
+         animatedCells[ layer ] = Arrays.copyOf( animated, animatedCount );
+         bounds[ layer ] = left < right ? new int[] { left, top, right, bottom } : new int[ 4 ];
+      }
+      
+      final int[] queue = new int[ size ];
+      for( int heroLayer = 0; heroLayer < layerCount; heroLayer++ )
+      {
+         // Flood fill the cells the hero can walk between in either direction
+         Arrays.fill( cells, -1 );
+         int regionCount = DerivedSection.NO_REGION + 1;
+         for( int seed = 0; seed < size; seed++ )
+         {
+            if( cells[ seed ] != -1 )
+            {
+               continue;
+            }
+            if( !hasExit( maps, flags, heroLayer, seed ) )
+            {
+               // Cells that cannot be walked into or out of share the "no region" id
+               cells[ seed ] = DerivedSection.NO_REGION;
+               continue;
+            }
+            cells[ seed ] = regionCount;
+            int head = 0;
+            int tail = 0;
+            queue[ tail++ ] = seed;
+            while( head < tail )
+            {
+               final int cell = queue[ head++ ];
+               final int x = cell % width;
+               final int y = cell / width;
+               for( final int[] step : STEPS )
+               {
+                  final int xNext = x + step[ 0 ];
+                  final int yNext = y + step[ 1 ];
+                  if( xNext < 0 || yNext < 0 || xNext >= width || yNext >= height )
+                  {
+                     continue;
+                  }
+                  final int next = ( yNext * width ) + xNext;
+                  if( cells[ next ] != -1 || !hasExit( maps, flags, heroLayer, next ) )
+                  {
+                     continue;
+                  }
+                  if( canPass( maps, flags, heroLayer, cell, next, step[ 0 ], step[ 1 ] ) ||
+                      canPass( maps, flags, heroLayer, next, cell, -step[ 0 ], -step[ 1 ] ) )
+                  {
+                     cells[ next ] = regionCount;
+                     queue[ tail++ ] = next;
+                  }
+               }
+            }
+            regionCount++;
+         }
+         regions[ heroLayer ] = TileGrid.fromTiles( width, height, cells );
+      }
+      
+      return new DerivedSection( collision, animatedCells, regions, bounds );
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   /**
+    * Reads, validates and compiles a map.
+    * 
+    * @return the compiled map or <code>null</code> if it was skipped or has problems.
+    */
+   @SuppressWarnings( "nls" )
+   private static byte[] compile( final File file,
+                                  final File rawDir,
+                                  final List< String > problems ) throws IOException
+   {
+      final byte[] contents = new byte[ (int) file.length() ];
+      final DataInputStream in = new DataInputStream( open( file ) );
+      try
+      {
+         in.readFully( contents );
+      }
+      finally
+      {
+         in.close();
+      }
+      
+      final ByteArrayInputStream bytes = new ByteArrayInputStream( contents );
+      final DataInputStream stream = new DataInputStream( bytes );
+      final int version = stream.readShort();
+      final byte[][] data;
+      final MapSection maps;
+      if( version == 2 )
+      {
+         data = readVersion2Sections( contents, bytes );
+         maps = readChunkedMaps( stream );
+      }
+      else if( version == 3 )
+      {
+         data = Version3Map.readSections( stream, Version4Map.BASE_SECTION_COUNT );
+         maps = new CompressedMapSectionProducer().readSection( Version3Map.open( data[ 3 ] ) );
+      }
+      else if( version == 4 )
+      {
+         data = Version4Map.readSections( stream );
+         maps = new CompressedMapSectionProducer().readSection( Version3Map.open( data[ 3 ] ) );
+      }
+      else if( version == 5 )
+      {
+         data = Version5Map.readSections( stream );
+         maps = readChunkedMaps( stream );
+      }
+      else
+      {
+         System.out.println( file.getName() + ": skipped version " + version + " map" );
+         return null;
+      }
+      
+      // Every version puts the header first and the actions third
+      final HeaderSection header = new HeaderSectionProducer().readSection( Version3Map.open( data[ 0 ] ) );
+      final ActionSection actions = new ActionSectionProducer().readSection( Version3Map.open( data[ 2 ] ) );
+      
+      final File descriptionFile = new File( rawDir, header.getTilesetName() + DESCRIPTION_EXTENSION );
+      if( !descriptionFile.isFile() )
+      {
+         problems.add( "missing tileset description " + descriptionFile.getName() );
+         return null;
+      }
+      final InputStream descriptionStream = new FileInputStream( descriptionFile );
+      final TileDescription description;
+      try
+      {
+         description = TileDescriptionReader.readStream( descriptionStream );
+      }
+      catch( final IOException exception )
+      {
+         problems.add( "unreadable tileset description " + descriptionFile.getName() + ": " + 
+                       exception.getMessage() );
+         return null;
+      }
+      finally
+      {
+         descriptionStream.close();
+      }
+      
+      validate( header, actions, maps, description, rawDir, problems );
+      if( !problems.isEmpty() )
+      {
+         return null;
+      }
+      
+      final byte[] derived =
+         Version3Map.encode( new DerivedSectionProducer(), derive( maps, description ) );
+      
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( output ) );
+      if( maps instanceof ChunkedMapSection )
+      {
+         // Keep big maps chunked. The tile layers go after the section table.
+         final byte[][] compiled = Arrays.copyOf( data, Version5Map.BASE_SECTION_COUNT + 1 );
+         compiled[ Version5Map.DERIVED_SECTION ] = derived;
+         out.writeShort( 5 );
+         Version4Map.writeSections( out, compiled );
+         new ChunkedMapSectionProducer().writeSection( out, maps );
+      }
+      else
+      {
+         final byte[][] compiled = Arrays.copyOf( data, Version4Map.BASE_SECTION_COUNT + 1 );
+         compiled[ Version4Map.DERIVED_SECTION ] = derived;
+         out.writeShort( 4 );
+         Version4Map.writeSections( out, compiled );
+      }
+      out.close();
+      return output.toByteArray();
+   }
+   
+   /**
+    * Splits the sections in front of the tile layers of a {@link Version2Map} into the section
+    * table of a {@link Version5Map}. The NPC and monster sections are stepped over rather than
+    * decoded, as decoding them needs the Android graphics classes.
+    * 
+    * @param contents the whole map file.
+    * @param bytes a stream over the file, positioned after the version number. It is left at the
+    *              start of the tile layers.
+    * @return the header, NPC, action and monster sections.
+    */
+   private static byte[][] readVersion2Sections( final byte[] contents,
+                                                 final ByteArrayInputStream bytes )
+      throws IOException
+   {
+      final DataInputStream stream = new DataInputStream( bytes );
+      final int[] starts = new int[ Version5Map.BASE_SECTION_COUNT + 1 ];
+      starts[ 0 ] = contents.length - bytes.available();
+      new HeaderSectionProducer().readSection( stream );
+      starts[ 1 ] = contents.length - bytes.available();
+      skipNpcSection( stream );
+      starts[ 2 ] = contents.length - bytes.available();
+      new ActionSectionProducer().readSection( stream );
+      starts[ 3 ] = contents.length - bytes.available();
+      skipMonsterSection( stream );
+      starts[ 4 ] = contents.length - bytes.available();
+      
+      final byte[][] data = new byte[ Version5Map.BASE_SECTION_COUNT ][];
+      for( int section = 0; section < data.length; section++ )
+      {
+         data[ section ] = Arrays.copyOfRange( contents, starts[ section ], starts[ section + 1 ] );
+      }
+      return data;
+   }
+   
+   /**
+    * Steps over a section written by {@link uk.co.eduardo.abaddon.map.sections.NpcSectionProducer}.
+    */
+   private static void skipNpcSection( final DataInputStream stream ) throws IOException
+   {
+      final int npcCount = stream.readShort();
+      for( int npc = 0; npc < npcCount; npc++ )
+      {
+         // Type, position, layer and whether it is fixed
+         stream.skipBytes( 8 );
+         final int speechCount = stream.readShort();
+         for( int speech = 0; speech < speechCount; speech++ )
+         {
+            // The event that triggers the speech, then its length and characters
+            stream.skipBytes( 2 );
+            stream.skipBytes( stream.readShort() & 0xFFFF );
+         }
+      }
+   }
+   
+   /**
+    * Steps over a section written by
+    * {@link uk.co.eduardo.abaddon.map.sections.MonsterSectionProducer}.
+    */
+   private static void skipMonsterSection( final DataInputStream stream ) throws IOException
+   {
+      final int zoneCount = stream.read();
+      for( int zone = 0; zone < zoneCount; zone++ )
+      {
+         // The bounds, then the monster count and ids
+         stream.skipBytes( 8 );
+         stream.skipBytes( stream.read() & 0xFF );
+      }
+   }
+   
+   /**
+    * Reads chunked tile layers into memory with every chunk decoded, so that the whole map can be
+    * validated and derived.
+    */
+   private static MapSection readChunkedMaps( final DataInputStream stream ) throws IOException
+   {
+      final ChunkedMapSection maps = 
+         (ChunkedMapSection) new ChunkedMapSectionProducer().readSection( stream );
+      maps.getChunkCache().preloadAll();
+      return maps;
+   }
+   
+   @SuppressWarnings( "nls" )
+   private static void validate( final HeaderSection header,
+                                 final ActionSection actions,
+                                 final MapSection maps,
+                                 final TileDescription description,
+                                 final File rawDir,
+                                 final List< String > problems )
+   {
+      final int width = maps.getWidth();
+      final int height = maps.getHeight();
+      if( width <= 0 || height <= 0 || maps.getLayerCount() == 0 )
+      {
+         problems.add( "empty map" );
+         return;
+      }
+      
+      for( int layer = 0; layer < maps.getLayerCount(); layer++ )
+      {
+         final TileGrid grid = maps.getLayer( layer );
+         for( int index = 0; index < width * height; index++ )
+         {
+            final int tile = grid.get( index );
+            if( tile >= description.walkable.length )
+            {
+               problems.add( "layer " + layer + " uses undescribed tile " + tile + " at " +
+                             ( index % width ) + "," + ( index / width ) );
+            }
+         }
+      }
+      
+      final Coordinate start = header.getStartPos();
+      if( start.x < 0 || start.y < 0 || start.x >= width || start.y >= height )
+      {
+         problems.add( "start position " + start + " is outside the map" );
+      }
+      if( header.getLayerIndex() < 0 || header.getLayerIndex() >= maps.getLayerCount() )
+      {
+         problems.add( "start layer " + header.getLayerIndex() + " does not exist" );
+      }
+      
+      for( final MapAction action : actions.getActions() )
+      {
+         if( action == null )
+         {
+            problems.add( "unknown action type" );
+            continue;
+         }
+         final Coordinate source = action.getSource();
+         if( source.x < 0 || source.y < 0 || source.x >= width || source.y >= height )
+         {
+            problems.add( "action at " + source + " is outside the map" );
+         }
+         if( action instanceof TeleportAction )
+         {
+            final String target = ( (TeleportAction) action ).getDestinationMapName();
+            if( !new File( rawDir, target + MAP_EXTENSION ).isFile() )
+            {
+               problems.add( "action at " + source + " teleports to missing map " + target );
+            }
+         }
+         else if( action instanceof ChangeLayerAction )
+         {
+            final int layer = ( (ChangeLayerAction) action ).getLayerIndex();
+            if( layer < 0 || layer >= maps.getLayerCount() )
+            {
+               problems.add( "action at " + source + " changes to missing layer " + layer );
+            }
+         }
+      }
+   }
+   
+   /**
+    * @return <code>true</code> if the hero can step between the cell and any of its neighbours
+    *         in either direction.
+    */
+   private static boolean hasExit( final MapSection maps,
+                                   final int[][] flags,
+                                   final int heroLayer,
+                                   final int cell )
+   {
+      final int width = maps.getWidth();
+      final int x = cell % width;
+      final int y = cell / width;
+      for( final int[] step : STEPS )
+      {
+         final int xNext = x + step[ 0 ];
+         final int yNext = y + step[ 1 ];
+         if( xNext < 0 || yNext < 0 || xNext >= width || yNext >= maps.getHeight() )
+         {
+            continue;
+         }
+         final int next = ( yNext * width ) + xNext;
+         if( canPass( maps, flags, heroLayer, cell, next, step[ 0 ], step[ 1 ] ) ||
+             canPass( maps, flags, heroLayer, next, cell, -step[ 0 ], -step[ 1 ] ) )
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   /**
+    * Mirrors {@link uk.co.eduardo.abaddon.graphics.layer.LayerManager#canMove} without sprites.
+    * Moves that only cross a diagonal half of a tile count as possible.
+    */
+   private static boolean canPass( final MapSection maps,
+                                   final int[][] flags,
+                                   final int heroLayer,
+                                   final int from,
+                                   final int to,
+                                   final int dx,
+                                   final int dy )
+   {
+      // A tile on the hero's own layer overrides the layers below it
+      if( maps.getLayer( heroLayer ).get( to ) != -1 &&
+          canStep( flags[ heroLayer ][ from ], flags[ heroLayer ][ to ], dx, dy ) )
+      {
+         return true;
+      }
+      for( int layer = 0; layer <= heroLayer; layer++ )
+      {
+         if( !canStep( flags[ layer ][ from ], flags[ layer ][ to ], dx, dy ) )
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   /**
+    * Mirrors {@link uk.co.eduardo.abaddon.graphics.layer.TiledMap#canMove} for a single step.
+    */
+   private static boolean canStep( final int fromFlags, final int toFlags, final int dx, final int dy )
+   {
+      if( ( toFlags & BLOCKED ) == BLOCKED )
+      {
+         return false;
+      }
+      if( dy < 0 )
+      {
+         return ( fromFlags & TileDescription.TOP ) == 0 && ( toFlags & TileDescription.BOTTOM ) == 0;
+      }
+      if( dy > 0 )
+      {
+         return ( fromFlags & TileDescription.BOTTOM ) == 0 && ( toFlags & TileDescription.TOP ) == 0;
+      }
+      if( dx < 0 )
+      {
+         return ( fromFlags & TileDescription.LEFT ) == 0 && ( toFlags & TileDescription.RIGHT ) == 0;
+      }
+      return ( fromFlags & TileDescription.RIGHT ) == 0 && ( toFlags & TileDescription.LEFT ) == 0;
+   }
+   
+   private static InputStream open( final File file ) throws IOException
+   {
+      return new BufferedInputStream( new FileInputStream( file ) );
+   }
+}
@@ -1,6 +1,7 @@
 package uk.co.eduardo.abaddon.map;
 
 import uk.co.eduardo.abaddon.map.sections.ActionSection;
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
 import uk.co.eduardo.abaddon.map.sections.HeaderSection;
 import uk.co.eduardo.abaddon.map.sections.MapSection;
 import uk.co.eduardo.abaddon.map.sections.MonsterSection;
@@ -34,6 +35,9 @@ public class MapDefinition
    /** Map monster information */
    public final MonsterSection monstersSection;
    
+   /** Tables precomputed by the {@link MapCompiler}. <code>null</code> if the map was not compiled. */
+   public final DerivedSection derivedSection;
+   
    /** Towns have this string in their map name. */
    private static final String TOWN_ID = "town"; //$NON-NLS-1$
    
@@ -58,6 +62,24 @@ public class MapDefinition
                          final ActionSection actions,
                          final MapSection maps,
                          final MonsterSection monsters)
+   {
+      this( header, npcs, actions, maps, monsters, null );
+   }
+   
+   /**
+    * @param header the header section of the map.
+    * @param npcs the NPC section of the map.
+    * @param actions the actions section of the map.
+    * @param maps the tile section of the map.
+    * @param monsters the monster section of the map.
+    * @param derived the precomputed tables of the map. May be <code>null</code>.
+    */
+   public MapDefinition( final HeaderSection header,
+                         final NpcSection npcs,
+                         final ActionSection actions,
+                         final MapSection maps,
+                         final MonsterSection monsters,
+                         final DerivedSection derived )
    {
       if( header == null || npcs == null || actions == null || 
          maps == null || monsters == null )
@@ -70,6 +92,7 @@ public class MapDefinition
       this.actionsSection  = actions;
       this.mapsSection     = maps;
       this.monstersSection = monsters;
+      this.derivedSection  = derived;
    }
    
    //================|  Public Methods     |====================================
@@ -1,5 +1,6 @@
 package uk.co.eduardo.abaddon.map;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -8,6 +9,9 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import uk.co.eduardo.abaddon.map.sections.ChunkedMapSection;
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+
 /**
  * Reads/writes {@link MapDefinition}
  * 
@@ -17,9 +21,17 @@ public class MapFactory
 {
    private static final List< MapVersion > Versions = new ArrayList< MapVersion >();
    
+   /** Headers are small so there is no point buffering much more of the map than that. */
+   private static final int PROBE_BUFFER_SIZE = 512;
+   
    static
    {
       Versions.add( new Version0Map() );
+      Versions.add( new Version1Map() );
+      Versions.add( new Version2Map() );
+      Versions.add( new Version3Map() );
+      Versions.add( new Version4Map() );
+      Versions.add( new Version5Map() );
    }
    
    /**
@@ -32,28 +44,80 @@ public class MapFactory
     */
    public static MapDefinition readMap( final InputStream stream ) throws IOException
    {
-      final DataInputStream dis = new DataInputStream( stream );
+      // Raw resource streams are unbuffered so make sure the many small reads are not each a 
+      // round-trip to the underlying asset.
+      final DataInputStream dis = new DataInputStream( new BufferedInputStream( stream ) );
       final int version = dis.readShort();
       
       return getMapVersion( version ).readMap( dis );
    }
    
    /**
-    * Uses the latest encoding for serializing the map.
+    * Reads a map from a source that can be re-opened. Versions that support it leave the tile
+    * layers in the file and stream them in as they are needed. See {@link StreamableMapVersion}.
+    * 
+    * @param source opens the map file.
+    * @return the read {@link MapDefinition}.
+    * @throws IOException if a problem occurs reading from the stream.
+    */
+   public static MapDefinition readMap( final MapStreamSource source ) throws IOException
+   {
+      final InputStream stream = source.open();
+      try
+      {
+         final DataInputStream dis = new DataInputStream( new BufferedInputStream( stream ) );
+         final int version = dis.readShort();
+         
+         final MapVersion mapVersion = getMapVersion( version );
+         if( mapVersion instanceof StreamableMapVersion )
+         {
+            return ( (StreamableMapVersion) mapVersion ).readMap( dis, source );
+         }
+         return mapVersion.readMap( dis );
+      }
+      finally
+      {
+         stream.close();
+      }
+   }
+   
+   /**
+    * Reads just the header of a map without decoding the rest of it.
+    * 
+    * @param stream the stream from which to read. Only the start of the map is read.
+    * @return the map's header.
+    * @throws IOException if a problem occurs reading from the stream or the stream does not hold
+    *                     a map.
+    */
+   public static HeaderSection probeHeader( final InputStream stream ) throws IOException
+   {
+      final DataInputStream dis = 
+         new DataInputStream( new BufferedInputStream( stream, PROBE_BUFFER_SIZE ) );
+      final int version = dis.readShort();
+      
+      return getMapVersion( version ).readHeader( dis );
+   }
+   
+   /**
+    * Uses the latest encoding for serializing the map. Chunked maps are written with the latest
+    * {@link StreamableMapVersion} so that they stay chunked, and the rest with the latest version
+    * that decodes the whole map at once.
     * 
-    * @param stream the stream to which the map is to be written.
+    * @param stream the stream to which the map is to be written. Chunked maps must be written
+    *               from the start of the file.
     * @param map the map to serialize.
     * @throws IOException if a problem occurs writing to the stream.
     */
    public static void writeMap( final OutputStream stream, final MapDefinition map ) throws IOException
    {
       final DataOutputStream dos = new DataOutputStream( stream );
-      final MapVersion latestMapVersion = getLatestMapVersion();
+      final MapVersion latestMapVersion = 
+         getLatestMapVersion( map.mapsSection instanceof ChunkedMapSection );
       dos.writeShort( latestMapVersion.getVersion() );
       latestMapVersion.writeMap( dos, map );
    }
    
-   private static MapVersion getMapVersion( final int version )
+   private static MapVersion getMapVersion( final int version ) throws IOException
    {
       for( final MapVersion mapVersion : Versions )
       {
@@ -62,17 +126,18 @@ public class MapFactory
             return mapVersion;
          }
       }
-      return null;
+      throw new IOException( "Unknown map version " + version ); //$NON-NLS-1$
    }
    
-   private static MapVersion getLatestMapVersion()
+   private static MapVersion getLatestMapVersion( final boolean streamable )
    {
-      MapVersion latestVersion = Versions.get( 0 );
-      int latest = latestVersion.getVersion();
+      MapVersion latestVersion = null;
+      int latest = -1;
       
       for( final MapVersion mapVersion : Versions )
       {
-         if( mapVersion.getVersion() > latest )
+         if( mapVersion instanceof StreamableMapVersion == streamable && 
+             mapVersion.getVersion() > latest )
          {
             latestVersion = mapVersion;
             latest = latestVersion.getVersion();
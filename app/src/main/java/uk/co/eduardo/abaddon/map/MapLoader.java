@@ -0,0 +1,157 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.res.Resources;
+
+import uk.co.eduardo.abaddon.map.sections.ChunkedMapSection;
+import uk.co.eduardo.abaddon.map.sections.MapSection;
+import uk.co.eduardo.abaddon.tileset.Tileset;
+import uk.co.eduardo.abaddon.tileset.TilesetCache;
+import uk.co.eduardo.abaddon.util.CountingInputStream;
+import uk.co.eduardo.abaddon.util.LoadStats;
+import uk.co.eduardo.abaddon.util.Res;
+import uk.co.eduardo.abaddon.util.ResourceUtilities;
+
+/**
+ * Reads a map and its tileset from the application resources.
+ * 
+ * @author Ed
+ */
+public final class MapLoader
+{
+   //================|  Constructors       |====================================
+   
+   private MapLoader()
+   {
+      // Hide constructor for utility class.
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Reads a map, its NPCs and its tileset. This is slow so should not be called on the UI or
+    * game threads. The map is read from the {@link DecodedMapCache} if it holds an up to date
+    * copy and is added to it otherwise. The tileset is acquired from the {@link TilesetCache} and must be released
+    * when the map is discarded.
+    * 
+    * @param name the resource name of the map.
+    * @return the loaded map.
+    * @throws IOException if a problem occurs reading the map.
+    */
+   public static LoadedMap load( final String name ) throws IOException
+   {
+      final LoadStats stats = LoadStats.begin( name );
+      final Resources resources = Res.resources;
+      
+      final int resourceId = ResourceUtilities.getRawResourceId( name );
+      final AtomicLong bytesRead = new AtomicLong();
+      final long readStart = LoadStats.start();
+      
+      // A cached copy is only good for the resource it was made from
+      long checksum = 0;
+      MapDefinition mapDef = null;
+      if( DecodedMapCache.isEnabled() )
+      {
+         final InputStream stream =
+            new CountingInputStream( resources.openRawResource( resourceId ), bytesRead );
+         try
+         {
+            checksum = DecodedMapCache.checksum( stream );
+         }
+         finally
+         {
+            stream.close();
+         }
+         mapDef = DecodedMapCache.read( name, checksum );
+      }
+      
+      if( mapDef == null )
+      {
+         try
+         {
+            mapDef = MapFactory.readMap( new MapStreamSource()
+            {
+               @Override
+               public InputStream open()
+               {
+                  return new CountingInputStream( resources.openRawResource( resourceId ),
+                                                  bytesRead );
+               }
+            } );
+         }
+         catch( final IOException exception )
+         {
+            // The sections do not know which map they are part of
+            throw new IOException( "Could not read map " + name, exception ); //$NON-NLS-1$
+         }
+         if( DecodedMapCache.isEnabled() )
+         {
+            DecodedMapCache.write( name, checksum, mapDef );
+         }
+      }
+      LoadStats.record( LoadStats.Phase.READ_MAP, readStart, bytesRead.get() );
+      mapDef.setMapName( name );
+      
+      // Share the tileset with any other map that uses the same tiles
+      final Tileset tileset = 
+         TilesetCache.acquire( mapDef.headerSection.getTilesetName(), findUsedTiles( mapDef ) );
+      
+      stats.finishLoading();
+      return new LoadedMap( mapDef, tileset, stats );
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   /**
+    * @return true for each tile index that appears in the map, or <code>null</code> if the map
+    *         is streamed and so could use any tile.
+    */
+   private static boolean[] findUsedTiles( final MapDefinition mapDef )
+   {
+      final MapSection maps = mapDef.mapsSection;
+      if( maps instanceof ChunkedMapSection )
+      {
+         return null;
+      }
+      
+      boolean[] used = new boolean[ 0 ];
+      final int size = maps.getWidth() * maps.getHeight();
+      for( int layer = 0; layer < maps.getLayerCount(); layer++ )
+      {
+         final TileGrid grid = maps.getLayer( layer );
+         if( grid instanceof SparseTileGrid )
+         {
+            final SparseTileGrid sparse = (SparseTileGrid) grid;
+            for( int entry = 0; entry < sparse.getEntryCount(); entry++ )
+            {
+               used = markUsed( used, sparse.getEntryTile( entry ) );
+            }
+         }
+         else
+         {
+            for( int index = 0; index < size; index++ )
+            {
+               used = markUsed( used, grid.get( index ) );
+            }
+         }
+      }
+      return used;
+   }
+   
+   private static boolean[] markUsed( final boolean[] used, final int tile )
+   {
+      if( tile < 0 )
+      {
+         return used;
+      }
+      final boolean[] marked = tile < used.length ? used : Arrays.copyOf( used, tile + 1 );
+      marked[ tile ] = true;
+      return marked;
+   }
+}
@@ -0,0 +1,255 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import uk.co.eduardo.abaddon.map.actions.ActionManager;
+import uk.co.eduardo.abaddon.map.actions.MapAction;
+import uk.co.eduardo.abaddon.map.actions.TeleportAction;
+import uk.co.eduardo.abaddon.util.Coordinate;
+import uk.co.eduardo.abaddon.util.DaemonThreadFactory;
+
+/**
+ * Loads the destinations of nearby teleports in the background so that stepping onto a teleport
+ * does not have to wait for the map to be read.
+ * <p>
+ * {@link #update(Coordinate)} is called as the hero moves. When the hero comes within
+ * {@link #PREFETCH_DISTANCE} tiles of a {@link TeleportAction} the destination map is loaded
+ * with {@link MapLoader}. At most {@link #MAX_CACHED_MAPS} maps are kept; the least recently
+ * requested one is dropped to make room, releasing its tileset and NPC animations. The maps are
+ * all dropped when a new map is shown, as the teleports they were loaded for have gone with the
+ * old one.
+ * 
+ * @author Ed
+ */
+public class MapPrefetcher
+{
+   //================|  Fields             |====================================
+   
+   /** Teleports this many tiles or fewer from the hero have their destinations loaded. */
+   public static final int PREFETCH_DISTANCE = 5;
+   
+   /** The maximum number of loaded or loading maps kept. */
+   public static final int MAX_CACHED_MAPS = 2;
+   
+   /** The loaded or loading maps keyed by name, least recently requested first. */
+   private final LinkedHashMap< String, Prefetch > cache =
+      new LinkedHashMap< String, Prefetch >( 4, 0.75f, true )
+      {
+         private static final long serialVersionUID = 1L;
+         
+         @Override
+         protected boolean removeEldestEntry( final Map.Entry< String, Prefetch > eldest )
+         {
+            if( size() > MAX_CACHED_MAPS )
+            {
+               discard( eldest.getValue() );
+               return true;
+            }
+            return false;
+         }
+      };
+   
+   /** Loads the maps. */
+   private final ExecutorService loader = Executors.newSingleThreadExecutor(
+      new DaemonThreadFactory( "MapPrefetcher", Thread.MIN_PRIORITY ) ); //$NON-NLS-1$
+   
+   /** The hero tile at the last update. */
+   private Coordinate lastHeroTile;
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Starts loading the destinations of the teleports near the hero.
+    * 
+    * @param heroTile the hero's tile position.
+    */
+   public synchronized void update( final Coordinate heroTile )
+   {
+      if( heroTile.equals( this.lastHeroTile ) )
+      {
+         return;
+      }
+      this.lastHeroTile = heroTile;
+      
+      final int numActions = ActionManager.getActionCount();
+      for( int index = 0; index < numActions; index++ )
+      {
+         final MapAction action = ActionManager.getAction( index );
+         if( action instanceof TeleportAction )
+         {
+            final Coordinate source = action.getSource();
+            final int distance = Math.max( Math.abs( source.x - heroTile.x ), 
+                                           Math.abs( source.y - heroTile.y ) );
+            if( distance <= PREFETCH_DISTANCE )
+            {
+               final TeleportAction teleport = (TeleportAction) action;
+               prefetch( teleport.getDestinationMapName(), teleport.getDestination() );
+            }
+         }
+      }
+   }
+   
+   /**
+    * Removes a map from the cache if it has finished loading.
+    * 
+    * @param name the name of the map.
+    * @return the loaded map or null if it has not been loaded or is still loading.
+    */
+   public synchronized LoadedMap takeIfReady( final String name )
+   {
+      final Prefetch prefetch = this.cache.get( name );
+      if( prefetch == null || !prefetch.future.isDone() )
+      {
+         return null;
+      }
+      return take( name );
+   }
+   
+   /**
+    * Removes a map from the cache, waiting for it to finish loading if necessary.
+    * 
+    * @param name the name of the map.
+    * @return the loaded map or null if it was not being loaded or failed to load.
+    */
+   public LoadedMap take( final String name )
+   {
+      final Prefetch prefetch;
+      synchronized( this )
+      {
+         prefetch = this.cache.remove( name );
+      }
+      if( prefetch == null )
+      {
+         return null;
+      }
+      
+      // Out of the cache, so nothing can discard it now
+      try
+      {
+         return prefetch.future.get();
+      }
+      catch( final InterruptedException exception )
+      {
+         Thread.currentThread().interrupt();
+         return null;
+      }
+      catch( final ExecutionException exception )
+      {
+         // Leave it to the caller to load the map again and report the failure.
+         return null;
+      }
+   }
+   
+   /**
+    * Discards all of the loaded maps and stops any loading.
+    */
+   public synchronized void clear()
+   {
+      for( final Prefetch prefetch : this.cache.values() )
+      {
+         discard( prefetch );
+      }
+      this.cache.clear();
+      this.lastHeroTile = null;
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   private void prefetch( final String name, final Coordinate destination )
+   {
+      if( this.cache.get( name ) != null )
+      {
+         return;
+      }
+      if( MapCatalogue.isIndexed() && MapCatalogue.getHeader( name ) == null )
+      {
+         // A teleport to a map that does not exist. Leave it to the teleport to report.
+         return;
+      }
+      
+      final Prefetch prefetch = new Prefetch( name, destination );
+      prefetch.future = this.loader.submit( prefetch );
+      this.cache.put( name, prefetch );
+   }
+   
+   /**
+    * Stops a map loading or, if it has loaded, releases it.
+    */
+   private static void discard( final Prefetch prefetch )
+   {
+      prefetch.future.cancel( true );
+      if( !prefetch.settled.compareAndSet( false, true ) )
+      {
+         // The load got there first and handed the map over, so it is ours to release
+         prefetch.loaded.release();
+      }
+   }
+   
+   
+   //================|  Inner Classes      |====================================
+   
+   /**
+    * Loads one map. The loaded map and its tileset belong to whichever of the load and
+    * {@link MapPrefetcher#discard(Prefetch)} sets {@link #settled} first. Interrupts are not
+    * relied on, as the discard can come after the load has checked for one but before it has
+    * returned.
+    */
+   private static final class Prefetch implements Callable< LoadedMap >
+   {
+      /** The name of the map. */
+      private final String name;
+      
+      /** Where the teleport puts the hero on the map. */
+      private final Coordinate destination;
+      
+      /** Set by the load once the map is ready, or by the discard if it comes first. */
+      final AtomicBoolean settled = new AtomicBoolean();
+      
+      /** The loaded map, set before the load settles. */
+      volatile LoadedMap loaded;
+      
+      /** The result of the load. Set when the load is submitted. */
+      Future< LoadedMap > future;
+      
+      Prefetch( final String name, final Coordinate destination )
+      {
+         this.name = name;
+         this.destination = destination;
+      }
+      
+      @Override
+      public LoadedMap call() throws Exception
+      {
+         final LoadedMap map = MapLoader.load( this.name );
+         try
+         {
+            // So that the map can be swapped in without reading any of it on the game thread
+            map.preload( this.destination );
+         }
+         catch( final IOException exception )
+         {
+            map.release();
+            throw exception;
+         }
+         
+         this.loaded = map;
+         if( !this.settled.compareAndSet( false, true ) )
+         {
+            // Discarded while loading so nobody else will release the map
+            map.release();
+            throw new InterruptedException();
+         }
+         return map;
+      }
+   }
+}
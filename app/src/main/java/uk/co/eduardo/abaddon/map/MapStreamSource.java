@@ -0,0 +1,19 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Something that can open a map file from its start as many times as required. Streamable map
+ * versions use this to read parts of the map on demand rather than holding it all in memory.
+ * 
+ * @author Ed
+ */
+public interface MapStreamSource
+{
+   /**
+    * @return a new stream positioned at the start of the map file. The caller closes it.
+    * @throws IOException if the stream could not be opened.
+    */
+   InputStream open() throws IOException;
+}
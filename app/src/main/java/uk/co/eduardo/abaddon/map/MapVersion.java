@@ -4,6 +4,8 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+
 /**
  * Reads/writes a {@link MapDefinition}.
  * 
@@ -23,6 +25,15 @@ public interface MapVersion
     */
    MapDefinition readMap( DataInputStream stream ) throws IOException;
    
+   /**
+    * Reads just the header of a map, leaving the rest of the stream unread.
+    * 
+    * @param stream the stream from which the map is to be read.
+    * @return the map's header.
+    * @throws IOException if a problem occurs reading from the stream.
+    */
+   HeaderSection readHeader( DataInputStream stream ) throws IOException;
+   
    /**
     * @param stream the stream to which the map is to be written.
     * @param map the map to write.
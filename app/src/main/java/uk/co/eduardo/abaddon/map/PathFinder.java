@@ -61,7 +61,8 @@ public class PathFinder
       final int yTileTo = yTo / tileSize;
       
       // First, check to see if the target tile is accessible at all (from any direction)
-      if( !isTargetAccessible( xTo, yTo ) )
+      if( !LayerManager.canHeroReach( xTileFrom, yTileFrom, xTileTo, yTileTo ) || 
+          !isTargetAccessible( xTo, yTo ) )
       {
          return;
       }
@@ -69,8 +70,9 @@ public class PathFinder
       final int screenTileWidth = ScreenSettings.width / ScreenSettings.tileSize;
       final int screenTileHeight = ScreenSettings.height / ScreenSettings.tileSize;
       
-      final int xMapEnd = LayerManager.getMapLayers().get( 0 ).fullMap[ 0 ].length;
-      final int yMapEnd = LayerManager.getMapLayers().get( 0 ).fullMap.length;
+      final TileGrid baseGrid = LayerManager.getMapLayers().get( 0 ).grid;
+      final int xMapEnd = baseGrid.getWidth();
+      final int yMapEnd = baseGrid.getHeight();
       
       final int xTileStart = Math.max( xTileFrom - ( ( screenTileWidth + 1 ) / 2 ), 0 );
       final int yTileStart = Math.max( yTileFrom - ( ( screenTileHeight + 1 ) / 2 ), 0 );
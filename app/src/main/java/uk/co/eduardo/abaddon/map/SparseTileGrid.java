@@ -0,0 +1,173 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.util.Arrays;
+
+/**
+ * A grid for layers where most cells are empty. Only the populated cells are stored, as a sorted
+ * array of cell indices (<code>( y * width ) + x</code>) alongside their tile indices.
+ * <p>
+ * Looking up a cell is a binary search so drawing code should walk the populated cells with
+ * {@link #findEntry(int)}, {@link #getEntryCell(int)} and {@link #getEntryTile(int)} instead.
+ * 
+ * @author Ed
+ */
+public class SparseTileGrid extends TileGrid
+{
+   //================|  Fields             |====================================
+   
+   /** The indices of the populated cells in ascending order. */
+   private int[] cells;
+   
+   /** The tile index in each populated cell. */
+   private int[] tiles;
+   
+   /** The number of populated cells. */
+   private int count;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * Creates an empty grid.
+    * 
+    * @param width the number of tiles wide the grid is.
+    * @param height the number of tiles high the grid is.
+    */
+   public SparseTileGrid( final int width, final int height )
+   {
+      this( width, height, new int[ 0 ], new int[ 0 ], 0 );
+   }
+   
+   private SparseTileGrid( final int width,
+                           final int height,
+                           final int[] cells,
+                           final int[] tiles,
+                           final int count )
+   {
+      super( width, height );
+      this.cells = cells;
+      this.tiles = tiles;
+      this.count = count;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Creates a grid holding just the populated cells of a row-major array of tile indices.
+    * 
+    * @param width the number of tiles wide the grid is.
+    * @param height the number of tiles high the grid is.
+    * @param tiles the tile indices, <code>-1</code> for empty cells.
+    * @return a new grid containing the same tile indices.
+    */
+   public static SparseTileGrid fromTiles( final int width, final int height, final int[] tiles )
+   {
+      int count = 0;
+      for( int index = 0; index < tiles.length; index++ )
+      {
+         if( tiles[ index ] != -1 )
+         {
+            count++;
+         }
+      }
+      
+      final int[] cells = new int[ count ];
+      final int[] populated = new int[ count ];
+      int entry = 0;
+      for( int index = 0; index < tiles.length; index++ )
+      {
+         if( tiles[ index ] != -1 )
+         {
+            cells[ entry ] = index;
+            populated[ entry++ ] = tiles[ index ];
+         }
+      }
+      return new SparseTileGrid( width, height, cells, populated, count );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int get( final int index )
+   {
+      final int entry = Arrays.binarySearch( this.cells, 0, this.count, index );
+      return entry >= 0 ? this.tiles[ entry ] : -1;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void set( final int index, final int tile )
+   {
+      final int entry = Arrays.binarySearch( this.cells, 0, this.count, index );
+      if( entry >= 0 )
+      {
+         if( tile != -1 )
+         {
+            this.tiles[ entry ] = tile;
+         }
+         else
+         {
+            // Close the gap left by the emptied cell
+            System.arraycopy( this.cells, entry + 1, this.cells, entry, this.count - entry - 1 );
+            System.arraycopy( this.tiles, entry + 1, this.tiles, entry, this.count - entry - 1 );
+            this.count--;
+         }
+      }
+      else if( tile != -1 )
+      {
+         final int insert = -( entry + 1 );
+         if( this.count == this.cells.length )
+         {
+            final int capacity = Math.max( 8, this.count * 2 );
+            this.cells = Arrays.copyOf( this.cells, capacity );
+            this.tiles = Arrays.copyOf( this.tiles, capacity );
+         }
+         System.arraycopy( this.cells, insert, this.cells, insert + 1, this.count - insert );
+         System.arraycopy( this.tiles, insert, this.tiles, insert + 1, this.count - insert );
+         this.cells[ insert ] = index;
+         this.tiles[ insert ] = tile;
+         this.count++;
+      }
+   }
+   
+   /**
+    * @return the number of populated cells.
+    */
+   public int getEntryCount()
+   {
+      return this.count;
+   }
+   
+   /**
+    * @param index a cell index.
+    * @return the first entry whose cell index is at least <code>index</code>, or
+    *         {@link #getEntryCount()} if there is none.
+    */
+   public int findEntry( final int index )
+   {
+      final int entry = Arrays.binarySearch( this.cells, 0, this.count, index );
+      return entry >= 0 ? entry : -( entry + 1 );
+   }
+   
+   /**
+    * @param entry the entry, between 0 and {@link #getEntryCount()}.
+    * @return the index of the entry's cell.
+    */
+   public int getEntryCell( final int entry )
+   {
+      return this.cells[ entry ];
+   }
+   
+   /**
+    * @param entry the entry, between 0 and {@link #getEntryCount()}.
+    * @return the tile index in the entry's cell.
+    */
+   public int getEntryTile( final int entry )
+   {
+      return this.tiles[ entry ];
+   }
+}
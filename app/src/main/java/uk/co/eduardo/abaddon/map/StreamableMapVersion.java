@@ -0,0 +1,20 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * A {@link MapVersion} that can leave parts of the map on disk and read them as they are needed.
+ * 
+ * @author Ed
+ */
+public interface StreamableMapVersion extends MapVersion
+{
+   /**
+    * @param stream the stream from which the map is to be read.
+    * @param source re-opens the map file when parts of it are needed later.
+    * @return the read map definition.
+    * @throws IOException if a problem occurs reading from the stream.
+    */
+   MapDefinition readMap( DataInputStream stream, MapStreamSource source ) throws IOException;
+}
@@ -0,0 +1,274 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.util.Arrays;
+
+/**
+ * A rectangular grid of tile indices stored as a single row-major primitive array.
+ * <p>
+ * The narrowest element type that can hold every index of the tileset is used: a
+ * <code>byte[]</code> for tilesets of fewer than 256 tiles, a <code>short[]</code> for tilesets
+ * of fewer than 32768 tiles and an <code>int[]</code> otherwise. An empty cell is always
+ * reported as <code>-1</code>.
+ * <p>
+ * Cells are addressed by index, where <code>index = ( y * width ) + x</code>. For performance
+ * reasons the accessors do not check that the coordinates are within the grid; use
+ * {@link #contains(int, int)} when that is not already known.
+ * <p>
+ * Grids that are views of a map file rather than copies of it, such as the layers of a chunked
+ * map, are read-only and may not have every tile in memory. Check {@link #isReadOnly()} before
+ * calling {@link #set(int, int)} on a grid that did not come from {@link #create(int, int, int)}
+ * or {@link #fromTiles(int, int, int[])}.
+ * 
+ * @author Ed
+ */
+public abstract class TileGrid
+{
+   //================|  Fields             |====================================
+   
+   /** Largest tileset that can be stored in a byte grid. 0xFF is reserved for empty cells. */
+   private static final int MAX_BYTE_TILES = 0xFF;
+   
+   /** Largest tileset that can be stored in a short grid. */
+   private static final int MAX_SHORT_TILES = Short.MAX_VALUE;
+   
+   /** The number of tiles wide the grid is. */
+   protected final int width;
+   
+   /** The number of tiles high the grid is. */
+   protected final int height;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param width the number of tiles wide the grid is.
+    * @param height the number of tiles high the grid is.
+    */
+   protected TileGrid( final int width, final int height )
+   {
+      this.width = width;
+      this.height = height;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Creates an empty grid (every cell is <code>-1</code>) with the narrowest storage able to hold
+    * indices into a tileset of the given size.
+    * 
+    * @param width the number of tiles wide the grid is.
+    * @param height the number of tiles high the grid is.
+    * @param tileCount the number of tiles in the tileset the grid indexes.
+    * @return a new grid.
+    */
+   public static TileGrid create( final int width, final int height, final int tileCount )
+   {
+      if( tileCount <= MAX_BYTE_TILES )
+      {
+         return new ByteGrid( width, height );
+      }
+      if( tileCount <= MAX_SHORT_TILES )
+      {
+         return new ShortGrid( width, height );
+      }
+      return new IntGrid( width, height );
+   }
+   
+   /**
+    * Creates a grid from a row-major array of tile indices, using the narrowest storage able to
+    * hold the largest index present.
+    * 
+    * @param width the number of tiles wide the grid is.
+    * @param height the number of tiles high the grid is.
+    * @param tiles the tile indices, <code>-1</code> for empty cells.
+    * @return a new grid containing the same tile indices.
+    */
+   public static TileGrid fromTiles( final int width, final int height, final int[] tiles )
+   {
+      int maxTile = -1;
+      for( int index = 0; index < tiles.length; index++ )
+      {
+         maxTile = Math.max( maxTile, tiles[ index ] );
+      }
+      
+      final TileGrid grid = create( width, height, maxTile + 1 );
+      for( int index = 0; index < tiles.length; index++ )
+      {
+         grid.set( index, tiles[ index ] );
+      }
+      return grid;
+   }
+   
+   /**
+    * @return the number of tiles wide the grid is.
+    */
+   public final int getWidth()
+   {
+      return this.width;
+   }
+   
+   /**
+    * @return the number of tiles high the grid is.
+    */
+   public final int getHeight()
+   {
+      return this.height;
+   }
+   
+   /**
+    * @param x the X tile coordinate.
+    * @param y the Y tile coordinate.
+    * @return <code>true</code> if the coordinate lies within the grid.
+    */
+   public final boolean contains( final int x, final int y )
+   {
+      return x >= 0 && y >= 0 && x < this.width && y < this.height;
+   }
+   
+   /**
+    * @param x the X tile coordinate.
+    * @param y the Y tile coordinate.
+    * @return the index of the cell at that coordinate.
+    */
+   public final int indexOf( final int x, final int y )
+   {
+      return ( y * this.width ) + x;
+   }
+   
+   /**
+    * @param x the X tile coordinate.
+    * @param y the Y tile coordinate.
+    * @return the tile index at that coordinate or <code>-1</code> if the cell is empty.
+    */
+   public final int get( final int x, final int y )
+   {
+      return get( ( y * this.width ) + x );
+   }
+   
+   /**
+    * @param index the cell index. See {@link #indexOf(int, int)}.
+    * @return the tile index in that cell or <code>-1</code> if the cell is empty.
+    */
+   public abstract int get( final int index );
+   
+   /**
+    * Not every grid can be written to. See {@link #isReadOnly()}.
+    * 
+    * @param index the cell index. See {@link #indexOf(int, int)}.
+    * @param tile the tile index to store or <code>-1</code> to empty the cell.
+    * @throws UnsupportedOperationException if the grid is read-only.
+    */
+   public abstract void set( final int index, final int tile );
+   
+   /**
+    * @return <code>true</code> if {@link #set(int, int)} always throws an
+    *         <code>UnsupportedOperationException</code>. False for the grids created here.
+    */
+   public boolean isReadOnly()
+   {
+      return false;
+   }
+   
+   /**
+    * Checks whether the tiles in a range are in memory. Grids that stream their tiles in report
+    * missing tiles as empty rather than wait for them, so a caller that keeps what it reads, such
+    * as a cache of rendered tiles, should check this first.
+    * 
+    * @param xStart the left-most tile of the range.
+    * @param yStart the top-most tile of the range.
+    * @param xEnd one past the right-most tile of the range.
+    * @param yEnd one past the bottom-most tile of the range.
+    * @return <code>true</code> if every tile in the range can be read. Always true for the grids
+    *         created here.
+    */
+   public boolean isLoaded( final int xStart, final int yStart, final int xEnd, final int yEnd )
+   {
+      return true;
+   }
+   
+   
+   //================|  Inner Classes      |====================================
+   
+   /**
+    * Grid for tilesets of fewer than 256 tiles. Empty cells are stored as 0xFF.
+    */
+   private static final class ByteGrid extends TileGrid
+   {
+      private final byte[] tiles;
+      
+      ByteGrid( final int width, final int height )
+      {
+         super( width, height );
+         this.tiles = new byte[ width * height ];
+         Arrays.fill( this.tiles, (byte) MAX_BYTE_TILES );
+      }
+      
+      @Override
+      public int get( final int index )
+      {
+         final int tile = this.tiles[ index ] & 0xFF;
+         return tile == MAX_BYTE_TILES ? -1 : tile;
+      }
+      
+      @Override
+      public void set( final int index, final int tile )
+      {
+         this.tiles[ index ] = (byte) tile;
+      }
+   }
+   
+   /**
+    * Grid for tilesets of fewer than 32768 tiles. Empty cells are stored as -1.
+    */
+   private static final class ShortGrid extends TileGrid
+   {
+      private final short[] tiles;
+      
+      ShortGrid( final int width, final int height )
+      {
+         super( width, height );
+         this.tiles = new short[ width * height ];
+         Arrays.fill( this.tiles, (short) -1 );
+      }
+      
+      @Override
+      public int get( final int index )
+      {
+         return this.tiles[ index ];
+      }
+      
+      @Override
+      public void set( final int index, final int tile )
+      {
+         this.tiles[ index ] = (short) tile;
+      }
+   }
+   
+   /**
+    * Grid for any tileset.
+    */
+   private static final class IntGrid extends TileGrid
+   {
+      private final int[] tiles;
+      
+      IntGrid( final int width, final int height )
+      {
+         super( width, height );
+         this.tiles = new int[ width * height ];
+         Arrays.fill( this.tiles, -1 );
+      }
+      
+      @Override
+      public int get( final int index )
+      {
+         return this.tiles[ index ];
+      }
+      
+      @Override
+      public void set( final int index, final int tile )
+      {
+         this.tiles[ index ] = tile;
+      }
+   }
+}
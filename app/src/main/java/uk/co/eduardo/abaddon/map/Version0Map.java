@@ -5,6 +5,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 import uk.co.eduardo.abaddon.map.sections.ActionSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
 import uk.co.eduardo.abaddon.map.sections.HeaderSectionProducer;
 import uk.co.eduardo.abaddon.map.sections.MapSectionProducer;
 import uk.co.eduardo.abaddon.map.sections.MonsterSectionProducer;
@@ -39,6 +40,15 @@ public class Version0Map implements MapVersion
                                 new MonsterSectionProducer().readSection( stream ) );
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public HeaderSection readHeader( final DataInputStream stream ) throws IOException
+   {
+      return new HeaderSectionProducer().readSection( stream );
+   }
+   
    /**
     * {@inheritDoc}
     */
@@ -0,0 +1,67 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import uk.co.eduardo.abaddon.map.sections.ActionSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.CompressedMapSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+import uk.co.eduardo.abaddon.map.sections.HeaderSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.MonsterSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.NpcSectionProducer;
+
+/**
+ * Support for version 1 map files.
+ * <p>
+ * Identical to {@link Version0Map} except that the tile layers are compressed. See
+ * {@link CompressedMapSectionProducer}.
+ * 
+ * @author Ed
+ */
+public class Version1Map implements MapVersion
+{
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int getVersion()
+   {
+      return 1;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public MapDefinition readMap( final DataInputStream stream ) throws IOException
+   {
+      return new MapDefinition( new HeaderSectionProducer().readSection( stream ), 
+                                new NpcSectionProducer().readSection( stream ), 
+                                new ActionSectionProducer().readSection( stream ), 
+                                new CompressedMapSectionProducer().readSection( stream ), 
+                                new MonsterSectionProducer().readSection( stream ) );
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public HeaderSection readHeader( final DataInputStream stream ) throws IOException
+   {
+      return new HeaderSectionProducer().readSection( stream );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void writeMap( final DataOutputStream stream, final MapDefinition map ) throws IOException
+   {
+      new HeaderSectionProducer().writeSection( stream, map.headerSection );
+      new NpcSectionProducer().writeSection( stream, map.npcsSection );
+      new ActionSectionProducer().writeSection( stream, map.actionsSection );
+      new CompressedMapSectionProducer().writeSection( stream, map.mapsSection );
+      new MonsterSectionProducer().writeSection( stream, map.monstersSection );
+   }
+}
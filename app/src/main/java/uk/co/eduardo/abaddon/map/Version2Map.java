@@ -0,0 +1,84 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import uk.co.eduardo.abaddon.map.sections.ActionSection;
+import uk.co.eduardo.abaddon.map.sections.ActionSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.ChunkedMapSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+import uk.co.eduardo.abaddon.map.sections.HeaderSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.MapSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.NpcSection;
+import uk.co.eduardo.abaddon.map.sections.NpcSectionProducer;
+
+/**
+ * Support for version 2 map files.
+ * <p>
+ * The tile layers are split into chunks that are decoded as the hero approaches them. See
+ * {@link ChunkedMapSectionProducer}. The tile layers are stored after the monster section so
+ * that the chunk data is at the end of the file.
+ * 
+ * @author Ed
+ */
+public class Version2Map implements StreamableMapVersion
+{
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int getVersion()
+   {
+      return 2;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public MapDefinition readMap( final DataInputStream stream ) throws IOException
+   {
+      return readMap( stream, null );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public MapDefinition readMap( final DataInputStream stream, final MapStreamSource source )
+      throws IOException
+   {
+      final HeaderSection header = new HeaderSectionProducer().readSection( stream );
+      final NpcSection npcs = new NpcSectionProducer().readSection( stream );
+      final ActionSection actions = new ActionSectionProducer().readSection( stream );
+      final MonsterSection monsters = new MonsterSectionProducer().readSection( stream );
+      final MapSection maps = new ChunkedMapSectionProducer( source ).readSection( stream );
+      
+      return new MapDefinition( header, npcs, actions, maps, monsters );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public HeaderSection readHeader( final DataInputStream stream ) throws IOException
+   {
+      return new HeaderSectionProducer().readSection( stream );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void writeMap( final DataOutputStream stream, final MapDefinition map ) throws IOException
+   {
+      new HeaderSectionProducer().writeSection( stream, map.headerSection );
+      new NpcSectionProducer().writeSection( stream, map.npcsSection );
+      new ActionSectionProducer().writeSection( stream, map.actionsSection );
+      new MonsterSectionProducer().writeSection( stream, map.monstersSection );
+      new ChunkedMapSectionProducer().writeSection( stream, map.mapsSection );
+   }
+}
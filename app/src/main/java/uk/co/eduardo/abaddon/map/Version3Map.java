@@ -0,0 +1,250 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.co.eduardo.abaddon.map.sections.ActionSection;
+import uk.co.eduardo.abaddon.map.sections.ActionSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.CompressedMapSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.FileSection;
+import uk.co.eduardo.abaddon.map.sections.FileSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+import uk.co.eduardo.abaddon.map.sections.HeaderSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.MapSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.NpcSection;
+import uk.co.eduardo.abaddon.map.sections.NpcSectionProducer;
+import uk.co.eduardo.abaddon.util.DaemonThreadFactory;
+import uk.co.eduardo.abaddon.util.LoadStats;
+
+/**
+ * Support for version 3 map files.
+ * <p>
+ * The sections are the same as {@link Version1Map} but are preceded by a table of their lengths
+ * so that they can be read separately and decoded in parallel. In particular the NPC animations
+ * are decoded while the tile layers are inflated.
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * foreach section        // header, NPCs, actions, map, monsters
+ *   length: 4
+ * end
+ * foreach section
+ *   data: length
+ * end
+ * _____________________________________________________________________________
+ * </pre>
+ * 
+ * @author Ed
+ */
+public class Version3Map implements MapVersion
+{
+   //================|  Fields             |====================================
+   
+   /** The number of sections in the file. */
+   private static final int SECTION_COUNT = 5;
+   
+   /** Decodes the sections. The calling thread decodes the header itself. */
+   private static final ExecutorService DECODERS = Executors.newFixedThreadPool( 
+      Math.max( 1, Math.min( SECTION_COUNT - 1, Runtime.getRuntime().availableProcessors() - 1 ) ),
+      new DaemonThreadFactory( "SectionDecoder", Thread.NORM_PRIORITY ) ); //$NON-NLS-1$
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int getVersion()
+   {
+      return 3;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public MapDefinition readMap( final DataInputStream stream ) throws IOException
+   {
+      // Reading is cheap; it is the decoding that is worth spreading over several threads.
+      final byte[][] data = readSections( stream, SECTION_COUNT );
+      
+      // Start with the most expensive sections
+      final Future< MapSection > maps = decode( new CompressedMapSectionProducer(), data[ 3 ] );
+      final Future< NpcSection > npcs = decode( new NpcSectionProducer(), data[ 1 ] );
+      final Future< ActionSection > actions = decode( new ActionSectionProducer(), data[ 2 ] );
+      final Future< MonsterSection > monsters = decode( new MonsterSectionProducer(), data[ 4 ] );
+      final HeaderSection header = new HeaderSectionProducer().readSection( open( data[ 0 ] ) );
+      
+      return new MapDefinition( header, get( npcs ), get( actions ), get( maps ), get( monsters ) );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public HeaderSection readHeader( final DataInputStream stream ) throws IOException
+   {
+      // The header is the first section so only the length table needs skipping
+      stream.skipBytes( SECTION_COUNT * 4 );
+      return new HeaderSectionProducer().readSection( stream );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void writeMap( final DataOutputStream stream, final MapDefinition map ) throws IOException
+   {
+      final byte[][] data = new byte[ SECTION_COUNT ][];
+      data[ 0 ] = encode( new HeaderSectionProducer(), map.headerSection );
+      data[ 1 ] = encode( new NpcSectionProducer(), map.npcsSection );
+      data[ 2 ] = encode( new ActionSectionProducer(), map.actionsSection );
+      data[ 3 ] = encode( new CompressedMapSectionProducer(), map.mapsSection );
+      data[ 4 ] = encode( new MonsterSectionProducer(), map.monstersSection );
+      writeSections( stream, data );
+   }
+   
+   
+   //================|  Default Methods    |====================================
+   
+   /**
+    * Reads the section length table and the undecoded data of each section.
+    * 
+    * @param stream the stream from which to read.
+    * @param sectionCount the number of sections in the table.
+    * @return the data of each section.
+    * @throws IOException if a problem occurs reading from the stream.
+    */
+   static byte[][] readSections( final DataInputStream stream, final int sectionCount ) throws IOException
+   {
+      final int[] lengths = new int[ sectionCount ];
+      for( int section = 0; section < sectionCount; section++ )
+      {
+         lengths[ section ] = stream.readInt();
+      }
+      
+      final byte[][] data = new byte[ sectionCount ][];
+      for( int section = 0; section < sectionCount; section++ )
+      {
+         data[ section ] = new byte[ lengths[ section ] ];
+         stream.readFully( data[ section ] );
+      }
+      return data;
+   }
+   
+   /**
+    * Writes the section length table followed by the data of each section.
+    * 
+    * @param stream the stream to which to write.
+    * @param data the encoded sections.
+    * @throws IOException if a problem occurs writing to the stream.
+    */
+   static void writeSections( final DataOutputStream stream, final byte[][] data ) throws IOException
+   {
+      for( final byte[] section : data )
+      {
+         stream.writeInt( section.length );
+      }
+      for( final byte[] section : data )
+      {
+         stream.write( section );
+      }
+   }
+   
+   /**
+    * @param data the encoded section.
+    * @return a stream over the encoded section.
+    */
+   static DataInputStream open( final byte[] data )
+   {
+      return new DataInputStream( new ByteArrayInputStream( data ) );
+   }
+   
+   /**
+    * Decodes a section on the decoder pool.
+    * 
+    * @param producer decodes the section.
+    * @param data the encoded section.
+    * @return the pending section.
+    */
+   static < T extends FileSection > Future< T > decode( final FileSectionProducer< T > producer,
+                                                        final byte[] data )
+   {
+      // Time the work done on the pool as part of the caller's load
+      final LoadStats stats = LoadStats.getCurrent();
+      return DECODERS.submit( new Callable< T >()
+      {
+         @Override
+         public T call() throws IOException
+         {
+            LoadStats.attach( stats );
+            try
+            {
+               return producer.readSection( open( data ) );
+            }
+            finally
+            {
+               LoadStats.attach( null );
+            }
+         }
+      } );
+   }
+   
+   /**
+    * @param future a section being decoded by {@link #decode(FileSectionProducer, byte[])}.
+    * @return the decoded section.
+    * @throws IOException if the section could not be decoded.
+    */
+   static < T extends FileSection > T get( final Future< T > future ) throws IOException
+   {
+      try
+      {
+         return future.get();
+      }
+      catch( final InterruptedException exception )
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException( "Interrupted while decoding the map", exception ); //$NON-NLS-1$
+      }
+      catch( final ExecutionException exception )
+      {
+         final Throwable cause = exception.getCause();
+         if( cause instanceof IOException )
+         {
+            throw (IOException) cause;
+         }
+         if( cause instanceof RuntimeException )
+         {
+            throw (RuntimeException) cause;
+         }
+         throw new IOException( "Could not decode the map", cause ); //$NON-NLS-1$
+      }
+   }
+   
+   /**
+    * @param producer encodes the section.
+    * @param section the section to encode.
+    * @return the encoded section.
+    * @throws IOException if the section could not be encoded.
+    */
+   static < T extends FileSection > byte[] encode( final FileSectionProducer< T > producer,
+                                                   final T section ) throws IOException
+   {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream( bytes );
+      producer.writeSection( out, section );
+      out.flush();
+      return bytes.toByteArray();
+   }
+}
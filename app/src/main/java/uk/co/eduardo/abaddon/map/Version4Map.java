@@ -0,0 +1,158 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import uk.co.eduardo.abaddon.map.sections.ActionSection;
+import uk.co.eduardo.abaddon.map.sections.ActionSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.CompressedMapSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
+import uk.co.eduardo.abaddon.map.sections.DerivedSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+import uk.co.eduardo.abaddon.map.sections.HeaderSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.MapSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.NpcSection;
+import uk.co.eduardo.abaddon.map.sections.NpcSectionProducer;
+
+/**
+ * Support for version 4 map files.
+ * <p>
+ * The same as {@link Version3Map} but the section table starts with the number of sections. A
+ * compiled map has a sixth section holding the {@link DerivedSection} written by the
+ * {@link MapCompiler}.
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * sectionCount: 1        // 5, or 6 if the map was compiled
+ * foreach section        // header, NPCs, actions, map, monsters[, derived]
+ *   length: 4
+ * end
+ * foreach section
+ *   data: length
+ * end
+ * _____________________________________________________________________________
+ * </pre>
+ * 
+ * @author Ed
+ */
+public class Version4Map implements MapVersion
+{
+   //================|  Fields             |====================================
+   
+   /** The number of sections in a map that has not been compiled. */
+   static final int BASE_SECTION_COUNT = 5;
+   
+   /** Index of the derived section in a compiled map. */
+   static final int DERIVED_SECTION = 5;
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int getVersion()
+   {
+      return 4;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public MapDefinition readMap( final DataInputStream stream ) throws IOException
+   {
+      final byte[][] data = readSections( stream );
+      
+      // Start with the most expensive sections
+      final Future< MapSection > maps =
+         Version3Map.decode( new CompressedMapSectionProducer(), data[ 3 ] );
+      final Future< NpcSection > npcs = Version3Map.decode( new NpcSectionProducer(), data[ 1 ] );
+      final Future< DerivedSection > derived = data.length > DERIVED_SECTION ?
+         Version3Map.decode( new DerivedSectionProducer(), data[ DERIVED_SECTION ] ) : null;
+      final Future< ActionSection > actions =
+         Version3Map.decode( new ActionSectionProducer(), data[ 2 ] );
+      final Future< MonsterSection > monsters =
+         Version3Map.decode( new MonsterSectionProducer(), data[ 4 ] );
+      final HeaderSection header =
+         new HeaderSectionProducer().readSection( Version3Map.open( data[ 0 ] ) );
+      
+      return new MapDefinition( header,
+                                Version3Map.get( npcs ),
+                                Version3Map.get( actions ),
+                                Version3Map.get( maps ),
+                                Version3Map.get( monsters ),
+                                derived != null ? Version3Map.get( derived ) : null );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public HeaderSection readHeader( final DataInputStream stream ) throws IOException
+   {
+      // The header is the first section so only the length table needs skipping
+      final int sectionCount = stream.read();
+      stream.skipBytes( sectionCount * 4 );
+      return new HeaderSectionProducer().readSection( stream );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void writeMap( final DataOutputStream stream, final MapDefinition map ) throws IOException
+   {
+      final boolean compiled = map.derivedSection != null;
+      final byte[][] data = new byte[ compiled ? BASE_SECTION_COUNT + 1 : BASE_SECTION_COUNT ][];
+      data[ 0 ] = Version3Map.encode( new HeaderSectionProducer(), map.headerSection );
+      data[ 1 ] = Version3Map.encode( new NpcSectionProducer(), map.npcsSection );
+      data[ 2 ] = Version3Map.encode( new ActionSectionProducer(), map.actionsSection );
+      data[ 3 ] = Version3Map.encode( new CompressedMapSectionProducer(), map.mapsSection );
+      data[ 4 ] = Version3Map.encode( new MonsterSectionProducer(), map.monstersSection );
+      if( compiled )
+      {
+         data[ DERIVED_SECTION ] =
+            Version3Map.encode( new DerivedSectionProducer(), map.derivedSection );
+      }
+      writeSections( stream, data );
+   }
+   
+   
+   //================|  Default Methods    |====================================
+   
+   /**
+    * Reads the section count, the section length table and the undecoded data of each section.
+    * 
+    * @param stream the stream from which to read, positioned after the version number.
+    * @return the data of each section.
+    * @throws IOException if a problem occurs reading from the stream.
+    */
+   static byte[][] readSections( final DataInputStream stream ) throws IOException
+   {
+      final int sectionCount = stream.read();
+      if( sectionCount < BASE_SECTION_COUNT )
+      {
+         throw new IOException( "Missing map sections" ); //$NON-NLS-1$
+      }
+      return Version3Map.readSections( stream, sectionCount );
+   }
+   
+   /**
+    * Writes the section count, the section length table and the data of each section.
+    * 
+    * @param stream the stream to which to write, positioned after the version number.
+    * @param data the encoded sections.
+    * @throws IOException if a problem occurs writing to the stream.
+    */
+   static void writeSections( final DataOutputStream stream, final byte[][] data ) throws IOException
+   {
+      stream.write( data.length );
+      Version3Map.writeSections( stream, data );
+   }
+}
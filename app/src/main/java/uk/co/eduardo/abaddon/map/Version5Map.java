@@ -0,0 +1,161 @@
+package uk.co.eduardo.abaddon.map;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+import uk.co.eduardo.abaddon.map.sections.ActionSection;
+import uk.co.eduardo.abaddon.map.sections.ActionSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.ChunkedMapSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
+import uk.co.eduardo.abaddon.map.sections.DerivedSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.HeaderSection;
+import uk.co.eduardo.abaddon.map.sections.HeaderSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.MapSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSection;
+import uk.co.eduardo.abaddon.map.sections.MonsterSectionProducer;
+import uk.co.eduardo.abaddon.map.sections.NpcSection;
+import uk.co.eduardo.abaddon.map.sections.NpcSectionProducer;
+
+/**
+ * Support for version 5 map files.
+ * <p>
+ * The chunked form of {@link Version4Map}, for maps too big to decode in one go. Every section
+ * but the tile layers is in the section table. The tile layers follow the table as a
+ * {@link ChunkedMapSectionProducer chunked map section} so that, as in a {@link Version2Map},
+ * the chunk data is at the end of the file and can be streamed in. A compiled map has a fifth
+ * section in the table holding the {@link DerivedSection} written by the {@link MapCompiler}.
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * sectionCount: 1        // 4, or 5 if the map was compiled
+ * foreach section        // header, NPCs, actions, monsters[, derived]
+ *   length: 4
+ * end
+ * foreach section
+ *   data: length
+ * end
+ * maps: chunked map section
+ * _____________________________________________________________________________
+ * </pre>
+ * 
+ * @author Ed
+ */
+public class Version5Map implements StreamableMapVersion
+{
+   //================|  Fields             |====================================
+   
+   /** The number of sections in the table of a map that has not been compiled. */
+   static final int BASE_SECTION_COUNT = 4;
+   
+   /** Index of the derived section in the table of a compiled map. */
+   static final int DERIVED_SECTION = 4;
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int getVersion()
+   {
+      return 5;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public MapDefinition readMap( final DataInputStream stream ) throws IOException
+   {
+      return readMap( stream, null );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public MapDefinition readMap( final DataInputStream stream, final MapStreamSource source )
+      throws IOException
+   {
+      final byte[][] data = readSections( stream );
+      
+      // Decode the table while the chunk layout is read from the stream
+      final Future< NpcSection > npcs = Version3Map.decode( new NpcSectionProducer(), data[ 1 ] );
+      final Future< DerivedSection > derived = data.length > DERIVED_SECTION ?
+         Version3Map.decode( new DerivedSectionProducer(), data[ DERIVED_SECTION ] ) : null;
+      final Future< ActionSection > actions =
+         Version3Map.decode( new ActionSectionProducer(), data[ 2 ] );
+      final Future< MonsterSection > monsters =
+         Version3Map.decode( new MonsterSectionProducer(), data[ 3 ] );
+      final HeaderSection header =
+         new HeaderSectionProducer().readSection( Version3Map.open( data[ 0 ] ) );
+      final MapSection maps = new ChunkedMapSectionProducer( source ).readSection( stream );
+      
+      return new MapDefinition( header,
+                                Version3Map.get( npcs ),
+                                Version3Map.get( actions ),
+                                maps,
+                                Version3Map.get( monsters ),
+                                derived != null ? Version3Map.get( derived ) : null );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public HeaderSection readHeader( final DataInputStream stream ) throws IOException
+   {
+      // The header is the first section so only the length table needs skipping
+      final int sectionCount = stream.read();
+      stream.skipBytes( sectionCount * 4 );
+      return new HeaderSectionProducer().readSection( stream );
+   }
+   
+   /**
+    * {@inheritDoc}
+    * <p>
+    * The stream must have been opened at the start of the file. See
+    * {@link ChunkedMapSectionProducer#writeSection(DataOutputStream, MapSection)}.
+    */
+   @Override
+   public void writeMap( final DataOutputStream stream, final MapDefinition map ) throws IOException
+   {
+      final boolean compiled = map.derivedSection != null;
+      final byte[][] data = new byte[ compiled ? BASE_SECTION_COUNT + 1 : BASE_SECTION_COUNT ][];
+      data[ 0 ] = Version3Map.encode( new HeaderSectionProducer(), map.headerSection );
+      data[ 1 ] = Version3Map.encode( new NpcSectionProducer(), map.npcsSection );
+      data[ 2 ] = Version3Map.encode( new ActionSectionProducer(), map.actionsSection );
+      data[ 3 ] = Version3Map.encode( new MonsterSectionProducer(), map.monstersSection );
+      if( compiled )
+      {
+         data[ DERIVED_SECTION ] =
+            Version3Map.encode( new DerivedSectionProducer(), map.derivedSection );
+      }
+      Version4Map.writeSections( stream, data );
+      new ChunkedMapSectionProducer().writeSection( stream, map.mapsSection );
+   }
+   
+   
+   //================|  Default Methods    |====================================
+   
+   /**
+    * Reads the section count, the section length table and the undecoded data of each section in
+    * the table. The stream is left at the start of the tile layers.
+    * 
+    * @param stream the stream from which to read, positioned after the version number.
+    * @return the data of each section in the table.
+    * @throws IOException if a problem occurs reading from the stream.
+    */
+   static byte[][] readSections( final DataInputStream stream ) throws IOException
+   {
+      final int sectionCount = stream.read();
+      if( sectionCount < BASE_SECTION_COUNT )
+      {
+         throw new IOException( "Missing map sections" ); //$NON-NLS-1$
+      }
+      return Version3Map.readSections( stream, sectionCount );
+   }
+}
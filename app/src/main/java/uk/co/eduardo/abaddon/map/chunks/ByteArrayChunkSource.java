@@ -0,0 +1,40 @@
+package uk.co.eduardo.abaddon.map.chunks;
+
+import java.util.Arrays;
+
+/**
+ * Serves chunk data that has already been read into memory. The data is still only decoded into
+ * tile grids as the chunks are needed.
+ * 
+ * @author Ed
+ */
+public class ByteArrayChunkSource implements ChunkSource
+{
+   //================|  Fields             |====================================
+   
+   /** All of the chunk data. */
+   private final byte[] data;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param data all of the chunk data.
+    */
+   public ByteArrayChunkSource( final byte[] data )
+   {
+      this.data = data;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public byte[] read( final int offset, final int length )
+   {
+      return Arrays.copyOfRange( this.data, offset, offset + length );
+   }
+}
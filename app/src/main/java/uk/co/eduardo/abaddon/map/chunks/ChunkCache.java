@@ -0,0 +1,300 @@
+package uk.co.eduardo.abaddon.map.chunks;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import uk.co.eduardo.abaddon.map.TileGrid;
+import uk.co.eduardo.abaddon.util.DaemonThreadFactory;
+
+/**
+ * Keeps the chunks around the hero decoded and lets the rest of the map go.
+ * <p>
+ * {@link #update(int, int)} is called as the hero moves. The chunks within
+ * {@link #PREFETCH_RADIUS} of the hero's chunk are decoded on a background thread before they are
+ * needed and the chunks further away than {@link #EVICT_RADIUS} are dropped. The game and render
+ * threads read chunks with {@link #getResidentChunk(int)}, which never waits for the file: a
+ * chunk that has not arrived yet is queued and reads as empty until it does. Threads that can
+ * afford to wait use {@link #getChunk(int)}, {@link #preload(int, int)} or
+ * {@link #preloadAll()}.
+ * 
+ * @author Ed
+ */
+public class ChunkCache
+{
+   //================|  Fields             |====================================
+   
+   /** Chunks this many chunks or fewer from the hero's chunk are prefetched. */
+   public static final int PREFETCH_RADIUS = 1;
+   
+   /** Chunks more than this many chunks from the hero's chunk are evicted. */
+   public static final int EVICT_RADIUS = 2;
+   
+   /** Where the chunks lie in the source. */
+   private final ChunkLayout layout;
+   
+   /** Provides the encoded chunk data. */
+   private final ChunkSource source;
+   
+   /** The decoded layers of each resident chunk, or null if the chunk is not resident. */
+   private final AtomicReferenceArray< TileGrid[] > resident;
+   
+   /** 1 for each chunk queued for prefetching, 0 otherwise. */
+   private final AtomicIntegerArray queued;
+   
+   /** Decodes prefetched chunks. Created when first needed. */
+   private ExecutorService loader;
+   
+   /** True once the cache has been released. No more chunks are queued afterwards. */
+   private boolean released = false;
+   
+   /** The X chunk coordinate of the last update. */
+   private int centreX = -1;
+   
+   /** The Y chunk coordinate of the last update. */
+   private int centreY = -1;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param layout where the chunks lie in the source.
+    * @param source provides the encoded chunk data.
+    */
+   public ChunkCache( final ChunkLayout layout, final ChunkSource source )
+   {
+      this.layout = layout;
+      this.source = source;
+      this.resident = new AtomicReferenceArray< TileGrid[] >( layout.getChunkCount() );
+      this.queued = new AtomicIntegerArray( layout.getChunkCount() );
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @return where the chunks lie in the source.
+    */
+   public ChunkLayout getLayout()
+   {
+      return this.layout;
+   }
+   
+   /**
+    * Gets the decoded layers of a chunk, decoding them now if they are not resident. This reads
+    * the file so must not be called on the game or render threads.
+    * 
+    * @param chunk the chunk index.
+    * @return one grid per layer covering just the chunk.
+    * @throws IllegalStateException if the chunk could not be read.
+    */
+   public TileGrid[] getChunk( final int chunk )
+   {
+      final TileGrid[] grids = this.resident.get( chunk );
+      if( grids != null )
+      {
+         return grids;
+      }
+      
+      try
+      {
+         return load( chunk );
+      }
+      catch( final IOException exception )
+      {
+         throw new IllegalStateException( "Could not read map chunk " + chunk, exception ); //$NON-NLS-1$
+      }
+   }
+   
+   /**
+    * Gets the decoded layers of a chunk if they are resident. Otherwise the chunk is queued to be
+    * decoded in the background and nothing is returned, so this never waits for the file.
+    * 
+    * @param chunk the chunk index.
+    * @return one grid per layer covering just the chunk, or <code>null</code> if the chunk is not
+    *         resident yet.
+    */
+   public TileGrid[] getResidentChunk( final int chunk )
+   {
+      final TileGrid[] grids = this.resident.get( chunk );
+      if( grids == null && this.queued.get( chunk ) == 0 )
+      {
+         request( chunk );
+      }
+      return grids;
+   }
+   
+   /**
+    * Decodes the chunks within {@link #PREFETCH_RADIUS} of a tile now, so that they are resident
+    * when the map is first drawn. This reads the file so must not be called on the game or render
+    * threads.
+    * 
+    * @param xTile the X tile coordinate of the hero.
+    * @param yTile the Y tile coordinate of the hero.
+    * @throws IOException if a chunk could not be read.
+    */
+   public void preload( final int xTile, final int yTile ) throws IOException
+   {
+      final int shift = this.layout.getChunkShift();
+      final int chunkX = xTile >> shift;
+      final int chunkY = yTile >> shift;
+      for( int y = Math.max( chunkY - PREFETCH_RADIUS, 0 );
+           y <= Math.min( chunkY + PREFETCH_RADIUS, this.layout.getChunksHigh() - 1 );
+           y++ )
+      {
+         for( int x = Math.max( chunkX - PREFETCH_RADIUS, 0 );
+              x <= Math.min( chunkX + PREFETCH_RADIUS, this.layout.getChunksWide() - 1 );
+              x++ )
+         {
+            final int chunk = ( y * this.layout.getChunksWide() ) + x;
+            if( this.resident.get( chunk ) == null )
+            {
+               load( chunk );
+            }
+         }
+      }
+   }
+   
+   /**
+    * Decodes every chunk now, so that every tile of the map reads as it is in the file. Meant for
+    * tools that work on the whole map. This reads the file so must not be called on the game or
+    * render threads.
+    * 
+    * @throws IOException if a chunk could not be read.
+    */
+   public void preloadAll() throws IOException
+   {
+      for( int chunk = 0; chunk < this.layout.getChunkCount(); chunk++ )
+      {
+         if( this.resident.get( chunk ) == null )
+         {
+            load( chunk );
+         }
+      }
+   }
+   
+   /**
+    * Prefetches the chunks around a tile and evicts the distant ones. Does nothing unless the
+    * tile is in a different chunk to the one passed to the last update.
+    * 
+    * @param xTile the X tile coordinate of the hero.
+    * @param yTile the Y tile coordinate of the hero.
+    */
+   public synchronized void update( final int xTile, final int yTile )
+   {
+      final int shift = this.layout.getChunkShift();
+      final int chunkX = xTile >> shift;
+      final int chunkY = yTile >> shift;
+      if( chunkX == this.centreX && chunkY == this.centreY )
+      {
+         return;
+      }
+      this.centreX = chunkX;
+      this.centreY = chunkY;
+      
+      final int chunksWide = this.layout.getChunksWide();
+      for( int chunk = 0; chunk < this.layout.getChunkCount(); chunk++ )
+      {
+         final int distance = Math.max( Math.abs( ( chunk % chunksWide ) - chunkX ),
+                                        Math.abs( ( chunk / chunksWide ) - chunkY ) );
+         if( distance > EVICT_RADIUS )
+         {
+            this.resident.set( chunk, null );
+         }
+         else if( distance <= PREFETCH_RADIUS &&
+                  this.resident.get( chunk ) == null &&
+                  this.queued.compareAndSet( chunk, 0, 1 ) )
+         {
+            prefetch( chunk );
+         }
+      }
+   }
+   
+   /**
+    * @return the number of chunks currently decoded.
+    */
+   public int getResidentChunkCount()
+   {
+      int count = 0;
+      for( int chunk = 0; chunk < this.resident.length(); chunk++ )
+      {
+         if( this.resident.get( chunk ) != null )
+         {
+            count++;
+         }
+      }
+      return count;
+   }
+   
+   /**
+    * Stops any prefetching. Resident chunks can still be read afterwards but no more are queued.
+    */
+   public synchronized void release()
+   {
+      this.released = true;
+      if( this.loader != null )
+      {
+         this.loader.shutdownNow();
+         this.loader = null;
+      }
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   /**
+    * Queues a chunk that was needed before it was prefetched.
+    */
+   private synchronized void request( final int chunk )
+   {
+      if( !this.released && this.queued.compareAndSet( chunk, 0, 1 ) )
+      {
+         prefetch( chunk );
+      }
+   }
+   
+   private void prefetch( final int chunk )
+   {
+      if( this.loader == null )
+      {
+         this.loader = Executors.newSingleThreadExecutor(
+            new DaemonThreadFactory( "ChunkLoader", Thread.MIN_PRIORITY ) ); //$NON-NLS-1$
+      }
+      
+      this.loader.execute( new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               if( ChunkCache.this.resident.get( chunk ) == null )
+               {
+                  load( chunk );
+               }
+            }
+            catch( final IOException exception )
+            {
+               // Leave it to be read on demand, which reports the failure.
+            }
+            finally
+            {
+               ChunkCache.this.queued.set( chunk, 0 );
+            }
+         }
+      } );
+   }
+   
+   private TileGrid[] load( final int chunk ) throws IOException
+   {
+      final byte[] data = this.source.read( this.layout.getChunkOffset( chunk ),
+                                            this.layout.getChunkLength( chunk ) );
+      final TileGrid[] grids = this.layout.decodeChunk( chunk, data );
+      
+      // Both threads may decode the same chunk; whichever finishes last wins, which is harmless.
+      this.resident.set( chunk, grids );
+      return grids;
+   }
+}
@@ -0,0 +1,320 @@
+package uk.co.eduardo.abaddon.map.chunks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import uk.co.eduardo.abaddon.map.SparseTileGrid;
+import uk.co.eduardo.abaddon.map.TileGrid;
+import uk.co.eduardo.abaddon.util.VarintUtilities;
+
+/**
+ * Describes how the layers of a map are split into square chunks and where the encoded data for
+ * each chunk lies.
+ * <p>
+ * Chunks are numbered row-major. The data for all the layers of a chunk is stored contiguously,
+ * base layer first, so that a whole chunk can be read with a single request. Each layer of a
+ * chunk is stored as run-length encoded row-major tiles:
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * foreach run
+ *   runLength: varint
+ *   tileId: varint       // The tile index plus one so that empty cells are stored as 0
+ * end
+ * _____________________________________________________________________________
+ * </pre>
+ * A layer with no tiles in a chunk is stored with a length of 0.
+ * 
+ * @author Ed
+ */
+public class ChunkLayout
+{
+   //================|  Fields             |====================================
+   
+   /** The default chunk size is 1 &lt;&lt; 5 = 32 tiles. */
+   public static final int DEFAULT_CHUNK_SHIFT = 5;
+   
+   /** The number of tiles wide the map is. */
+   private final int width;
+   
+   /** The number of tiles high the map is. */
+   private final int height;
+   
+   /** The number of layers in the map. */
+   private final int layerCount;
+   
+   /** log2 of the number of tiles along each side of a chunk. */
+   private final int chunkShift;
+   
+   /** The number of chunks across the map. */
+   private final int chunksWide;
+   
+   /** The number of chunks down the map. */
+   private final int chunksHigh;
+   
+   /** Offset of the data for each chunk layer, indexed by ( chunk * layerCount ) + layer. */
+   private final int[] offsets;
+   
+   /** Length of the data for each chunk layer, indexed as {@link #offsets}. */
+   private final int[] lengths;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param width the number of tiles wide the map is.
+    * @param height the number of tiles high the map is.
+    * @param layerCount the number of layers in the map.
+    * @param chunkShift log2 of the number of tiles along each side of a chunk.
+    * @param lengths the length in bytes of the data for each chunk layer, indexed by
+    *                <code>( chunk * layerCount ) + layer</code>.
+    */
+   public ChunkLayout( final int width,
+                       final int height,
+                       final int layerCount,
+                       final int chunkShift,
+                       final int[] lengths )
+   {
+      this.width = width;
+      this.height = height;
+      this.layerCount = layerCount;
+      this.chunkShift = chunkShift;
+      
+      final int chunkSize = 1 << chunkShift;
+      this.chunksWide = ( width + chunkSize - 1 ) >> chunkShift;
+      this.chunksHigh = ( height + chunkSize - 1 ) >> chunkShift;
+      
+      if( lengths.length != this.chunksWide * this.chunksHigh * layerCount )
+      {
+         throw new IllegalArgumentException( "Chunk table does not match the map size" ); //$NON-NLS-1$
+      }
+      
+      this.lengths = lengths;
+      this.offsets = new int[ lengths.length ];
+      int offset = 0;
+      for( int index = 0; index < lengths.length; index++ )
+      {
+         this.offsets[ index ] = offset;
+         offset += lengths[ index ];
+      }
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @return the number of tiles wide the map is.
+    */
+   public int getWidth()
+   {
+      return this.width;
+   }
+   
+   /**
+    * @return the number of tiles high the map is.
+    */
+   public int getHeight()
+   {
+      return this.height;
+   }
+   
+   /**
+    * @return the number of layers in the map.
+    */
+   public int getLayerCount()
+   {
+      return this.layerCount;
+   }
+   
+   /**
+    * @return log2 of the number of tiles along each side of a chunk.
+    */
+   public int getChunkShift()
+   {
+      return this.chunkShift;
+   }
+   
+   /**
+    * @return the number of chunks across the map.
+    */
+   public int getChunksWide()
+   {
+      return this.chunksWide;
+   }
+   
+   /**
+    * @return the number of chunks down the map.
+    */
+   public int getChunksHigh()
+   {
+      return this.chunksHigh;
+   }
+   
+   /**
+    * @return the total number of chunks.
+    */
+   public int getChunkCount()
+   {
+      return this.chunksWide * this.chunksHigh;
+   }
+   
+   /**
+    * @param x the X tile coordinate.
+    * @param y the Y tile coordinate.
+    * @return the index of the chunk containing that tile.
+    */
+   public int getChunkIndex( final int x, final int y )
+   {
+      return ( ( y >> this.chunkShift ) * this.chunksWide ) + ( x >> this.chunkShift );
+   }
+   
+   /**
+    * @param chunk the chunk index.
+    * @return the number of tiles wide the chunk is. Chunks on the right edge may be narrower.
+    */
+   public int getChunkWidth( final int chunk )
+   {
+      final int left = ( chunk % this.chunksWide ) << this.chunkShift;
+      return Math.min( 1 << this.chunkShift, this.width - left );
+   }
+   
+   /**
+    * @param chunk the chunk index.
+    * @return the number of tiles high the chunk is. Chunks on the bottom edge may be shorter.
+    */
+   public int getChunkHeight( final int chunk )
+   {
+      final int top = ( chunk / this.chunksWide ) << this.chunkShift;
+      return Math.min( 1 << this.chunkShift, this.height - top );
+   }
+   
+   /**
+    * @param chunk the chunk index.
+    * @return the offset of the first byte of the chunk's data.
+    */
+   public int getChunkOffset( final int chunk )
+   {
+      return this.offsets[ chunk * this.layerCount ];
+   }
+   
+   /**
+    * @param chunk the chunk index.
+    * @return the number of bytes of data for all the layers of the chunk.
+    */
+   public int getChunkLength( final int chunk )
+   {
+      int length = 0;
+      for( int layer = 0; layer < this.layerCount; layer++ )
+      {
+         length += this.lengths[ ( chunk * this.layerCount ) + layer ];
+      }
+      return length;
+   }
+   
+   /**
+    * Decodes every layer of a chunk.
+    * 
+    * @param chunk the chunk index.
+    * @param data the chunk's data, as returned by {@link ChunkSource#read(int, int)}.
+    * @return one grid per layer covering just the chunk.
+    * @throws IOException if the data is corrupt.
+    */
+   public TileGrid[] decodeChunk( final int chunk, final byte[] data ) throws IOException
+   {
+      final int chunkWidth = getChunkWidth( chunk );
+      final int chunkHeight = getChunkHeight( chunk );
+      final int size = chunkWidth * chunkHeight;
+      
+      final TileGrid[] grids = new TileGrid[ this.layerCount ];
+      final int[] tiles = new int[ size ];
+      final ByteBuffer buffer = ByteBuffer.wrap( data );
+      for( int layer = 0; layer < this.layerCount; layer++ )
+      {
+         final int length = this.lengths[ ( chunk * this.layerCount ) + layer ];
+         if( length == 0 )
+         {
+            // Nothing stored for this layer in this chunk
+            Arrays.fill( tiles, -1 );
+         }
+         else
+         {
+            final int end = buffer.position() + length;
+            int index = 0;
+            while( buffer.position() < end )
+            {
+               final int runLength = VarintUtilities.readVarint( buffer );
+               final int tile = VarintUtilities.readVarint( buffer ) - 1;
+               if( index + runLength > size )
+               {
+                  throw new IOException( "Chunk runs overflow the chunk" ); //$NON-NLS-1$
+               }
+               Arrays.fill( tiles, index, index + runLength, tile );
+               index += runLength;
+            }
+            if( index != size )
+            {
+               throw new IOException( "Chunk runs do not cover the chunk" ); //$NON-NLS-1$
+            }
+         }
+         
+         // Only the base layer is dense
+         grids[ layer ] = layer == 0 ?
+                          TileGrid.fromTiles( chunkWidth, chunkHeight, tiles ) :
+                          SparseTileGrid.fromTiles( chunkWidth, chunkHeight, tiles );
+      }
+      return grids;
+   }
+   
+   /**
+    * Encodes one layer of a chunk.
+    * 
+    * @param grid the whole layer.
+    * @param chunkX the X chunk coordinate.
+    * @param chunkY the Y chunk coordinate.
+    * @return the encoded data; empty if the layer has no tiles in the chunk.
+    * @throws IOException if a problem occurs encoding the data.
+    */
+   public byte[] encodeChunk( final TileGrid grid, final int chunkX, final int chunkY )
+      throws IOException
+   {
+      final int chunk = ( chunkY * this.chunksWide ) + chunkX;
+      final int left = chunkX << this.chunkShift;
+      final int top = chunkY << this.chunkShift;
+      final int right = left + getChunkWidth( chunk );
+      final int bottom = top + getChunkHeight( chunk );
+      
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream( bytes );
+      
+      boolean empty = true;
+      int runTile = 0;
+      int runLength = 0;
+      for( int y = top; y < bottom; y++ )
+      {
+         for( int x = left; x < right; x++ )
+         {
+            final int tile = grid.get( x, y );
+            empty &= tile == -1;
+            if( runLength > 0 && tile != runTile )
+            {
+               VarintUtilities.writeVarint( out, runLength );
+               VarintUtilities.writeVarint( out, runTile + 1 );
+               runLength = 0;
+            }
+            runTile = tile;
+            runLength++;
+         }
+      }
+      if( empty )
+      {
+         return new byte[ 0 ];
+      }
+      VarintUtilities.writeVarint( out, runLength );
+      VarintUtilities.writeVarint( out, runTile + 1 );
+      out.flush();
+      return bytes.toByteArray();
+   }
+}
@@ -0,0 +1,19 @@
+package uk.co.eduardo.abaddon.map.chunks;
+
+import java.io.IOException;
+
+/**
+ * Provides the encoded chunk data of a chunked map. See {@link ChunkLayout}.
+ * 
+ * @author Ed
+ */
+public interface ChunkSource
+{
+   /**
+    * @param offset the offset of the first byte, relative to the start of the chunk data.
+    * @param length the number of bytes to read.
+    * @return the requested bytes.
+    * @throws IOException if the data could not be read.
+    */
+   byte[] read( int offset, int length ) throws IOException;
+}
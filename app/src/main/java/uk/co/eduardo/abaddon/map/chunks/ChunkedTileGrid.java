@@ -0,0 +1,185 @@
+package uk.co.eduardo.abaddon.map.chunks;
+
+import uk.co.eduardo.abaddon.map.TileGrid;
+
+/**
+ * A read-only view of one layer of a chunked map. Tiles are looked up in the chunk that contains
+ * them if the {@link ChunkCache} has it resident. Reads never wait for the file; a tile in a
+ * chunk that has not arrived yet reads as empty and the chunk is queued. Use
+ * {@link #isLoaded(int, int, int, int)} to tell an empty tile from a missing one.
+ * <p>
+ * Reads mostly come in runs over the same part of the map, so the chunk of the last read is
+ * remembered and a read that falls in it skips the chunk lookup altogether.
+ * 
+ * @author Ed
+ */
+public class ChunkedTileGrid extends TileGrid
+{
+   //================|  Fields             |====================================
+   
+   /** Remembers nothing, so that the first read always looks its chunk up. */
+   private static final Cursor NO_CURSOR = new Cursor( 0, 0, 0, 0, null );
+   
+   /** Holds the decoded chunks. */
+   private final ChunkCache cache;
+   
+   /** The layer of each chunk this grid views. */
+   private final int layer;
+   
+   /** Masks a tile coordinate to a coordinate within its chunk. */
+   private final int chunkMask;
+   
+   /**
+    * The chunk read last. Replaced rather than updated so that the game and render threads
+    * can share it without locking.
+    */
+   private volatile Cursor cursor = NO_CURSOR;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param cache holds the decoded chunks.
+    * @param layer the layer of each chunk this grid views.
+    */
+   public ChunkedTileGrid( final ChunkCache cache, final int layer )
+   {
+      super( cache.getLayout().getWidth(), cache.getLayout().getHeight() );
+      this.cache = cache;
+      this.layer = layer;
+      this.chunkMask = ( 1 << cache.getLayout().getChunkShift() ) - 1;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @return the cache holding the decoded chunks.
+    */
+   public ChunkCache getCache()
+   {
+      return this.cache;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int get( final int index )
+   {
+      final int y = index / this.width;
+      final int x = index - ( y * this.width );
+      final Cursor cached = this.cursor;
+      if( x >= cached.left && x < cached.right && y >= cached.top && y < cached.bottom )
+      {
+         return cached.grid.get( x & this.chunkMask, y & this.chunkMask );
+      }
+      return lookUp( x, y );
+   }
+   
+   /**
+    * Chunked maps are read-only.
+    * 
+    * @throws UnsupportedOperationException always.
+    */
+   @Override
+   public void set( final int index, final int tile )
+   {
+      throw new UnsupportedOperationException( "Chunked maps are read-only" ); //$NON-NLS-1$
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public boolean isReadOnly()
+   {
+      return true;
+   }
+   
+   /**
+    * Checks the chunks covering a range of tiles. Any that are not resident are queued.
+    * 
+    * {@inheritDoc}
+    */
+   @Override
+   public boolean isLoaded( final int xStart, final int yStart, final int xEnd, final int yEnd )
+   {
+      final ChunkLayout layout = this.cache.getLayout();
+      final int shift = layout.getChunkShift();
+      final int chunksWide = layout.getChunksWide();
+      boolean loaded = true;
+      for( int yChunk = yStart >> shift; yChunk <= ( yEnd - 1 ) >> shift; yChunk++ )
+      {
+         for( int xChunk = xStart >> shift; xChunk <= ( xEnd - 1 ) >> shift; xChunk++ )
+         {
+            if( this.cache.getResidentChunk( ( yChunk * chunksWide ) + xChunk ) == null )
+            {
+               // Carry on so that every missing chunk gets queued
+               loaded = false;
+            }
+         }
+      }
+      return loaded;
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   /**
+    * Reads a tile outside the chunk of the last read and remembers its chunk for the next one.
+    */
+   private int lookUp( final int x, final int y )
+   {
+      final TileGrid[] grids =
+         this.cache.getResidentChunk( this.cache.getLayout().getChunkIndex( x, y ) );
+      if( grids == null )
+      {
+         // Not resident yet. It has been queued, so draw nothing rather than wait for it.
+         return -1;
+      }
+      
+      final TileGrid grid = grids[ this.layer ];
+      final int left = x & ~this.chunkMask;
+      final int top = y & ~this.chunkMask;
+      this.cursor = new Cursor( left, top, left + grid.getWidth(), top + grid.getHeight(), grid );
+      return grid.get( x & this.chunkMask, y & this.chunkMask );
+   }
+   
+   
+   //================|  Inner Classes      |====================================
+   
+   /**
+    * A chunk and the tiles of the grid it covers.
+    */
+   private static final class Cursor
+   {
+      /** The X coordinate of the left-most tile of the chunk. */
+      final int left;
+      
+      /** The Y coordinate of the top-most tile of the chunk. */
+      final int top;
+      
+      /** One past the X coordinate of the right-most tile of the chunk. */
+      final int right;
+      
+      /** One past the Y coordinate of the bottom-most tile of the chunk. */
+      final int bottom;
+      
+      /** The chunk's grid for this layer. */
+      final TileGrid grid;
+      
+      Cursor( final int left,
+              final int top,
+              final int right,
+              final int bottom,
+              final TileGrid grid )
+      {
+         this.left = left;
+         this.top = top;
+         this.right = right;
+         this.bottom = bottom;
+         this.grid = grid;
+      }
+   }
+}
@@ -0,0 +1,79 @@
+package uk.co.eduardo.abaddon.map.chunks;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import uk.co.eduardo.abaddon.map.MapStreamSource;
+
+/**
+ * Reads chunk data straight from the map file each time a chunk is needed, so that none of it
+ * is held in memory.
+ * 
+ * @author Ed
+ */
+public class StreamChunkSource implements ChunkSource
+{
+   //================|  Fields             |====================================
+   
+   /** Opens the map file. */
+   private final MapStreamSource source;
+   
+   /** The offset of the chunk data from the start of the map file. */
+   private final int dataOffset;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param source opens the map file.
+    * @param dataOffset the offset of the chunk data from the start of the map file.
+    */
+   public StreamChunkSource( final MapStreamSource source, final int dataOffset )
+   {
+      this.source = source;
+      this.dataOffset = dataOffset;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public byte[] read( final int offset, final int length ) throws IOException
+   {
+      final InputStream stream = this.source.open();
+      try
+      {
+         long remaining = (long) this.dataOffset + offset;
+         while( remaining > 0 )
+         {
+            final long skipped = stream.skip( remaining );
+            if( skipped > 0 )
+            {
+               remaining -= skipped;
+            }
+            else if( stream.read() >= 0 )
+            {
+               // Some streams refuse to skip but can still be read
+               remaining--;
+            }
+            else
+            {
+               throw new EOFException( "Map file is shorter than its chunk table" ); //$NON-NLS-1$
+            }
+         }
+         
+         final byte[] data = new byte[ length ];
+         new DataInputStream( stream ).readFully( data );
+         return data;
+      }
+      finally
+      {
+         stream.close();
+      }
+   }
+}
@@ -0,0 +1,55 @@
+package uk.co.eduardo.abaddon.map.sections;
+
+import uk.co.eduardo.abaddon.map.TileGrid;
+import uk.co.eduardo.abaddon.map.chunks.ChunkCache;
+import uk.co.eduardo.abaddon.map.chunks.ChunkedTileGrid;
+
+/**
+ * A {@link MapSection} whose layers are decoded a chunk at a time as they are needed. See
+ * {@link ChunkCache}.
+ * 
+ * @author Ed
+ */
+public class ChunkedMapSection extends MapSection
+{
+   //================|  Fields             |====================================
+   
+   /** Holds the decoded chunks. */
+   private final ChunkCache cache;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param cache holds the decoded chunks.
+    */
+   public ChunkedMapSection( final ChunkCache cache )
+   {
+      super( cache.getLayout().getWidth(), cache.getLayout().getHeight(), createLayers( cache ) );
+      this.cache = cache;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @return the cache holding the decoded chunks.
+    */
+   public ChunkCache getChunkCache()
+   {
+      return this.cache;
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   private static TileGrid[] createLayers( final ChunkCache cache )
+   {
+      final TileGrid[] layers = new TileGrid[ cache.getLayout().getLayerCount() ];
+      for( int layer = 0; layer < layers.length; layer++ )
+      {
+         layers[ layer ] = new ChunkedTileGrid( cache, layer );
+      }
+      return layers;
+   }
+}
@@ -0,0 +1,164 @@
+package uk.co.eduardo.abaddon.map.sections;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import uk.co.eduardo.abaddon.map.MapStreamSource;
+import uk.co.eduardo.abaddon.map.chunks.ByteArrayChunkSource;
+import uk.co.eduardo.abaddon.map.chunks.ChunkCache;
+import uk.co.eduardo.abaddon.map.chunks.ChunkLayout;
+import uk.co.eduardo.abaddon.map.chunks.ChunkSource;
+import uk.co.eduardo.abaddon.map.chunks.StreamChunkSource;
+
+/**
+ * Reads/writes a {@link MapSection} split into chunks that can be decoded independently.
+ * <p>
+ * The section is stored as follows. The name of the variable and the number of bytes are shown:
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * width: 2
+ * height: 2
+ * nLayers: 1
+ * chunkShift: 1          // Chunks are ( 1 &lt;&lt; chunkShift ) tiles square
+ * dataOffset: 4          // The offset of the chunk data from the start of the file
+ * foreach chunk
+ *   foreach nLayers
+ *     length: 4          // The number of bytes of data for this layer of this chunk
+ *   end
+ * end
+ * data: sum of lengths   // See ChunkLayout
+ * _____________________________________________________________________________
+ * </pre>
+ * The chunk data must be the last thing in the file so that it can be left unread when the
+ * chunks are streamed from the file.
+ * 
+ * @author Ed
+ */
+public class ChunkedMapSectionProducer extends AbstractFileSectionProducer< MapSection >
+{
+   //================|  Fields             |====================================
+   
+   /** Re-opens the map file for streaming, or null to read the chunk data into memory. */
+   private final MapStreamSource source;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * Constructs a producer that reads the chunk data into memory.
+    */
+   public ChunkedMapSectionProducer()
+   {
+      this( null );
+   }
+   
+   /**
+    * @param source re-opens the map file so that chunks can be streamed from it, or null to read
+    *               the chunk data into memory.
+    */
+   public ChunkedMapSectionProducer( final MapStreamSource source )
+   {
+      super( MapSection.class );
+      this.source = source;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public MapSection readSection( final DataInputStream stream ) throws IOException
+   {
+      final int width = stream.readShort();
+      final int height = stream.readShort();
+      final int layerCount = stream.read();
+      final int chunkShift = stream.read();
+      final int dataOffset = stream.readInt();
+      
+      final int chunkCount = ( ( width + ( 1 << chunkShift ) - 1 ) >> chunkShift ) *
+                             ( ( height + ( 1 << chunkShift ) - 1 ) >> chunkShift );
+      final int[] lengths = new int[ chunkCount * layerCount ];
+      int dataLength = 0;
+      for( int index = 0; index < lengths.length; index++ )
+      {
+         lengths[ index ] = stream.readInt();
+         dataLength += lengths[ index ];
+      }
+      final ChunkLayout layout = new ChunkLayout( width, height, layerCount, chunkShift, lengths );
+      
+      final ChunkSource chunkSource;
+      if( this.source == null )
+      {
+         final byte[] data = new byte[ dataLength ];
+         stream.readFully( data );
+         chunkSource = new ByteArrayChunkSource( data );
+      }
+      else
+      {
+         chunkSource = new StreamChunkSource( this.source, dataOffset );
+      }
+      return new ChunkedMapSection( new ChunkCache( layout, chunkSource ) );
+   }
+   
+   /**
+    * {@inheritDoc}
+    * <p>
+    * The stream must have been opened at the start of the file so that its size is the offset
+    * at which the section starts.
+    */
+   @Override
+   public void writeSection( final DataOutputStream stream, final MapSection section ) throws IOException
+   {
+      if( section instanceof ChunkedMapSection )
+      {
+         // Chunks that are not resident read as empty, so bring the whole map in first
+         ( (ChunkedMapSection) section ).getChunkCache().preloadAll();
+      }
+      
+      final int layerCount = section.getLayerCount();
+      final int chunkShift = ChunkLayout.DEFAULT_CHUNK_SHIFT;
+      
+      // Lay the chunks out with empty lengths just to find out how many there are.
+      final int chunkSize = 1 << chunkShift;
+      final int chunksWide = ( section.getWidth() + chunkSize - 1 ) >> chunkShift;
+      final int chunksHigh = ( section.getHeight() + chunkSize - 1 ) >> chunkShift;
+      final ChunkLayout layout = new ChunkLayout( section.getWidth(), 
+                                                  section.getHeight(), 
+                                                  layerCount, 
+                                                  chunkShift, 
+                                                  new int[ chunksWide * chunksHigh * layerCount ] );
+      
+      final byte[][] data = new byte[ chunksWide * chunksHigh * layerCount ][];
+      int index = 0;
+      for( int chunkY = 0; chunkY < chunksHigh; chunkY++ )
+      {
+         for( int chunkX = 0; chunkX < chunksWide; chunkX++ )
+         {
+            for( int layer = 0; layer < layerCount; layer++ )
+            {
+               data[ index++ ] = layout.encodeChunk( section.getLayer( layer ), chunkX, chunkY );
+            }
+         }
+      }
+      
+      stream.writeShort( section.getWidth() );
+      stream.writeShort( section.getHeight() );
+      stream.write( layerCount );
+      stream.write( chunkShift );
+      
+      // The data follows this offset and the table of lengths.
+      stream.writeInt( stream.size() + 4 + ( 4 * data.length ) );
+      for( final byte[] chunkData : data )
+      {
+         stream.writeInt( chunkData.length );
+      }
+      for( final byte[] chunkData : data )
+      {
+         stream.write( chunkData );
+      }
+   }
+}
@@ -0,0 +1,339 @@
+package uk.co.eduardo.abaddon.map.sections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import uk.co.eduardo.abaddon.map.SparseTileGrid;
+import uk.co.eduardo.abaddon.map.TileGrid;
+import uk.co.eduardo.abaddon.util.VarintUtilities;
+
+/**
+ * Reads/writes a {@link MapSection} in a compressed form.
+ * <p>
+ * The section is stored as follows. The name of the variable and the number of bytes are shown:
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * deflated: 1            // 1 if the payload was passed through a Deflater, 0 otherwise
+ * rawLength: 4           // The length of the payload before deflation
+ * storedLength: 4        // The number of payload bytes that follow
+ * payload: storedLength
+ * _____________________________________________________________________________
+ * </pre>
+ * where the (inflated) payload is:
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * width: 2
+ * height: 2
+ * nSparse: 1             // The number of sparse layers
+ * nRuns: 4               // The base layer as run-length encoded row-major tiles
+ * foreach nRuns
+ *   runLength: varint
+ *   tileId: 2
+ * end
+ * foreach nSparse
+ *   nEntries: varint
+ *   foreach nEntries
+ *     indexDelta: varint // ( y * width + x ) minus that of the previous entry in the layer
+ *     tileId: 2
+ *   end
+ * end
+ * _____________________________________________________________________________
+ * </pre>
+ * Varints are read/written by {@link VarintUtilities}.
+ * 
+ * @author Ed
+ */
+public class CompressedMapSectionProducer extends AbstractFileSectionProducer< MapSection >
+{
+   //================|  Fields             |====================================
+   
+   /** Whether to try deflating the payload when writing. */
+   private final boolean deflate;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * Constructs a producer that deflates the payload when writing if that makes it smaller.
+    */
+   public CompressedMapSectionProducer()
+   {
+      this( true );
+   }
+   
+   /**
+    * @param deflate whether to try deflating the payload when writing. Deflated payloads are only
+    *                written if they are smaller than the raw payload.
+    */
+   public CompressedMapSectionProducer( final boolean deflate )
+   {
+      super( MapSection.class );
+      this.deflate = deflate;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public MapSection readSection( final DataInputStream stream ) throws IOException
+   {
+      final boolean deflated = stream.read() == 1;
+      final int rawLength = stream.readInt();
+      final int storedLength = stream.readInt();
+      if( rawLength < 0 || storedLength < 0 )
+      {
+         throw new IOException( "Corrupt map section lengths" ); //$NON-NLS-1$
+      }
+      
+      final byte[] stored = new byte[ storedLength ];
+      stream.readFully( stored );
+      
+      final byte[] payload = deflated ? inflate( stored, rawLength ) : stored;
+      return decode( ByteBuffer.wrap( payload ) );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void writeSection( final DataOutputStream stream, final MapSection section ) throws IOException
+   {
+      final byte[] payload = encode( section );
+      final byte[] deflated = this.deflate ? deflate( payload ) : null;
+      
+      if( deflated != null && deflated.length < payload.length )
+      {
+         stream.write( 1 );
+         stream.writeInt( payload.length );
+         stream.writeInt( deflated.length );
+         stream.write( deflated );
+      }
+      else
+      {
+         stream.write( 0 );
+         stream.writeInt( payload.length );
+         stream.writeInt( payload.length );
+         stream.write( payload );
+      }
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   private static MapSection decode( final ByteBuffer buffer ) throws IOException
+   {
+      // The layer being decoded, so that a corrupt payload can say where it went wrong
+      int layer = 0;
+      try
+      {
+         final int width = buffer.getShort();
+         final int height = buffer.getShort();
+         final int sparseLayerCount = buffer.get() & 0xFF;
+         if( width < 0 || height < 0 || sparseLayerCount > MapSection.MAX_SPARSE_MAPS )
+         {
+            throw new IOException( "Corrupt map section header" ); //$NON-NLS-1$
+         }
+         final int size = width * height;
+         
+         final TileGrid[] layers = new TileGrid[ MapSection.MAX_SPARSE_MAPS + 1 ];
+         final int[] tiles = new int[ size ];
+         
+         // Expand the runs of the base layer.
+         final int runCount = buffer.getInt();
+         int index = 0;
+         for( int run = 0; run < runCount; run++ )
+         {
+            final int runLength = VarintUtilities.readVarint( buffer );
+            final int tile = buffer.getShort();
+            if( runLength < 0 || index + runLength > size )
+            {
+               throw new IOException( "Base layer runs overflow the map" ); //$NON-NLS-1$
+            }
+            Arrays.fill( tiles, index, index + runLength, tile );
+            index += runLength;
+         }
+         if( index != size )
+         {
+            throw new IOException( "Base layer runs do not cover the map" ); //$NON-NLS-1$
+         }
+         
+         layers[ 0 ] = TileGrid.fromTiles( width, height, tiles );
+         
+         for( layer = 1; layer < layers.length; layer++ )
+         {
+            // Sparse layers are empty (-1) apart from the entries that follow.
+            Arrays.fill( tiles, -1 );
+            
+            if( layer <= sparseLayerCount )
+            {
+               final int entryCount = VarintUtilities.readVarint( buffer );
+               int position = 0;
+               for( int entry = 0; entry < entryCount; entry++ )
+               {
+                  position += VarintUtilities.readVarint( buffer );
+                  if( position < 0 || position >= size )
+                  {
+                     throw new IOException( "Sparse entry lies outside the map in layer " + //$NON-NLS-1$
+                                            layer );
+                  }
+                  tiles[ position ] = buffer.getShort();
+               }
+            }
+            layers[ layer ] = SparseTileGrid.fromTiles( width, height, tiles );
+         }
+         return new MapSection( width, height, layers );
+      }
+      catch( final BufferUnderflowException exception )
+      {
+         throw new IOException( "Truncated map section in layer " + layer, exception ); //$NON-NLS-1$
+      }
+   }
+   
+   private static byte[] encode( final MapSection section ) throws IOException
+   {
+      final int width = section.getWidth();
+      final int height = section.getHeight();
+      
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream( bytes );
+      
+      out.writeShort( width );
+      out.writeShort( height );
+      out.write( section.getSparseMapCount() );
+      
+      // Base layer runs. The run count is not known until the end so buffer them separately.
+      final ByteArrayOutputStream runBytes = new ByteArrayOutputStream();
+      final DataOutputStream runs = new DataOutputStream( runBytes );
+      int runCount = 0;
+      int runTile = 0;
+      int runLength = 0;
+      for( int y = 0; y < height; y++ )
+      {
+         for( int x = 0; x < width; x++ )
+         {
+            final int tile = section.getLayer( 0 ).get( x, y );
+            if( runLength > 0 && tile != runTile )
+            {
+               VarintUtilities.writeVarint( runs, runLength );
+               runs.writeShort( runTile );
+               runCount++;
+               runLength = 0;
+            }
+            runTile = tile;
+            runLength++;
+         }
+      }
+      if( runLength > 0 )
+      {
+         VarintUtilities.writeVarint( runs, runLength );
+         runs.writeShort( runTile );
+         runCount++;
+      }
+      out.writeInt( runCount );
+      runBytes.writeTo( out );
+      
+      // Sparse layers as delta-coded row-major positions.
+      for( int layer = 0; layer < section.getSparseMapCount(); layer++ )
+      {
+         final TileGrid sparseMap = section.getLayer( layer + 1 );
+         int entryCount = 0;
+         for( int y = 0; y < height; y++ )
+         {
+            for( int x = 0; x < width; x++ )
+            {
+               if( sparseMap.get( x, y ) != -1 )
+               {
+                  entryCount++;
+               }
+            }
+         }
+         VarintUtilities.writeVarint( out, entryCount );
+         
+         int previous = 0;
+         for( int y = 0; y < height; y++ )
+         {
+            for( int x = 0; x < width; x++ )
+            {
+               if( sparseMap.get( x, y ) != -1 )
+               {
+                  final int position = ( y * width ) + x;
+                  VarintUtilities.writeVarint( out, position - previous );
+                  out.writeShort( sparseMap.get( x, y ) );
+                  previous = position;
+               }
+            }
+         }
+      }
+      out.flush();
+      return bytes.toByteArray();
+   }
+   
+   private static byte[] deflate( final byte[] data )
+   {
+      final Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION );
+      try
+      {
+         deflater.setInput( data );
+         deflater.finish();
+         
+         final ByteArrayOutputStream out = new ByteArrayOutputStream( data.length );
+         final byte[] chunk = new byte[ 4096 ];
+         while( !deflater.finished() )
+         {
+            final int count = deflater.deflate( chunk );
+            out.write( chunk, 0, count );
+         }
+         return out.toByteArray();
+      }
+      finally
+      {
+         deflater.end();
+      }
+   }
+   
+   private static byte[] inflate( final byte[] data, final int rawLength ) throws IOException
+   {
+      final Inflater inflater = new Inflater();
+      try
+      {
+         inflater.setInput( data );
+         final byte[] result = new byte[ rawLength ];
+         int offset = 0;
+         while( offset < rawLength && !inflater.finished() )
+         {
+            final int count = inflater.inflate( result, offset, rawLength - offset );
+            if( count == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+            {
+               break;
+            }
+            offset += count;
+         }
+         if( offset != rawLength )
+         {
+            throw new IOException( "Truncated map section" ); //$NON-NLS-1$
+         }
+         return result;
+      }
+      catch( final DataFormatException exception )
+      {
+         throw new IOException( "Corrupt map section", exception ); //$NON-NLS-1$
+      }
+      finally
+      {
+         inflater.end();
+      }
+   }
+}
@@ -0,0 +1,175 @@
+package uk.co.eduardo.abaddon.map.sections;
+
+import java.util.Arrays;
+
+import uk.co.eduardo.abaddon.map.TileGrid;
+
+/**
+ * Tables derived from the tile layers and the tileset description when the map was compiled so
+ * that they need not be worked out while the game is running. See
+ * {@link uk.co.eduardo.abaddon.map.MapCompiler}.
+ * <p>
+ * Every table has one entry per map layer:
+ * <ul>
+ * <li>collision: the {@link uk.co.eduardo.abaddon.tileset.TileDescription} walk flags of the tile
+ * in each cell, 0 for empty cells.</li>
+ * <li>animated cells: the sorted indices of the cells that hold an animated tile.</li>
+ * <li>regions: for a hero on that layer, the id of the connected region each cell belongs to. The
+ * hero cannot walk between cells in different regions. Cells the hero cannot walk into or out of
+ * at all are in {@link #NO_REGION}.</li>
+ * <li>bounds: the smallest rectangle of cells that contains every non-empty cell.</li>
+ * </ul>
+ * 
+ * @author Ed
+ */
+public class DerivedSection implements FileSection
+{
+   //================|  Fields             |====================================
+   
+   /** Index of the left edge in a bounds array. */
+   public static final int LEFT = 0;
+   
+   /** Index of the top edge in a bounds array. */
+   public static final int TOP = 1;
+   
+   /** Index of the (exclusive) right edge in a bounds array. */
+   public static final int RIGHT = 2;
+   
+   /** Index of the (exclusive) bottom edge in a bounds array. */
+   public static final int BOTTOM = 3;
+   
+   /** Region id of the cells that cannot be walked into or out of at all. */
+   public static final int NO_REGION = 0;
+   
+   /** Walk flags of each cell, per layer. */
+   private final TileGrid[] collision;
+   
+   /** Sorted indices of the animated cells, per layer. */
+   private final int[][] animatedCells;
+   
+   /** Region id of each cell for a hero on that layer. */
+   private final TileGrid[] regions;
+   
+   /** The bounds of the non-empty cells, per layer. */
+   private final int[][] bounds;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param collision the walk flags of each cell, per layer.
+    * @param animatedCells the sorted indices of the animated cells, per layer.
+    * @param regions the region id of each cell for a hero on that layer.
+    * @param bounds the bounds of the non-empty cells, per layer. Each is indexed by
+    *               {@link #LEFT}, {@link #TOP}, {@link #RIGHT} and {@link #BOTTOM}.
+    */
+   public DerivedSection( final TileGrid[] collision,
+                          final int[][] animatedCells,
+                          final TileGrid[] regions,
+                          final int[][] bounds )
+   {
+      if( animatedCells.length != collision.length || regions.length != collision.length ||
+          bounds.length != collision.length )
+      {
+         throw new IllegalArgumentException();
+      }
+      this.collision = collision;
+      this.animatedCells = animatedCells;
+      this.regions = regions;
+      this.bounds = bounds;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @return the number of layers the tables describe.
+    */
+   public int getLayerCount()
+   {
+      return this.collision.length;
+   }
+   
+   /**
+    * @param layer the index of the layer.
+    * @return the walk flags of each cell of the layer.
+    */
+   public TileGrid getCollision( final int layer )
+   {
+      return this.collision[ layer ];
+   }
+   
+   /**
+    * @param layer the index of the layer.
+    * @return the sorted indices of the cells of the layer that hold an animated tile. Must not be
+    *         modified.
+    */
+   public int[] getAnimatedCells( final int layer )
+   {
+      return this.animatedCells[ layer ];
+   }
+   
+   /**
+    * @param layer the index of the layer the hero is on.
+    * @return the region id of each cell.
+    */
+   public TileGrid getRegions( final int layer )
+   {
+      return this.regions[ layer ];
+   }
+   
+   /**
+    * @param layer the index of the layer.
+    * @return the bounds of the non-empty cells of the layer, indexed by {@link #LEFT},
+    *         {@link #TOP}, {@link #RIGHT} and {@link #BOTTOM}. An empty layer has empty bounds.
+    *         Must not be modified.
+    */
+   public int[] getBounds( final int layer )
+   {
+      return this.bounds[ layer ];
+   }
+   
+   /**
+    * Checks whether a hero on a layer could possibly walk from one cell to another. Sprites are
+    * not taken into account so a <code>true</code> result does not guarantee that a path exists.
+    * 
+    * @param layer the index of the layer the hero is on.
+    * @param xFrom the source X tile coordinate.
+    * @param yFrom the source Y tile coordinate.
+    * @param xTo the target X tile coordinate.
+    * @param yTo the target Y tile coordinate.
+    * @return <code>false</code> if there is definitely no way between the two cells.
+    */
+   public boolean isReachable( final int layer,
+                               final int xFrom,
+                               final int yFrom,
+                               final int xTo,
+                               final int yTo )
+   {
+      if( layer < 0 || layer >= this.regions.length )
+      {
+         return true;
+      }
+      final TileGrid layerRegions = this.regions[ layer ];
+      if( !layerRegions.contains( xFrom, yFrom ) || !layerRegions.contains( xTo, yTo ) )
+      {
+         return false;
+      }
+      if( xFrom == xTo && yFrom == yTo )
+      {
+         return true;
+      }
+      final int region = layerRegions.get( xFrom, yFrom );
+      return region != NO_REGION && region == layerRegions.get( xTo, yTo );
+   }
+   
+   /**
+    * @param layer the index of the layer.
+    * @param index the cell index.
+    * @return <code>true</code> if the cell holds an animated tile.
+    */
+   public boolean isAnimated( final int layer, final int index )
+   {
+      return Arrays.binarySearch( this.animatedCells[ layer ], index ) >= 0;
+   }
+}
@@ -0,0 +1,205 @@
+package uk.co.eduardo.abaddon.map.sections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import uk.co.eduardo.abaddon.map.TileGrid;
+import uk.co.eduardo.abaddon.util.VarintUtilities;
+
+/**
+ * Reads/writes a {@link DerivedSection}.
+ * <p>
+ * The section is deflated. Inflated, it is stored as follows. The name of the variable and the
+ * number of bytes are shown:
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * layerCount: 1
+ * width: 2
+ * height: 2
+ * foreach layerCount
+ *   collision: grid
+ *   nAnimated: varint
+ *   foreach nAnimated
+ *     indexDelta: varint   // Cell index minus that of the previous animated cell in the layer
+ *   end
+ *   regions: grid
+ *   left: 2
+ *   top: 2
+ *   right: 2
+ *   bottom: 2
+ * end
+ * _____________________________________________________________________________
+ * </pre>
+ * where each grid is run-length encoded in row-major order:
+ * <pre>
+ * _____________________________________________________________________________
+ * 
+ * nRuns: varint
+ * foreach nRuns
+ *   runLength: varint
+ *   value: varint        // The cell value plus one so that empty cells are stored as 0
+ * end
+ * _____________________________________________________________________________
+ * </pre>
+ * 
+ * @author Ed
+ */
+public class DerivedSectionProducer extends AbstractFileSectionProducer< DerivedSection >
+{
+   //================|  Constructors       |====================================
+   
+   /**
+    * Default constructor.
+    */
+   public DerivedSectionProducer()
+   {
+      super( DerivedSection.class );
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public DerivedSection readSection( final DataInputStream deflated ) throws IOException
+   {
+      // The section is the last thing in its buffer so the inflater may read ahead freely
+      final DataInputStream stream = new DataInputStream( new InflaterInputStream( deflated ) );
+      final int layerCount = stream.read();
+      final int width = stream.readShort();
+      final int height = stream.readShort();
+      
+      final TileGrid[] collision = new TileGrid[ layerCount ];
+      final int[][] animatedCells = new int[ layerCount ][];
+      final TileGrid[] regions = new TileGrid[ layerCount ];
+      final int[][] bounds = new int[ layerCount ][];
+      
+      final int[] cells = new int[ width * height ];
+      for( int layer = 0; layer < layerCount; layer++ )
+      {
+         collision[ layer ] = readGrid( stream, width, height, cells );
+         
+         final int animatedCount = VarintUtilities.readVarint( stream );
+         animatedCells[ layer ] = new int[ animatedCount ];
+         int position = 0;
+         for( int cell = 0; cell < animatedCount; cell++ )
+         {
+            position += VarintUtilities.readVarint( stream );
+            if( position >= cells.length )
+            {
+               throw new IOException( "Animated cell lies outside the map" ); //$NON-NLS-1$
+            }
+            animatedCells[ layer ][ cell ] = position;
+         }
+         
+         regions[ layer ] = readGrid( stream, width, height, cells );
+         
+         bounds[ layer ] = new int[] { stream.readShort(),
+                                       stream.readShort(),
+                                       stream.readShort(),
+                                       stream.readShort() };
+      }
+      return new DerivedSection( collision, animatedCells, regions, bounds );
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void writeSection( final DataOutputStream deflated, final DerivedSection section ) throws IOException
+   {
+      final Deflater deflater = new Deflater( Deflater.BEST_COMPRESSION );
+      final DeflaterOutputStream deflating = new DeflaterOutputStream( deflated, deflater );
+      final DataOutputStream stream = new DataOutputStream( deflating );
+      final int layerCount = section.getLayerCount();
+      stream.write( layerCount );
+      stream.writeShort( section.getCollision( 0 ).getWidth() );
+      stream.writeShort( section.getCollision( 0 ).getHeight() );
+      
+      for( int layer = 0; layer < layerCount; layer++ )
+      {
+         writeGrid( stream, section.getCollision( layer ) );
+         
+         final int[] animatedCells = section.getAnimatedCells( layer );
+         VarintUtilities.writeVarint( stream, animatedCells.length );
+         int previous = 0;
+         for( final int cell : animatedCells )
+         {
+            VarintUtilities.writeVarint( stream, cell - previous );
+            previous = cell;
+         }
+         
+         writeGrid( stream, section.getRegions( layer ) );
+         
+         for( final int edge : section.getBounds( layer ) )
+         {
+            stream.writeShort( edge );
+         }
+      }
+      
+      // Finish the deflated data without closing the underlying stream
+      stream.flush();
+      deflating.finish();
+      deflater.end();
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   private static TileGrid readGrid( final DataInputStream stream,
+                                     final int width,
+                                     final int height,
+                                     final int[] cells ) throws IOException
+   {
+      final int runCount = VarintUtilities.readVarint( stream );
+      int index = 0;
+      for( int run = 0; run < runCount; run++ )
+      {
+         final int runLength = VarintUtilities.readVarint( stream );
+         final int value = VarintUtilities.readVarint( stream ) - 1;
+         if( index + runLength > cells.length )
+         {
+            throw new IOException( "Derived grid runs overflow the map" ); //$NON-NLS-1$
+         }
+         Arrays.fill( cells, index, index + runLength, value );
+         index += runLength;
+      }
+      if( index != cells.length )
+      {
+         throw new IOException( "Derived grid runs do not cover the map" ); //$NON-NLS-1$
+      }
+      return TileGrid.fromTiles( width, height, cells );
+   }
+   
+   private static void writeGrid( final DataOutputStream stream, final TileGrid grid ) throws IOException
+   {
+      // The run count is not known until the end so buffer the runs separately.
+      final ByteArrayOutputStream runBytes = new ByteArrayOutputStream();
+      final DataOutputStream runs = new DataOutputStream( runBytes );
+      final int size = grid.getWidth() * grid.getHeight();
+      int runCount = 0;
+      int runStart = 0;
+      for( int index = 1; index <= size; index++ )
+      {
+         if( index == size || grid.get( index ) != grid.get( runStart ) )
+         {
+            VarintUtilities.writeVarint( runs, index - runStart );
+            VarintUtilities.writeVarint( runs, grid.get( runStart ) + 1 );
+            runCount++;
+            runStart = index;
+         }
+      }
+      runs.flush();
+      VarintUtilities.writeVarint( stream, runCount );
+      runBytes.writeTo( stream );
+   }
+}
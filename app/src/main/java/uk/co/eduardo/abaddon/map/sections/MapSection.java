@@ -1,5 +1,6 @@
 package uk.co.eduardo.abaddon.map.sections;
 
+import uk.co.eduardo.abaddon.map.TileGrid;
 
 /**
  * Contains the 2D tile grid information from a map file
@@ -17,7 +18,7 @@ public class MapSection implements FileSection
    private int sparseMapCount;
    
    /** all the map layers */
-   private final int[][][] maps;
+   private final TileGrid[] layers;
    
    /** The number of tiles wide the maps are. */
    private final int width;
@@ -25,25 +26,25 @@ public class MapSection implements FileSection
    /** The number of tiles high the maps are. */
    private final int height;
    
- 
+   
    //================|  Constructors       |====================================
    
    /**
     * @param width width of the map in tiles
     * @param height height of the map in tiles
-    * @param maps the tile arrays.
+    * @param layers the tile grids, base layer first.
     */
    public MapSection( final int width,
                       final int height,
-                      final int[][][] maps )
+                      final TileGrid[] layers )
    {
-      this.maps = maps;
+      this.layers = layers;
       
       this.height = height;
       this.width = width;
-      if( maps != null )
+      if( layers != null )
       {
-         this.sparseMapCount = maps.length - 1;
+         this.sparseMapCount = layers.length - 1;
       }
       else
       {
@@ -55,13 +56,20 @@ public class MapSection implements FileSection
    //================|  Public Methods     |====================================
    
    /**
-    * @return the map layers defined in this map file. e.g. returning an
-    *         array with dimensions int[3][20][30] would represent a map file
-    *         with 3 map layers each with 20 rows and 30 columns.
+    * @return the number of map layers defined in this map file.
+    */
+   public int getLayerCount()
+   {
+      return this.layers.length;
+   }
+   
+   /**
+    * @param index the index of the layer. The base layer has index 0.
+    * @return the tile grid for that layer.
     */
-   public int[][][] getMaps()
+   public TileGrid getLayer( final int index )
    {
-      return this.maps;
+      return this.layers[ index ];
    }
    
    /**
@@ -81,7 +89,7 @@ public class MapSection implements FileSection
    }
    
    //================|  Default Methods    |====================================
-
+   
    int getSparseMapCount()
    {
       return this.sparseMapCount;
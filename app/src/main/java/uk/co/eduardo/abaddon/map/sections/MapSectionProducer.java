@@ -3,8 +3,13 @@ package uk.co.eduardo.abaddon.map.sections;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
+import uk.co.eduardo.abaddon.map.SparseTileGrid;
+import uk.co.eduardo.abaddon.map.TileGrid;
 import uk.co.eduardo.abaddon.util.Coordinate;
 
 /**
@@ -39,44 +44,59 @@ public class MapSectionProducer extends AbstractFileSectionProducer< MapSection
       
       // The number of sparse layers defined in this map
       final int sparseLayerCount = stream.read();
+      if( sparseLayerCount < 0 || sparseLayerCount > MapSection.MAX_SPARSE_MAPS )
+      {
+         // The extra layers would be left in the stream and throw out every later section
+         throw new IOException( "Unsupported sparse layer count " + sparseLayerCount ); //$NON-NLS-1$
+      }
       
-      final int[][][] maps= new int[ MapSection.MAX_SPARSE_MAPS + 1 ][ height ][ width ];
+      final TileGrid[] layers = new TileGrid[ MapSection.MAX_SPARSE_MAPS + 1 ];
       
-      for( int y = 0; y < height; y++ )
+      // Read the whole base layer in one go. The shorts are stored big-endian, which is the
+      // ByteBuffer default, so this matches DataInputStream.readShort().
+      final byte[] baseData = new byte[ width * height * 2 ];
+      stream.readFully( baseData );
+      final ShortBuffer baseTiles = ByteBuffer.wrap( baseData ).asShortBuffer();
+      
+      final int[] tiles = new int[ width * height ];
+      for( int index = 0; index < tiles.length; index++ )
       {
-         for( int x = 0; x < width; x++ )
-         {
-            // Read the tile indices
-            maps[ 0 ][ y ][ x ] = stream.readShort();
-            for( int layer = 1; layer < MapSection.MAX_SPARSE_MAPS + 1; layer++ )
-            {
-               maps[ layer ][ y ][ x ] = -1;
-            }
-         }
+         tiles[ index ] = baseTiles.get();
       }
+      layers[ 0 ] = TileGrid.fromTiles( width, height, tiles );
       
-      for( int layer = 0; layer < sparseLayerCount; layer++ )
-      {         
-         final int entryCount = stream.readShort();
-   
-         for( int entry = 0; entry < entryCount; entry++ )
+      for( int layer = 1; layer < layers.length; layer++ )
+      {
+         // Sparse layers are empty (-1) apart from the entries that follow.
+         Arrays.fill( tiles, -1 );
+         
+         if( layer <= sparseLayerCount )
          {
-            final int x = stream.readShort();
-            final int y = stream.readShort();
-            maps[ layer + 1 ][ y ][ x ] = stream.readShort();
+            final int entryCount = stream.readShort();
+            
+            // Each entry is an (x, y, tile) triple of shorts.
+            final byte[] entryData = new byte[ entryCount * 6 ];
+            stream.readFully( entryData );
+            final ShortBuffer entries = ByteBuffer.wrap( entryData ).asShortBuffer();
+            
+            for( int entry = 0; entry < entryCount; entry++ )
+            {
+               final int x = entries.get();
+               final int y = entries.get();
+               tiles[ ( y * width ) + x ] = entries.get();
+            }
          }
+         layers[ layer ] = SparseTileGrid.fromTiles( width, height, tiles );
       }
-      return new MapSection( width, height, maps );
+      return new MapSection( width, height, layers );
    }
-
+   
    /**
     * {@inheritDoc}
     */
    @Override
    public void writeSection( final DataOutputStream stream, final MapSection section ) throws IOException
    {
-      final int[][][] maps = section.getMaps();
-      
       stream.writeShort( section.getWidth() );
       stream.writeShort( section.getHeight() );
       stream.write( section.getSparseMapCount() );
@@ -86,21 +106,22 @@ public class MapSectionProducer extends AbstractFileSectionProducer< MapSection
          for( int x = 0; x < section.getWidth(); x++ )
          {
             // Write the base map tile indices
-            stream.writeShort( maps[ 0 ][ y ][ x ] );
+            stream.writeShort( section.getLayer( 0 ).get( x, y ) );
          }
       }
       
       for( int layer = 0; layer < section.getSparseMapCount(); layer++ )
       {
+         final TileGrid sparseMap = section.getLayer( layer + 1 );
          final ArrayList< Integer > sparseIdx = new ArrayList< Integer >();
          final ArrayList< Coordinate > sparseCoords = new ArrayList< Coordinate >();
          for( int y = 0; y < section.getHeight(); y++ )
          {
             for( int x = 0; x < section.getWidth(); x++ )
             {
-               if( maps[ layer + 1 ][ y ][ x ] != -1 )
+               if( sparseMap.get( x, y ) != -1 )
                {
-                  sparseIdx.add( maps[ layer + 1 ][ y ][ x ] );
+                  sparseIdx.add( sparseMap.get( x, y ) );
                   sparseCoords.add( new Coordinate( x, y ) );
                }
             }
@@ -38,6 +38,11 @@ public class NpcSectionProducer extends AbstractFileSectionProducer< NpcSection
       // Read the number of NPCs in the map.
       final int npcCount = stream.readShort();
       final NPC[] characters = new NPC[ npcCount ];
+      
+      // The speeches are only decoded when they are said. Many NPCs say the same thing.
+      final StringTable.Builder speeches = new StringTable.Builder();
+      final int[][] speechIds = new int[ npcCount ][];
+      final int[][] speechEvents = new int[ npcCount ][];
 
       for( int npc = 0; npc < npcCount; npc++ )
       {
@@ -64,11 +69,21 @@ public class NpcSectionProducer extends AbstractFileSectionProducer< NpcSection
          characters[ npc ] = new NPC( anim, x, y, id, fixed, speechCount );
          characters[ npc ].setLayerIndex( layerIndex );
 
+         speechIds[ npc ] = new int[ speechCount ];
+         speechEvents[ npc ] = new int[ speechCount ];
          for( int s = 0; s < speechCount; s++ )
          {
-            final int event = stream.readShort();
-            final String speech = readString( stream );
-            characters[ npc ].setSpeech( s, speech, event );
+            speechEvents[ npc ][ s ] = stream.readShort();
+            speechIds[ npc ][ s ] = speeches.read( stream, stream.readShort() & 0xFFFF );
+         }
+      }
+      
+      final StringTable table = speeches.build();
+      for( int npc = 0; npc < npcCount; npc++ )
+      {
+         for( int s = 0; s < speechIds[ npc ].length; s++ )
+         {
+            characters[ npc ].setSpeech( s, table, speechIds[ npc ][ s ], speechEvents[ npc ][ s ] );
          }
       }
       return new NpcSection( characters );
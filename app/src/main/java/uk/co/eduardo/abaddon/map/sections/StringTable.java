@@ -0,0 +1,183 @@
+package uk.co.eduardo.abaddon.map.sections;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The strings of a map kept as undecoded UTF-8 in a single pool. Identical strings are stored once
+ * and each string is only decoded the first time it is asked for.
+ * 
+ * @author Ed
+ */
+public final class StringTable
+{
+   //================|  Fields             |====================================
+   
+   /** The encoding of the strings in the map files. */
+   private static final Charset UTF_8 = Charset.forName( "UTF-8" ); //$NON-NLS-1$
+   
+   /** The encoded strings, back to back. */
+   private final byte[] pool;
+   
+   /** The offset of each string in the pool. */
+   private final int[] offsets;
+   
+   /** The length in bytes of each string. */
+   private final int[] lengths;
+   
+   /** The strings that have been decoded so far. */
+   private final String[] decoded;
+   
+   
+   //================|  Constructors       |====================================
+   
+   private StringTable( final byte[] pool, final int[] offsets, final int[] lengths )
+   {
+      this.pool = pool;
+      this.offsets = offsets;
+      this.lengths = lengths;
+      this.decoded = new String[ offsets.length ];
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @return the number of distinct strings in the table.
+    */
+   public int getCount()
+   {
+      return this.offsets.length;
+   }
+   
+   /**
+    * @param id the id returned by {@link Builder#read(DataInputStream, int)}.
+    * @return the string with that id.
+    */
+   public String get( final int id )
+   {
+      // Decoding the same string twice on different threads is harmless
+      String string = this.decoded[ id ];
+      if( string == null )
+      {
+         string = new String( this.pool, this.offsets[ id ], this.lengths[ id ], UTF_8 );
+         this.decoded[ id ] = string;
+      }
+      return string;
+   }
+   
+   
+   //================|  Inner Classes      |====================================
+   
+   /**
+    * Collects the strings of a map as it is read.
+    */
+   public static final class Builder
+   {
+      private byte[] pool = new byte[ 1024 ];
+      
+      private int poolSize = 0;
+      
+      private int[] offsets = new int[ 16 ];
+      
+      private int[] lengths = new int[ 16 ];
+      
+      /** The next string with the same hash as each string, or -1. */
+      private int[] chains = new int[ 16 ];
+      
+      private int count = 0;
+      
+      /** The first string with each hash. */
+      private final HashMap< Integer, Integer > firstByHash = new HashMap< Integer, Integer >();
+      
+      /**
+       * Reads an encoded string straight into the pool.
+       * 
+       * @param stream the stream from which to read.
+       * @param length the number of bytes in the encoded string.
+       * @return the id of the string. Identical strings share an id.
+       * @throws IOException if a problem occurs reading from the stream.
+       */
+      public int read( final DataInputStream stream, final int length ) throws IOException
+      {
+         if( this.poolSize + length > this.pool.length )
+         {
+            final int capacity = Math.max( this.pool.length * 2, this.poolSize + length );
+            this.pool = Arrays.copyOf( this.pool, capacity );
+         }
+         final int offset = this.poolSize;
+         stream.readFully( this.pool, offset, length );
+         
+         int hash = length;
+         for( int i = offset; i < offset + length; i++ )
+         {
+            hash = ( 31 * hash ) + this.pool[ i ];
+         }
+         
+         final Integer first = this.firstByHash.get( Integer.valueOf( hash ) );
+         int last = -1;
+         for( int id = first != null ? first.intValue() : -1; id != -1; id = this.chains[ id ] )
+         {
+            if( equals( this.offsets[ id ], this.lengths[ id ], offset, length ) )
+            {
+               // Already in the pool so drop the copy just read
+               return id;
+            }
+            last = id;
+         }
+         
+         if( this.count == this.offsets.length )
+         {
+            this.offsets = Arrays.copyOf( this.offsets, this.count * 2 );
+            this.lengths = Arrays.copyOf( this.lengths, this.count * 2 );
+            this.chains = Arrays.copyOf( this.chains, this.count * 2 );
+         }
+         final int id = this.count++;
+         this.offsets[ id ] = offset;
+         this.lengths[ id ] = length;
+         this.chains[ id ] = -1;
+         this.poolSize += length;
+         if( last == -1 )
+         {
+            this.firstByHash.put( Integer.valueOf( hash ), Integer.valueOf( id ) );
+         }
+         else
+         {
+            this.chains[ last ] = id;
+         }
+         return id;
+      }
+      
+      /**
+       * @return a table of the strings read so far.
+       */
+      public StringTable build()
+      {
+         return new StringTable( Arrays.copyOf( this.pool, this.poolSize ),
+                                 Arrays.copyOf( this.offsets, this.count ),
+                                 Arrays.copyOf( this.lengths, this.count ) );
+      }
+      
+      private boolean equals( final int offset, 
+                              final int length, 
+                              final int otherOffset, 
+                              final int otherLength )
+      {
+         if( length != otherLength )
+         {
+            return false;
+         }
+         for( int i = 0; i < length; i++ )
+         {
+            if( this.pool[ offset + i ] != this.pool[ otherOffset + i ] )
+            {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+}
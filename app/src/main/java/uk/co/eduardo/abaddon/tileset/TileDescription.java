@@ -1,5 +1,7 @@
 package uk.co.eduardo.abaddon.tileset;
 
+import java.util.Arrays;
+
 /**
  * Describes which tiles can be walked on, from which direction each tile can
  * be entered from end exitited to and whcih tiles are animated.
@@ -28,22 +30,66 @@ public class TileDescription
    /** The tile is blocked along the top-right to bottom-left diagonal */
    public final static int TR_BL_DIAG = 0x00000020;
    
+   /** The number of frames an animated tile has when its description does not say */
+   public final static int DEFAULT_FRAME_COUNT = 2;
+   
+   /** The milliseconds each frame is shown for when a description does not say */
+   public final static int DEFAULT_FRAME_PERIOD = 500;
+   
    /** The list of walkable tiles. Composition of the previous masks */
    public final int[] walkable;
    
-   /** The list of animated tile indices */
+   /** The list of animated tile indices. The frames of each follow it in the tileset */
    public final int[] animated;
    
+   /** The number of frames of each animated tile, including the animated tile itself */
+   public final int[] frameCounts;
+   
+   /** The milliseconds each frame of each animated tile is shown for */
+   public final int[] framePeriods;
+   
    
    //================|  Constructors       |====================================
    
    /**
+    * Describes animated tiles that have the default two frames, each shown for the default
+    * period.
+    * 
     * @param walkable the array of walkable tile information.
     * @param animated the array of animated tile information.
     */
    public TileDescription( final int[] walkable, final int[] animated )
+   {
+      this( walkable, 
+            animated, 
+            filled( animated.length, DEFAULT_FRAME_COUNT ), 
+            filled( animated.length, DEFAULT_FRAME_PERIOD ) );
+   }
+   
+   /**
+    * @param walkable the array of walkable tile information.
+    * @param animated the array of animated tile information.
+    * @param frameCounts the number of frames of each animated tile.
+    * @param framePeriods the milliseconds each frame of each animated tile is shown for.
+    */
+   public TileDescription( final int[] walkable, 
+                           final int[] animated,
+                           final int[] frameCounts,
+                           final int[] framePeriods )
    {
       this.walkable = walkable;
       this.animated = animated;
+      this.frameCounts = frameCounts;
+      this.framePeriods = framePeriods;
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   private static int[] filled( final int length, final int value )
+   {
+      final int[] array = new int[ length ];
+      Arrays.fill( array, value );
+      return array;
    }
 }
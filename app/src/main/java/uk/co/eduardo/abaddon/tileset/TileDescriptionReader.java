@@ -1,8 +1,12 @@
 package uk.co.eduardo.abaddon.tileset;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Reads a {@link TileDescription} from a resource <code>InputStream</code>
@@ -12,22 +16,51 @@ import java.io.OutputStream;
  * <pre>
  * _____________________________________________________________________________
  * 
+ * marker: 2              // 0xFFFF. Absent in version 0 descriptions
+ * version: 1             // Absent in version 0 descriptions
+ * 
  * nWalkable: 2           // All tiles with an index below this can be walked on
  * foreach nWalkable
  *   walkDirections: 1    // A composition of allowable entry directions
  * end
  * 
- * nAnimated: 1           // The number of animated tiles
+ * nAnimated: 2           // The number of animated tiles. 1 byte in version 0
  * foreach nAnimated
  *   animTileId: 2        // The tile index of the animated tile
  * end
+ * 
+ * foreach nAnimated      // Version 2 onwards
+ *   frameCount: 1        // The number of frames, which follow the animated tile
+ *   framePeriod: 2       // The milliseconds each frame is shown for
+ * end
  * _____________________________________________________________________________
  * </pre>
+ * Animated tiles of descriptions before version 2 have
+ * {@value TileDescription#DEFAULT_FRAME_COUNT} frames shown for
+ * {@value TileDescription#DEFAULT_FRAME_PERIOD} milliseconds each.
+ * <p>
+ * The whole description is read in one go and decoded from memory. Descriptions that are
+ * truncated or of an unknown version are rejected.
  * 
  * @author Ed
  */
 public class TileDescriptionReader
 {
+   //================|  Fields             |====================================
+   
+   /** Precedes the version number. Too many tiles to be the walkable count of version 0. */
+   private static final int VERSION_MARKER = 0xFFFF;
+   
+   /** The version written by {@link #writeStream(TileDescription, OutputStream)}. */
+   private static final int LATEST_VERSION = 2;
+   
+   /** The first version to give the frames of each animated tile. */
+   private static final int FRAMES_VERSION = 2;
+   
+   /** The size of the buffer used if the stream cannot say how long it is. */
+   private static final int DEFAULT_BUFFER_SIZE = 1024;
+   
+   
    //================|  Constructors       |====================================
    
    /**
@@ -42,91 +75,148 @@ public class TileDescriptionReader
    //================|  Public Methods     |====================================
    
    /**
-    * @param stream the stream from which to read
-    * @return a {@link TileDescription} or null if the stream could not be read
+    * @param stream the stream from which to read. It does not need to be buffered.
+    * @return the read {@link TileDescription}.
+    * @throws IOException if the stream could not be read or does not hold a complete description.
     */
-   public static TileDescription readStream( final InputStream stream )
+   public static TileDescription readStream( final InputStream stream ) throws IOException
    {
-      TileDescription retVal = null;
- 
+      final ByteBuffer buffer = ByteBuffer.wrap( readFully( stream ) );
       try
       {
-         final int nWalkable = readShort( stream );
-         final int[] walkDirections = new int[nWalkable];
+         int version = 0;
+         if( ( buffer.getShort( 0 ) & 0xFFFF ) == VERSION_MARKER )
+         {
+            buffer.getShort();
+            version = buffer.get() & 0xFF;
+            if( version > LATEST_VERSION )
+            {
+               throw new IOException( "Unsupported tile description version " + version ); //$NON-NLS-1$
+            }
+         }
          
+         // The walk directions are one byte each
+         final int nWalkable = buffer.getShort() & 0xFFFF;
+         final byte[] walkBytes = new byte[ nWalkable ];
+         buffer.get( walkBytes );
+         final int[] walkDirections = new int[ nWalkable ];
          for( int tile = 0; tile < nWalkable; tile++ )
          {
-            walkDirections[tile] = stream.read();
+            walkDirections[ tile ] = walkBytes[ tile ] & 0xFF;
          }
          
-         final int nAnimated = stream.read();
-         final int[] animTiles = new int[nAnimated];
-         
+         final int nAnimated = version == 0 ? buffer.get() & 0xFF : buffer.getShort() & 0xFFFF;
+         final short[] animShorts = new short[ nAnimated ];
+         buffer.asShortBuffer().get( animShorts );
+         final int[] animTiles = new int[ nAnimated ];
          for( int tile = 0; tile < nAnimated; tile++ )
          {
-            animTiles[tile] = readShort( stream );
+            animTiles[ tile ] = animShorts[ tile ];
+         }
+         
+         buffer.position( buffer.position() + ( nAnimated * 2 ) );
+         if( version < FRAMES_VERSION )
+         {
+            return new TileDescription( walkDirections, animTiles );
          }
          
-         retVal = new TileDescription( walkDirections, animTiles );
+         final int[] frameCounts = new int[ nAnimated ];
+         final int[] framePeriods = new int[ nAnimated ];
+         for( int tile = 0; tile < nAnimated; tile++ )
+         {
+            frameCounts[ tile ] = buffer.get() & 0xFF;
+            framePeriods[ tile ] = buffer.getShort() & 0xFFFF;
+            if( frameCounts[ tile ] == 0 || framePeriods[ tile ] == 0 )
+            {
+               throw new IOException( "Animated tile " + animTiles[ tile ] + //$NON-NLS-1$
+                                      " has no frames" ); //$NON-NLS-1$
+            }
+         }
+         return new TileDescription( walkDirections, animTiles, frameCounts, framePeriods );
       }
-      catch( final IOException exception )
+      catch( final BufferUnderflowException exception )
       {
-         // return a null description
+         throw new IOException( "Truncated tile description", exception ); //$NON-NLS-1$
+      }
+      catch( final IndexOutOfBoundsException exception )
+      {
+         throw new IOException( "Truncated tile description", exception ); //$NON-NLS-1$
       }
-      return retVal;
    }
    
    /**
-    * @param walkable the array of walkable tile information.
-    * @param anim the array of animated tile information.
-    * @param stream the stream to which these are to be written.
+    * Writes a description in the latest version of the format.
+    * 
+    * @param description the description to write.
+    * @param stream the stream to which it is to be written.
+    * @throws IOException if a problem occurs writing to the stream.
     */
-   public static void writeStream( final int[] walkable,
-                                   final int[] anim, 
-                                   final OutputStream stream )
+   public static void writeStream( final TileDescription description,
+                                   final OutputStream stream ) throws IOException
    {
-      try
+      final DataOutputStream out = new DataOutputStream( stream );
+      out.writeShort( VERSION_MARKER );
+      out.write( LATEST_VERSION );
+      
+      // Write the number of walkable tiles
+      out.writeShort( description.walkable.length );
+      
+      for( final int walk : description.walkable )
       {
-         // Write the number of walkable tiles
-         writeShort( walkable.length, stream );
-         
-         for( final int walk : walkable )
-         {
-            // Write each walkable directions
-            stream.write( walk );
-         }
-         
-         // write the number of animated tiles
-         stream.write( anim.length );
-         for( final int a : anim)
-         {
-            // Write the tile index for the animated tile
-            writeShort( a, stream );
-         }
+         // Write each walkable directions
+         out.write( walk );
+      }
+      
+      // write the number of animated tiles
+      out.writeShort( description.animated.length );
+      for( final int a : description.animated )
+      {
+         // Write the tile index for the animated tile
+         out.writeShort( a );
       }
-      catch( final Exception e )
+      
+      // Then how each animates
+      for( int tile = 0; tile < description.animated.length; tile++ )
       {
-         // nothing.
+         out.write( description.frameCounts[ tile ] );
+         out.writeShort( description.framePeriods[ tile ] );
       }
+      out.flush();
    }
    
-   
-   //================|  Private Methods    |====================================
-   
-   private static short readShort( final InputStream stream ) throws IOException
+   /**
+    * Writes a description whose animated tiles have the default frames.
+    * 
+    * @param walkable the array of walkable tile information.
+    * @param anim the array of animated tile information.
+    * @param stream the stream to which these are to be written.
+    * @throws IOException if a problem occurs writing to the stream.
+    */
+   public static void writeStream( final int[] walkable,
+                                   final int[] anim,
+                                   final OutputStream stream ) throws IOException
    {
-      final int high = stream.read();
-      final int low = stream.read();
-      
-      return (short) ( low | ( high << 8 ) );
+      writeStream( new TileDescription( walkable, anim ), stream );
    }
    
-   private static void writeShort( final int data, final OutputStream stream ) throws IOException
+   
+   //================|  Private Methods    |====================================
+   
+   private static byte[] readFully( final InputStream stream ) throws IOException
    {
-      final byte loByte = (byte) ( data & 0x00FF );
-      final byte hiByte = (byte) ( ( data & 0xFF00 ) >> 8 );
-      
-      stream.write( hiByte );
-      stream.write( loByte );
+      // Resource streams know how much is left so this is normally a single read. The extra byte
+      // saves growing the buffer just to find the end of the stream.
+      byte[] data = new byte[ Math.max( stream.available() + 1, DEFAULT_BUFFER_SIZE ) ];
+      int length = 0;
+      int count;
+      while( ( count = stream.read( data, length, data.length - length ) ) != -1 )
+      {
+         length += count;
+         if( length == data.length )
+         {
+            data = Arrays.copyOf( data, data.length * 2 );
+         }
+      }
+      return Arrays.copyOf( data, length );
    }
 }
@@ -2,12 +2,26 @@ package uk.co.eduardo.abaddon.tileset;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 
+import uk.co.eduardo.abaddon.graphics.BitmapPool;
+import uk.co.eduardo.abaddon.graphics.RenderBackend;
+import uk.co.eduardo.abaddon.util.AnimationClock;
 import uk.co.eduardo.abaddon.util.ScreenSettings;
 
 /**
- * Creates tileset from a <code>Drawable</code> by breaking it up into chunks.
+ * Creates tileset from a <code>Drawable</code>. The tiles are kept together in atlas bitmaps and
+ * each is drawn from its own region of one of them.
+ * <p>
+ * Tiles without any transparent pixels go in an <code>RGB_565</code> atlas and are drawn without
+ * blending. The rest go in an <code>ARGB_8888</code> atlas.
+ * <p>
+ * A tileset may be built with only the tiles that a map uses, in which case only those tiles and
+ * the frames of those that are animated are packed into the atlases.
  * 
  * @author Ed
  */
@@ -15,23 +29,47 @@ public class Tileset
 {   
    //================|  Fields             |====================================
    
-   /** The tiles in this <code>Tileset</code> */
-   private final Bitmap[] tiles;
+   /** The image holding the opaque tiles or <code>null</code> if there are none */
+   private final Bitmap opaqueAtlas;
+   
+   /** The image holding the other tiles or <code>null</code> if there are none */
+   private final Bitmap alphaAtlas;
+   
+   /** True if the tile with the same index is in the atlases */
+   private final boolean[] included;
+   
+   /** True if the tile with the same index is fully opaque */
+   private final boolean[] opaque;
+   
+   /** The region of its atlas covered by each tile */
+   private final Rect[] sources;
+   
+   /** Replaces what is under opaque tiles rather than blending with it */
+   private final Paint opaquePaint = new Paint();
+   
+   /** Where the tile being drawn goes. Tiles are only drawn on the game thread. */
+   private final Rect destination = new Rect();
    
    /** Describes which tiles can be walked on and which are animated */
    private final TileDescription description;
    
+   /** The tile to draw for each tile index. Only differs for animated tiles */
+   private final int[] remap;
+   
+   /** The animated tile indices */
+   private final int[] animatedTiles;
+   
    /** True if the tile with the same index is animated */
    private final boolean[] animated;
    
-   /** The time at which the last animation was done */
-   private long lastAnimate = 0;
+   /** The number of frames of each animated tile */
+   private final int[] frameCounts;
    
-   /** 0 or 1 for the animated frames */
-   private int animFrame = 0;
+   /** The milliseconds each frame of each animated tile is shown for */
+   private final int[] framePeriods;
    
-   /** Number of milliseconds between animation updates */
-   private final static long ANIM_UPDATE = 500;
+   /** The {@link AnimationClock} frame for which the remap table was last updated */
+   private int lastAnimateFrame = -1;
    
    
    //================|  Constructors       |====================================
@@ -42,57 +80,91 @@ public class Tileset
     */
    public Tileset( final Drawable tileImage,
                    final TileDescription description )
+   {
+      this( tileImage, description, null );
+   }
+   
+   /**
+    * @param tileImage the image containing all the tiles.
+    * @param description the tileset description.
+    * @param usedTiles true for each tile index that will be drawn, or <code>null</code> for all
+    *        tiles. The frames of animated tiles are included automatically.
+    */
+   public Tileset( final Drawable tileImage,
+                   final TileDescription description,
+                   final boolean[] usedTiles )
+   {
+      this( drawSheet( tileImage ), description, usedTiles );
+   }
+   
+   /**
+    * @param sheet the image containing all the tiles. It is given to the {@link BitmapPool}
+    *        once the tiles have been copied out of it.
+    * @param description the tileset description.
+    * @param usedTiles true for each tile index that will be drawn, or <code>null</code> for all
+    *        tiles. The frames of animated tiles are included automatically.
+    */
+   public Tileset( final Bitmap sheet,
+                   final TileDescription description,
+                   final boolean[] usedTiles )
    {      
       final int tileSize = ScreenSettings.tileSize;
       
       this.description = description;
       
-      // First, create a bitmap from the Drawable.
-      final int width = tileImage.getIntrinsicWidth();
-      final int height = tileImage.getIntrinsicHeight();
-
+      final int width = sheet.getWidth();
+      final int height = sheet.getHeight();
+      
       // Check that the image is the correct size
       if( width % tileSize != 0 || height % tileSize != 0 )
       {
+         BitmapPool.release( sheet );
          throw new IllegalArgumentException(
             "Tile image dimensions are not a multiple of the tile size" ); //$NON-NLS-1$
       }
-      // Create a bitmap from the drawable
-      final Bitmap tileMap = 
-         Bitmap.createBitmap( width, height, Bitmap.Config.ARGB_8888 );
-      
-      final Canvas canvas = new Canvas( tileMap );
-      tileImage.setBounds( 0, 0, width, height );
-      tileImage.draw( canvas );
       
-      // Break the image into separate tiles
       final int xBlocks = width / tileSize;
       final int yBlocks = height / tileSize;
       
-      this.tiles = new Bitmap[xBlocks * yBlocks];
-      this.animated = new boolean[xBlocks * yBlocks];
+      this.sources = new Rect[xBlocks * yBlocks];
+      this.remap = new int[xBlocks * yBlocks];
+      for( int index = 0; index < this.remap.length; index++ )
+      {
+         this.remap[index] = index;
+      }
+      this.opaque = findOpaqueTiles( sheet, xBlocks, yBlocks );
+      this.included = new boolean[xBlocks * yBlocks];
+      for( int index = 0; index < this.included.length; index++ )
+      {
+         this.included[index] = isUsed( usedTiles, index );
+      }
       
-      int index = 0;
-      int currentY = 0;
-      for( int y = 0; y < yBlocks; y++ )
+      // Only use the frames that are in the tileset
+      this.animatedTiles = description.animated;
+      this.frameCounts = new int[ this.animatedTiles.length ];
+      this.framePeriods = description.framePeriods;
+      this.animated = new boolean[xBlocks * yBlocks];
+      for( int anim = 0; anim < this.animatedTiles.length; anim++ )
       {
-         int currentX = 0;
-         for( int x = 0; x < xBlocks; x++ )
+         final int tile = this.animatedTiles[ anim ];
+         this.animated[ tile ] = true;
+         this.frameCounts[ anim ] = 
+            Math.max( 1, Math.min( description.frameCounts[ anim ], this.sources.length - tile ) );
+         
+         // Every frame of a used animated tile is drawn at some point
+         if( this.included[ tile ] )
          {
-            this.animated[index] = false;
-            this.tiles[index++] = Bitmap.createBitmap( tileMap,
-                                                  currentX,
-                                                  currentY,
-                                                  tileSize,
-                                                  tileSize );
-            currentX += tileSize;
+            for( int frame = 1; frame < this.frameCounts[ anim ]; frame++ )
+            {
+               this.included[ tile + frame ] = true;
+            }
          }
-         currentY += tileSize;
-      }
-      for( final int anim : description.animated )
-      {
-         this.animated[anim] = true;
       }
+      
+      this.opaqueAtlas = pack( sheet, xBlocks, true, Bitmap.Config.RGB_565 );
+      this.alphaAtlas = pack( sheet, xBlocks, false, Bitmap.Config.ARGB_8888 );
+      BitmapPool.release( sheet );
+      this.opaquePaint.setXfermode( new PorterDuffXfermode( PorterDuff.Mode.SRC ) );
    }
    
    
@@ -103,21 +175,78 @@ public class Tileset
     */
    public int getTileCount()
    {
-      if( this.tiles != null )
+      return this.sources.length;
+   }
+   
+   /**
+    * Draws the current frame of a tile.
+    * 
+    * @param renderer draws the tile.
+    * @param index the index of the tile to draw. Tiles the tileset was built without are not
+    *        drawn.
+    * @param x the left of the tile.
+    * @param y the top of the tile.
+    * @param paint the paint with which to draw.
+    */
+   public void drawTile( final RenderBackend renderer,
+                         final int index,
+                         final int x,
+                         final int y,
+                         final Paint paint )
+   {
+      final int tile = this.remap[index];
+      if( this.sources[tile] == null )
       {
-         return this.tiles.length;
+         return;
       }
-      return 0;
+      final int tileSize = ScreenSettings.tileSize;
+      this.destination.set( x, y, x + tileSize, y + tileSize );
+      if( this.opaque[tile] )
+      {
+         renderer.drawBitmap( this.opaqueAtlas, 
+                              this.sources[tile], 
+                              this.destination, 
+                              this.opaquePaint );
+      }
+      else
+      {
+         renderer.drawBitmap( this.alphaAtlas, this.sources[tile], this.destination, paint );
+      }
+   }
+   
+   /**
+    * @param usedTiles true for each tile index that will be drawn, or <code>null</code> for all
+    *        tiles.
+    * @return <code>true</code> if all of those tiles can be drawn by this tileset.
+    */
+   public boolean hasTiles( final boolean[] usedTiles )
+   {
+      for( int index = 0; index < this.included.length; index++ )
+      {
+         if( isUsed( usedTiles, index ) && !this.included[index] )
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   /**
+    * @param index the index of a tile.
+    * @return <code>true</code> if the tile changes as it animates.
+    */
+   public boolean isAnimated( final int index )
+   {
+      return this.animated[index];
    }
    
    /**
-    * @param index the index of the tile to retrieve
-    * @return a tile <code>Bitmap</code>
+    * @param index the index of a tile.
+    * @return <code>true</code> if every pixel of the tile is fully opaque.
     */
-   public Bitmap getTile( final int index )
+   public boolean isOpaque( final int index )
    {
-      final int offset = this.animated[index] ? this.animFrame : 0;
-      return this.tiles != null ? this.tiles[index + offset] : null;
+      return this.opaque[index];
    }
    
    /**
@@ -165,15 +294,157 @@ public class Tileset
    }
    
    /**
-    * Animate the frames
+    * @return the number of bytes used by the tile atlases.
+    */
+   public long getByteCount()
+   {
+      long bytes = 0;
+      if( this.opaqueAtlas != null )
+      {
+         bytes += this.opaqueAtlas.getByteCount();
+      }
+      if( this.alphaAtlas != null )
+      {
+         bytes += this.alphaAtlas.getByteCount();
+      }
+      return bytes;
+   }
+   
+   /**
+    * Gives the tile atlases to the {@link BitmapPool}. The tileset cannot be drawn afterwards.
+    */
+   public void recycle()
+   {
+      BitmapPool.release( this.opaqueAtlas );
+      BitmapPool.release( this.alphaAtlas );
+   }
+   
+   /**
+    * Moves the animated tiles on to their frames for the current {@link AnimationClock} time. Does
+    * nothing if they have already been moved on this frame, so every map using the tileset may
+    * call it.
     */
    public void animate()
    {
-      final long now = System.currentTimeMillis();
-      if( now - this.lastAnimate > ANIM_UPDATE )
+      final int frame = AnimationClock.getFrame();
+      if( frame == this.lastAnimateFrame )
       {
-         this.animFrame = this.animFrame == 0 ? 1 : 0;
-         this.lastAnimate = now;
+         return;
+      }
+      this.lastAnimateFrame = frame;
+      
+      final long now = AnimationClock.getTime();
+      for( int anim = 0; anim < this.animatedTiles.length; anim++ )
+      {
+         final int tile = this.animatedTiles[ anim ];
+         final long step = now / this.framePeriods[ anim ];
+         this.remap[ tile ] = tile + (int) ( step % this.frameCounts[ anim ] );
+      }
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   private static Bitmap drawSheet( final Drawable tileImage )
+   {
+      final int width = tileImage.getIntrinsicWidth();
+      final int height = tileImage.getIntrinsicHeight();
+      final Bitmap sheet = BitmapPool.obtain( width, height, Bitmap.Config.ARGB_8888 );
+      
+      final Canvas canvas = new Canvas( sheet );
+      tileImage.setBounds( 0, 0, width, height );
+      tileImage.draw( canvas );
+      return sheet;
+   }
+   
+   private static boolean isUsed( final boolean[] usedTiles, final int index )
+   {
+      return usedTiles == null || ( index < usedTiles.length && usedTiles[index] );
+   }
+   
+   /**
+    * @return for each tile in the sheet, whether all of its pixels are fully opaque.
+    */
+   private static boolean[] findOpaqueTiles( final Bitmap sheet, 
+                                             final int xBlocks, 
+                                             final int yBlocks )
+   {
+      final int tileSize = ScreenSettings.tileSize;
+      final int width = xBlocks * tileSize;
+      final boolean[] opaque = new boolean[xBlocks * yBlocks];
+      
+      // Read a row of tiles at a time
+      final int[] pixels = new int[width * tileSize];
+      for( int y = 0; y < yBlocks; y++ )
+      {
+         sheet.getPixels( pixels, 0, width, 0, y * tileSize, width, tileSize );
+         for( int x = 0; x < xBlocks; x++ )
+         {
+            boolean tileOpaque = true;
+            for( int row = 0; row < tileSize && tileOpaque; row++ )
+            {
+               final int rowStart = ( row * width ) + ( x * tileSize );
+               for( int pixel = rowStart; pixel < rowStart + tileSize; pixel++ )
+               {
+                  if( ( pixels[pixel] >>> 24 ) != 0xFF )
+                  {
+                     tileOpaque = false;
+                     break;
+                  }
+               }
+            }
+            opaque[( y * xBlocks ) + x] = tileOpaque;
+         }
+      }
+      return opaque;
+   }
+   
+   /**
+    * Copies either the opaque or the other included tiles of the sheet into a new atlas, in
+    * order, and records where each ends up.
+    * 
+    * @return the atlas or <code>null</code> if there are no such tiles.
+    */
+   private Bitmap pack( final Bitmap sheet, 
+                        final int xBlocks, 
+                        final boolean opaqueTiles, 
+                        final Bitmap.Config config )
+   {
+      final int tileSize = ScreenSettings.tileSize;
+      int count = 0;
+      for( int index = 0; index < this.opaque.length; index++ )
+      {
+         if( this.included[index] && this.opaque[index] == opaqueTiles )
+         {
+            count++;
+         }
+      }
+      if( count == 0 )
+      {
+         return null;
+      }
+      
+      final int rows = ( count + xBlocks - 1 ) / xBlocks;
+      final Bitmap atlas = BitmapPool.obtain( xBlocks * tileSize, rows * tileSize, config );
+      final Canvas canvas = new Canvas( atlas );
+      final Rect source = new Rect();
+      int slot = 0;
+      for( int index = 0; index < this.opaque.length; index++ )
+      {
+         if( !this.included[index] || this.opaque[index] != opaqueTiles )
+         {
+            continue;
+         }
+         final int xSource = ( index % xBlocks ) * tileSize;
+         final int ySource = ( index / xBlocks ) * tileSize;
+         source.set( xSource, ySource, xSource + tileSize, ySource + tileSize );
+         
+         final int xSlot = ( slot % xBlocks ) * tileSize;
+         final int ySlot = ( slot / xBlocks ) * tileSize;
+         this.sources[index] = new Rect( xSlot, ySlot, xSlot + tileSize, ySlot + tileSize );
+         canvas.drawBitmap( sheet, source, this.sources[index], null );
+         slot++;
       }
+      return atlas;
    }
 }
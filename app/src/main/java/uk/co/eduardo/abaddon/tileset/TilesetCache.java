@@ -0,0 +1,383 @@
+package uk.co.eduardo.abaddon.tileset;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+
+import uk.co.eduardo.abaddon.graphics.BitmapPool;
+import uk.co.eduardo.abaddon.util.CountingInputStream;
+import uk.co.eduardo.abaddon.util.LoadStats;
+import uk.co.eduardo.abaddon.util.Res;
+import uk.co.eduardo.abaddon.util.ResourceUtilities;
+
+/**
+ * Shares tilesets between maps so that a tileset is only sliced again once it has been evicted.
+ * <p>
+ * A tileset may be cached more than once with different subsets of its tiles. A map is given any
+ * cached copy that has all of the tiles it uses.
+ * <p>
+ * Every {@link #acquire(String, boolean[])} must be matched by a {@link #release(Tileset)}. Tilesets that
+ * are no longer referenced stay cached, least recently used first, until the cached tilesets use
+ * more than the byte budget. Referenced tilesets are never evicted, even when they are over the
+ * budget. Evicted tilesets give their atlases to the {@link BitmapPool}.
+ * <p>
+ * Tilesets are loaded outside the cache's lock, so a slow load on one thread does not hold up a
+ * {@link #release(Tileset)} or a cache hit on another. Threads that want a tileset that is already
+ * being loaded wait for that load rather than starting their own.
+ * 
+ * @author Ed
+ */
+public final class TilesetCache
+{
+   //================|  Fields             |====================================
+   
+   /** The default number of bytes of tile bitmaps to keep cached. */
+   public static final long DEFAULT_BYTE_BUDGET = 8 * 1024 * 1024;
+   
+   /** The cached tilesets, least recently used first. */
+   private static final LinkedHashMap< Tileset, Entry > ENTRIES = 
+      new LinkedHashMap< Tileset, Entry >( 4, 0.75f, true );
+   
+   /** The number of bytes of tile bitmaps to keep cached. */
+   private static long byteBudget = DEFAULT_BYTE_BUDGET;
+   
+   /** The number of bytes used by all the cached tilesets. */
+   private static long cachedBytes = 0;
+   
+   /** The tilesets being loaded. */
+   private static final ArrayList< PendingLoad > PENDING = new ArrayList< PendingLoad >();
+   
+   
+   //================|  Inner Classes      |====================================
+   
+   /**
+    * A cached tileset and the number of references to it.
+    */
+   private static class Entry
+   {
+      /** The resource name of the tileset. */
+      final String name;
+      
+      /** The tileset. */
+      final Tileset tileset;
+      
+      /** The number of bytes used by the tileset's bitmaps. */
+      final long bytes;
+      
+      /** The number of acquires not yet released. */
+      int references;
+      
+      Entry( final String name, final Tileset tileset )
+      {
+         this.name = name;
+         this.tileset = tileset;
+         this.bytes = tileset.getByteCount();
+      }
+   }
+   
+   /**
+    * A tileset being loaded and the threads waiting for it.
+    */
+   private static class PendingLoad
+   {
+      /** The resource name of the tileset. */
+      final String name;
+      
+      /** The tiles being loaded, or <code>null</code> for all of them. */
+      final boolean[] usedTiles;
+      
+      /** Counted down once the load has finished, whether or not it worked. */
+      final CountDownLatch done = new CountDownLatch( 1 );
+      
+      /** The number of acquires waiting for the load, including the one doing it. */
+      int references = 1;
+      
+      /** The loaded tileset. Set before {@link #done} is counted down. */
+      Tileset tileset;
+      
+      /** Why the load failed. Set before {@link #done} is counted down. */
+      IOException failure;
+      
+      PendingLoad( final String name, final boolean[] usedTiles )
+      {
+         this.name = name;
+         this.usedTiles = usedTiles;
+      }
+   }
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * Private constructor to prevent instantiation
+    */
+   private TilesetCache()
+   {
+      // Private constructor
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Gets a tileset with all of its tiles, slicing it from the application resources if it is not
+    * cached.
+    * 
+    * @param name the resource name of both the tileset image and its description.
+    * @return the tileset. Pass it to {@link #release(Tileset)} when it is no longer needed.
+    * @throws IOException if a problem occurs reading the tileset.
+    */
+   public static Tileset acquire( final String name ) throws IOException
+   {
+      return acquire( name, null );
+   }
+   
+   /**
+    * Gets a tileset, slicing it from the application resources if no cached copy has the tiles.
+    * 
+    * @param name the resource name of both the tileset image and its description.
+    * @param usedTiles true for each tile index that will be drawn, or <code>null</code> for all
+    *        tiles. A new copy of the tileset only holds these tiles.
+    * @return the tileset. Pass it to {@link #release(Tileset)} when it is no longer needed.
+    * @throws IOException if a problem occurs reading the tileset.
+    */
+   public static Tileset acquire( final String name, 
+                                  final boolean[] usedTiles ) throws IOException
+   {
+      final PendingLoad pending;
+      boolean loader = false;
+      synchronized( TilesetCache.class )
+      {
+         for( final Entry cached : ENTRIES.values() )
+         {
+            if( cached.name.equals( name ) && cached.tileset.hasTiles( usedTiles ) )
+            {
+               // Mark it as most recently used
+               ENTRIES.get( cached.tileset );
+               cached.references++;
+               return cached.tileset;
+            }
+         }
+         
+         PendingLoad joined = null;
+         for( final PendingLoad load : PENDING )
+         {
+            if( load.name.equals( name ) && covers( load.usedTiles, usedTiles ) )
+            {
+               joined = load;
+               break;
+            }
+         }
+         if( joined == null )
+         {
+            joined = new PendingLoad( name, usedTiles );
+            PENDING.add( joined );
+            loader = true;
+         }
+         else
+         {
+            joined.references++;
+         }
+         pending = joined;
+      }
+      
+      if( loader )
+      {
+         finishLoad( pending );
+      }
+      else
+      {
+         awaitLoad( pending );
+      }
+      
+      if( pending.failure != null )
+      {
+         throw pending.failure;
+      }
+      return pending.tileset;
+   }
+   
+   /**
+    * Releases a tileset returned by {@link #acquire(String, boolean[])}.
+    * 
+    * @param tileset the tileset to release.
+    */
+   public static synchronized void release( final Tileset tileset )
+   {
+      final Entry entry = ENTRIES.get( tileset );
+      if( entry != null )
+      {
+         entry.references--;
+      }
+      trim();
+   }
+   
+   /**
+    * @param bytes the number of bytes of tile bitmaps to keep cached.
+    */
+   public static synchronized void setByteBudget( final long bytes )
+   {
+      byteBudget = bytes;
+      trim();
+   }
+   
+   /**
+    * @return the number of bytes used by all the cached tilesets.
+    */
+   public static synchronized long getCachedBytes()
+   {
+      return cachedBytes;
+   }
+   
+   
+   //================|  Private Methods    |====================================
+   
+   /**
+    * Loads a pending tileset without holding the lock, then caches it with a reference for every
+    * acquire that waited for it.
+    */
+   private static void finishLoad( final PendingLoad pending )
+   {
+      Tileset tileset = null;
+      IOException failure = null;
+      try
+      {
+         tileset = load( pending.name, pending.usedTiles );
+      }
+      catch( final IOException exception )
+      {
+         failure = exception;
+      }
+      finally
+      {
+         synchronized( TilesetCache.class )
+         {
+            PENDING.remove( pending );
+            if( tileset != null )
+            {
+               final Entry entry = new Entry( pending.name, tileset );
+               entry.references = pending.references;
+               ENTRIES.put( tileset, entry );
+               cachedBytes += entry.bytes;
+               trim();
+            }
+            else if( failure == null )
+            {
+               // An unchecked exception is on its way up. Let the waiters fail too.
+               failure = new IOException( "Could not load tileset " + pending.name ); //$NON-NLS-1$
+            }
+            pending.tileset = tileset;
+            pending.failure = failure;
+         }
+         pending.done.countDown();
+      }
+   }
+   
+   /**
+    * Waits for another thread to load a tileset. The wait cannot be abandoned, as the tileset
+    * has already been counted as referenced by this acquire.
+    */
+   private static void awaitLoad( final PendingLoad pending )
+   {
+      boolean interrupted = false;
+      while( true )
+      {
+         try
+         {
+            pending.done.await();
+            break;
+         }
+         catch( final InterruptedException exception )
+         {
+            interrupted = true;
+         }
+      }
+      if( interrupted )
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+   
+   /**
+    * @return <code>true</code> if a load of the tiles in <code>loading</code> will include every
+    *         tile in <code>wanted</code>. Either may be <code>null</code> for all tiles.
+    */
+   private static boolean covers( final boolean[] loading, final boolean[] wanted )
+   {
+      if( loading == null )
+      {
+         return true;
+      }
+      if( wanted == null )
+      {
+         return false;
+      }
+      for( int index = 0; index < wanted.length; index++ )
+      {
+         if( wanted[ index ] && ( index >= loading.length || !loading[ index ] ) )
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   private static Tileset load( final String name, final boolean[] usedTiles ) throws IOException
+   {
+      final Resources resources = Res.resources;
+      
+      // Read the description first so that a bad one does not strand a decoded image
+      final long descriptionStart = LoadStats.start();
+      final AtomicLong bytesRead = new AtomicLong();
+      final int tilesetDscId = ResourceUtilities.getRawResourceId( name );
+      final InputStream rawStream = 
+         new CountingInputStream( resources.openRawResource( tilesetDscId ), bytesRead );
+      final TileDescription tileDesc;
+      try
+      {
+         tileDesc = TileDescriptionReader.readStream( rawStream );
+      }
+      finally
+      {
+         rawStream.close();
+      }
+      LoadStats.record( LoadStats.Phase.READ_TILE_DESCRIPTION, descriptionStart, bytesRead.get() );
+      
+      final long drawableStart = LoadStats.start();
+      final int tilesetId = ResourceUtilities.getDrawableResourceId( name );
+      final Bitmap tiles = BitmapPool.decodeResource( resources, tilesetId );
+      LoadStats.record( LoadStats.Phase.DECODE_DRAWABLE, 
+                        drawableStart, 
+                        4L * tiles.getWidth() * tiles.getHeight() );
+      
+      final long sliceStart = LoadStats.start();
+      final Tileset tileset = new Tileset( tiles, tileDesc, usedTiles );
+      LoadStats.record( LoadStats.Phase.SLICE_TILESET, sliceStart, tileset.getByteCount() );
+      return tileset;
+   }
+   
+   /**
+    * Evicts unreferenced tilesets, least recently used first, until the cache is within budget.
+    */
+   private static void trim()
+   {
+      final Iterator< Entry > entries = ENTRIES.values().iterator();
+      while( cachedBytes > byteBudget && entries.hasNext() )
+      {
+         final Entry entry = entries.next();
+         if( entry.references <= 0 )
+         {
+            entries.remove();
+            cachedBytes -= entry.bytes;
+            entry.tileset.recycle();
+         }
+      }
+   }
+}
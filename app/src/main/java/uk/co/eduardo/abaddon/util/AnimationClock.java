@@ -0,0 +1,55 @@
+package uk.co.eduardo.abaddon.util;
+
+/**
+ * The time used by everything that animates. It is read once per game frame so that every
+ * animation drawn in a frame sees the same time.
+ * 
+ * @author Ed
+ */
+public final class AnimationClock
+{
+   //================|  Fields             |====================================
+   
+   /** The time of the current frame in milliseconds */
+   private static long time = System.currentTimeMillis();
+   
+   /** Counts the frames. Changes whenever the time does */
+   private static int frame = 0;
+   
+   
+   //================|  Constructors       |====================================
+   
+   private AnimationClock()
+   {
+      // Hide constructor for utility class.
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Starts a new frame. Called once per frame by the game loop.
+    */
+   public static void tick()
+   {
+      time = System.currentTimeMillis();
+      frame++;
+   }
+   
+   /**
+    * @return the time of the current frame in milliseconds.
+    */
+   public static long getTime()
+   {
+      return time;
+   }
+   
+   /**
+    * @return the number of the current frame. Only useful for telling whether the frame has
+    *         changed.
+    */
+   public static int getFrame()
+   {
+      return frame;
+   }
+}
@@ -0,0 +1,74 @@
+package uk.co.eduardo.abaddon.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bytes read through a stream.
+ * 
+ * @author Ed
+ */
+public class CountingInputStream extends FilterInputStream
+{
+   //================|  Fields             |====================================
+   
+   /** Incremented by the number of bytes read. May be shared between streams. */
+   private final AtomicLong count;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param in the stream to read from.
+    * @param count incremented by the number of bytes read or skipped.
+    */
+   public CountingInputStream( final InputStream in, final AtomicLong count )
+   {
+      super( in );
+      this.count = count;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int read() throws IOException
+   {
+      final int b = super.read();
+      if( b >= 0 )
+      {
+         this.count.incrementAndGet();
+      }
+      return b;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int read( final byte[] buffer, final int offset, final int length ) throws IOException
+   {
+      final int read = super.read( buffer, offset, length );
+      if( read > 0 )
+      {
+         this.count.addAndGet( read );
+      }
+      return read;
+   }
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public long skip( final long n ) throws IOException
+   {
+      final long skipped = super.skip( n );
+      this.count.addAndGet( skipped );
+      return skipped;
+   }
+}
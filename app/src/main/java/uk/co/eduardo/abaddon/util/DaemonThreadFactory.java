@@ -0,0 +1,47 @@
+package uk.co.eduardo.abaddon.util;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates named daemon threads for background work so that they never keep the process alive.
+ * 
+ * @author Ed
+ */
+public class DaemonThreadFactory implements ThreadFactory
+{
+   //================|  Fields             |====================================
+   
+   /** The name given to each thread. */
+   private final String name;
+   
+   /** The priority given to each thread. */
+   private final int priority;
+   
+   
+   //================|  Constructors       |====================================
+   
+   /**
+    * @param name the name given to each thread.
+    * @param priority the priority given to each thread. See {@link Thread#setPriority(int)}.
+    */
+   public DaemonThreadFactory( final String name, final int priority )
+   {
+      this.name = name;
+      this.priority = priority;
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public Thread newThread( final Runnable runnable )
+   {
+      final Thread thread = new Thread( runnable, this.name );
+      thread.setDaemon( true );
+      thread.setPriority( this.priority );
+      return thread;
+   }
+}
@@ -36,6 +36,9 @@ public class Debug
    /** Display a path found by the path finding. */
    public static boolean showPath = true;
    
+   /** Show where the time went while loading the current map. */
+   public static boolean showLoadStats = false;
+   
    /** Whether or not accelerometer movement is enabled. */
    public static boolean useAccelerometer = false;
 }
@@ -0,0 +1,322 @@
+package uk.co.eduardo.abaddon.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times the phases of loading a map and counts the bytes each one handles.
+ * <p>
+ * A load calls {@link #begin(String)} on the thread doing the work. Code deep in the load
+ * pipeline then calls {@link #record(Phase, long, long)}, which adds to the statistics of the
+ * load running on the calling thread and does nothing otherwise. Threads helping with a load
+ * join it with {@link #attach(LoadStats)}. Once the map is on screen its statistics are
+ * {@link #publish(LoadStats) published} so they can be shown with {@link Debug#showLoadStats}.
+ * <p>
+ * All times are from {@link System#nanoTime()}, so they are unaffected by clock changes.
+ * 
+ * @author Ed
+ */
+public class LoadStats
+{
+   //================|  Enumerations       |====================================
+   
+   /**
+    * The phases of loading a map.
+    */
+   public enum Phase
+   {
+      /** Reading the map file. Bytes are those read from the file. */
+      READ_MAP( "map" ), //$NON-NLS-1$
+      
+      /** Decoding the tileset image. Bytes are the decoded pixels. */
+      DECODE_DRAWABLE( "image" ), //$NON-NLS-1$
+      
+      /** Packing the tileset image into its atlases. Bytes are the atlas pixels. */
+      SLICE_TILESET( "slice" ), //$NON-NLS-1$
+      
+      /** Reading the tile description. Bytes are those read from the file. */
+      READ_TILE_DESCRIPTION( "dsc" ), //$NON-NLS-1$
+      
+      /** Creating the NPC animations. Bytes are the decoded pixels. */
+      NPC_ANIMATIONS( "npcs" ), //$NON-NLS-1$
+      
+      /** Adding the map, sprites and windows to the LayerManager. */
+      POPULATE_LAYERS( "layers" ); //$NON-NLS-1$
+      
+      /** Short name for display. */
+      private final String label;
+      
+      private Phase( final String label )
+      {
+         this.label = label;
+      }
+      
+      /**
+       * @return a short name for display.
+       */
+      public String getLabel()
+      {
+         return this.label;
+      }
+   }
+   
+   
+   //================|  Fields             |====================================
+   
+   /** The load running on each thread. */
+   private static final ThreadLocal< LoadStats > CURRENT = new ThreadLocal< LoadStats >();
+   
+   /** The statistics of the map most recently put on screen. */
+   private static volatile LoadStats last;
+   
+   /** {@link #last} as text, built once when it is published rather than every frame. */
+   private static volatile String lastText;
+   
+   /** The name of the map being loaded. */
+   private final String mapName;
+   
+   /** When the load began. */
+   private final long beginNanos;
+   
+   /** How long reading the map took from {@link #begin(String)} to {@link #finishLoading()}. */
+   private volatile long loadNanos = -1;
+   
+   /** Time spent in each phase, indexed by ordinal. */
+   private final AtomicLongArray nanos = new AtomicLongArray( Phase.values().length );
+   
+   /** Bytes handled by each phase, indexed by ordinal. */
+   private final AtomicLongArray bytes = new AtomicLongArray( Phase.values().length );
+   
+   /** The number of times each phase was recorded, indexed by ordinal. */
+   private final AtomicLongArray counts = new AtomicLongArray( Phase.values().length );
+   
+   /** The number of bitmaps that reused a pooled bitmap. */
+   private final AtomicLong poolHits = new AtomicLong();
+   
+   /** The number of bitmaps that could not reuse a pooled bitmap. */
+   private final AtomicLong poolMisses = new AtomicLong();
+   
+   
+   //================|  Constructors       |====================================
+   
+   private LoadStats( final String mapName )
+   {
+      this.mapName = mapName;
+      this.beginNanos = System.nanoTime();
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Starts collecting statistics for a load on the calling thread.
+    * 
+    * @param mapName the name of the map being loaded.
+    * @return the statistics for the load.
+    */
+   public static LoadStats begin( final String mapName )
+   {
+      final LoadStats stats = new LoadStats( mapName );
+      CURRENT.set( stats );
+      return stats;
+   }
+   
+   /**
+    * @return the statistics for the load running on the calling thread, or null.
+    */
+   public static LoadStats getCurrent()
+   {
+      return CURRENT.get();
+   }
+   
+   /**
+    * Makes the calling thread add to the statistics of a load running on another thread.
+    * 
+    * @param stats the statistics of the load or null to stop adding to them.
+    */
+   public static void attach( final LoadStats stats )
+   {
+      if( stats == null )
+      {
+         CURRENT.remove();
+      }
+      else
+      {
+         CURRENT.set( stats );
+      }
+   }
+   
+   /**
+    * @return the time now, to pass to {@link #record(Phase, long, long)}.
+    */
+   public static long start()
+   {
+      return System.nanoTime();
+   }
+   
+   /**
+    * Adds a phase that started at the given time and has just finished to the load running on
+    * the calling thread, if any.
+    * 
+    * @param phase the phase.
+    * @param startNanos the value returned by {@link #start()} when the phase began.
+    * @param byteCount the number of bytes handled.
+    */
+   public static void record( final Phase phase, final long startNanos, final long byteCount )
+   {
+      final LoadStats stats = CURRENT.get();
+      if( stats != null )
+      {
+         stats.add( phase, System.nanoTime() - startNanos, byteCount );
+      }
+   }
+   
+   /**
+    * Counts a bitmap needed by the load running on the calling thread, if any.
+    * 
+    * @param hit true if the bitmap reused a pooled bitmap.
+    */
+   public static void recordPoolUse( final boolean hit )
+   {
+      final LoadStats stats = CURRENT.get();
+      if( stats != null )
+      {
+         ( hit ? stats.poolHits : stats.poolMisses ).incrementAndGet();
+      }
+   }
+   
+   /**
+    * Makes the statistics available through {@link #getLast()} and {@link #getLastText()}.
+    * 
+    * @param stats the statistics of the map just put on screen.
+    */
+   public static void publish( final LoadStats stats )
+   {
+      lastText = stats == null ? null : stats.toString();
+      last = stats;
+   }
+   
+   /**
+    * @return the statistics of the map most recently put on screen as text, or null. The same
+    *         string is returned until the next {@link #publish(LoadStats)}.
+    */
+   public static String getLastText()
+   {
+      return lastText;
+   }
+   
+   /**
+    * @return the statistics of the map most recently put on screen, or null.
+    */
+   public static LoadStats getLast()
+   {
+      return last;
+   }
+   
+   /**
+    * @param phase the phase.
+    * @param elapsedNanos the time the phase took.
+    * @param byteCount the number of bytes handled.
+    */
+   public void add( final Phase phase, final long elapsedNanos, final long byteCount )
+   {
+      this.nanos.addAndGet( phase.ordinal(), elapsedNanos );
+      this.bytes.addAndGet( phase.ordinal(), byteCount );
+      this.counts.incrementAndGet( phase.ordinal() );
+   }
+   
+   /**
+    * Marks the map and its tileset as read, and stops collecting on the calling thread.
+    */
+   public void finishLoading()
+   {
+      this.loadNanos = System.nanoTime() - this.beginNanos;
+      if( CURRENT.get() == this )
+      {
+         CURRENT.remove();
+      }
+   }
+   
+   /**
+    * @return the name of the map being loaded.
+    */
+   public String getMapName()
+   {
+      return this.mapName;
+   }
+   
+   /**
+    * @return how long reading the map and its tileset took, or -1 if it has not finished.
+    */
+   public long getLoadNanos()
+   {
+      return this.loadNanos;
+   }
+   
+   /**
+    * @param phase the phase.
+    * @return the total time spent in the phase. Phases on different threads may overlap.
+    */
+   public long getNanos( final Phase phase )
+   {
+      return this.nanos.get( phase.ordinal() );
+   }
+   
+   /**
+    * @param phase the phase.
+    * @return the total number of bytes handled by the phase.
+    */
+   public long getBytes( final Phase phase )
+   {
+      return this.bytes.get( phase.ordinal() );
+   }
+   
+   /**
+    * @param phase the phase.
+    * @return the number of times the phase was recorded.
+    */
+   public long getCount( final Phase phase )
+   {
+      return this.counts.get( phase.ordinal() );
+   }
+   
+   /**
+    * @return the number of bitmaps that reused a pooled bitmap.
+    */
+   public long getPoolHits()
+   {
+      return this.poolHits.get();
+   }
+   
+   /**
+    * @return the number of bitmaps that could not reuse a pooled bitmap.
+    */
+   public long getPoolMisses()
+   {
+      return this.poolMisses.get();
+   }
+   
+   /**
+    * Describes the statistics as space separated words, one per phase, followed by the bitmap
+    * pool hits and misses.
+    * 
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      final StringBuilder builder = new StringBuilder( this.mapName );
+      builder.append( String.format( " load_%.1fms", this.loadNanos / 1e6 ) ); //$NON-NLS-1$
+      for( final Phase phase : Phase.values() )
+      {
+         builder.append( String.format( " %s_%.1fms_%dkB", //$NON-NLS-1$
+                                        phase.getLabel(), 
+                                        getNanos( phase ) / 1e6, 
+                                        getBytes( phase ) >> 10 ) );
+      }
+      builder.append( String.format( " pool_%dhit_%dmiss", //$NON-NLS-1$
+                                     getPoolHits(), 
+                                     getPoolMisses() ) );
+      return builder.toString();
+   }
+}
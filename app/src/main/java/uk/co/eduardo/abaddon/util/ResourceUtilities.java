@@ -1,6 +1,9 @@
 package uk.co.eduardo.abaddon.util;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
 
 import android.content.res.Resources;
 import android.content.res.Resources.NotFoundException;
@@ -48,6 +51,22 @@ public final class ResourceUtilities
       return getResourceId( R.drawable.class, name );
    }
    
+   /**
+    * @return the names of all of the raw resources.
+    */
+   public static List< String > getRawResourceNames()
+   {
+      final List< String > names = new ArrayList< String >();
+      for( final Field field : R.raw.class.getDeclaredFields() )
+      {
+         if( Modifier.isStatic( field.getModifiers() ) && field.getType() == int.class )
+         {
+            names.add( field.getName() );
+         }
+      }
+      return names;
+   }
+   
    private static < T > int getResourceId( final Class< T > clazz, final String name )
       throws Resources.NotFoundException
    {
@@ -0,0 +1,80 @@
+package uk.co.eduardo.abaddon.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads/writes unsigned variable length integers. Each byte holds 7 bits of the value, least
+ * significant group first, with the top bit set on every byte but the last.
+ * 
+ * @author Ed
+ */
+public final class VarintUtilities
+{
+   //================|  Constructors       |====================================
+   
+   private VarintUtilities()
+   {
+      // Hide constructor for utility class.
+   }
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * @param buffer the buffer from which to read.
+    * @return the value read.
+    */
+   public static int readVarint( final ByteBuffer buffer )
+   {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do
+      {
+         b = buffer.get();
+         value |= ( b & 0x7F ) << shift;
+         shift += 7;
+      }
+      while( ( b & 0x80 ) != 0 );
+      return value;
+   }
+   
+   /**
+    * @param stream the stream from which to read.
+    * @return the value read.
+    * @throws IOException if a problem occurs reading from the stream.
+    */
+   public static int readVarint( final DataInputStream stream ) throws IOException
+   {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do
+      {
+         b = stream.readUnsignedByte();
+         value |= ( b & 0x7F ) << shift;
+         shift += 7;
+      }
+      while( ( b & 0x80 ) != 0 );
+      return value;
+   }
+   
+   /**
+    * @param stream the stream to which the value is written.
+    * @param value the non-negative value to write.
+    * @throws IOException if a problem occurs writing to the stream.
+    */
+   public static void writeVarint( final DataOutputStream stream, final int value ) throws IOException
+   {
+      int remaining = value;
+      while( ( remaining & ~0x7F ) != 0 )
+      {
+         stream.write( ( remaining & 0x7F ) | 0x80 );
+         remaining >>>= 7;
+      }
+      stream.write( remaining );
+   }
+}
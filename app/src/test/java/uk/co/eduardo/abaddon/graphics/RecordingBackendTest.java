@@ -0,0 +1,161 @@
+package uk.co.eduardo.abaddon.graphics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.graphics.Paint;
+
+import uk.co.eduardo.abaddon.graphics.RecordingBackend.Op;
+import uk.co.eduardo.abaddon.graphics.layer.PathDisplay;
+import uk.co.eduardo.abaddon.graphics.layer.Sprite;
+import uk.co.eduardo.abaddon.graphics.layer.TiledMap;
+import uk.co.eduardo.abaddon.graphics.layer.Viewport;
+import uk.co.eduardo.abaddon.map.TileGrid;
+import uk.co.eduardo.abaddon.map.sections.DerivedSection;
+import uk.co.eduardo.abaddon.tileset.TileDescription;
+import uk.co.eduardo.abaddon.util.Coordinate;
+import uk.co.eduardo.abaddon.util.Debug;
+import uk.co.eduardo.abaddon.util.ScreenSettings;
+
+/**
+ * Draws layers into a {@link RecordingBackend} on the JVM and counts what they drew.
+ * <p>
+ * The Android classes are the stubs of the unit test jar, which return default values, so only
+ * the number and kind of the commands are checked, not their coordinates or colours.
+ * 
+ * @author Ed
+ */
+public class RecordingBackendTest
+{
+   //================|  Fields             |====================================
+   
+   /** The size of the map in tiles. */
+   private static final int MAP_TILES = 8;
+   
+   /** The pixel position of the view, in the middle of the map. */
+   private static final int VIEW = 4 * 32;
+   
+   /** Records the commands. */
+   private RecordingBackend renderer;
+   
+   /** The paint passed to the layers. */
+   private Paint paint;
+   
+   
+   //================|  Public Methods     |====================================
+   
+   /**
+    * Sets up a 320x256 screen of 32 pixel tiles.
+    */
+   @Before
+   public void setUp()
+   {
+      ScreenSettings.tileSize = 32;
+      ScreenSettings.setWidth( 320 );
+      ScreenSettings.setHeight( 256 );
+      this.renderer = new RecordingBackend();
+      this.paint = new Paint();
+   }
+   
+   /**
+    * Puts the debug settings back.
+    */
+   @After
+   public void tearDown()
+   {
+      Debug.wireframe = false;
+   }
+   
+   /**
+    * A wireframe map draws the walls of the one blocked tile and fills it.
+    */
+   @Test
+   public void drawWireframeMap()
+   {
+      final int[] walls = new int[ MAP_TILES * MAP_TILES ];
+      walls[ ( 2 * MAP_TILES ) + 2 ] = TileDescription.LEFT | TileDescription.RIGHT |
+                                       TileDescription.TOP | TileDescription.BOTTOM;
+      final DerivedSection derived =
+         new DerivedSection( new TileGrid[] { TileGrid.fromTiles( MAP_TILES, MAP_TILES, walls ) },
+                             new int[][] { new int[ 0 ] },
+                             new TileGrid[] { TileGrid.fromTiles( MAP_TILES, MAP_TILES,
+                                                                  new int[ walls.length ] ) },
+                             new int[][] { new int[] { 0, 0, MAP_TILES, MAP_TILES } } );
+      final TileGrid grid = TileGrid.fromTiles( MAP_TILES, MAP_TILES, new int[ walls.length ] );
+      
+      Debug.wireframe = true;
+      new TiledMap( grid, null, derived, 0 ).draw( VIEW, VIEW, true, this.renderer, this.paint );
+      
+      assertEquals( 4, this.renderer.getCount( Op.LINE ) );
+      assertEquals( 1, this.renderer.getCount( Op.RECT ) );
+      assertEquals( 5, this.renderer.getCount() );
+   }
+   
+   /**
+    * A sprite draws one frame when it is on screen and nothing when it is not.
+    */
+   @Test
+   public void drawSprite()
+   {
+      final Sprite sprite = new Sprite( new Animation( null, 128, 384, 32, 48 ) );
+      sprite.setPixelPosition( VIEW, VIEW );
+      sprite.draw( VIEW, VIEW, true, this.renderer, this.paint );
+      
+      sprite.setPixelPosition( 100 * 32, 100 * 32 );
+      sprite.draw( VIEW, VIEW, true, this.renderer, this.paint );
+      
+      assertEquals( 1, this.renderer.getCount( Op.BITMAP_RECT ) );
+      assertEquals( 1, this.renderer.getCount() );
+   }
+   
+   /**
+    * A path that walks off the right of the screen and comes back draws a marker for each step
+    * on screen. The steps off screen are culled, some of them without being looked at, but
+    * none of the steps after the path comes back are skipped.
+    */
+   @Test
+   public void drawPath()
+   {
+      // The screen shows tiles 0 to 10 across; the path goes out to 15 and back
+      final LinkedList< Coordinate > path = new LinkedList< Coordinate >();
+      for( int x = 8; x < 15; x++ )
+      {
+         path.add( new Coordinate( x, 4 ) );
+      }
+      for( int x = 15; x >= 8; x-- )
+      {
+         path.add( new Coordinate( x, 4 ) );
+      }
+      
+      Viewport.startFrame();
+      new PathDisplay( path ).draw( VIEW, VIEW, true, this.renderer, this.paint );
+      Viewport.startFrame();
+      
+      assertEquals( 6, this.renderer.getCount( Op.BITMAP ) );
+      assertEquals( 6, this.renderer.getCount() );
+      assertEquals( 6, Viewport.getDrawn() );
+      assertEquals( 9, Viewport.getCulled() );
+   }
+   
+   /**
+    * A backend that only counts keeps no commands.
+    */
+   @Test
+   public void countOnly()
+   {
+      final RecordingBackend counter = new RecordingBackend( false );
+      counter.drawLine( 0, 0, 1, 1, this.paint );
+      counter.drawARGB( 255, 0, 0, 0 );
+      
+      assertEquals( 2, counter.getCount() );
+      assertEquals( 0, counter.getCommands().size() );
+      
+      counter.clear();
+      assertEquals( 0, counter.getCount() );
+   }
+}